@@ -0,0 +1,195 @@
+package com.github.redhatqe.polarize.benchmarks;
+
+import com.github.redhatqe.polarize.IdParams;
+import com.github.redhatqe.polarize.importer.xunit.*;
+import com.github.redhatqe.polarize.importer.xunit.Error;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * Synthetic data for the benchmarks: N classes x M methods (x K iterations for results)
+ *
+ * Everything is generated from a fixed seed, so that every run of a benchmark (and every commit it is run against)
+ * works on the same data.
+ */
+public class BenchmarkData {
+    public static final String project = "PLATTP";
+    public static final String[] projects = {project, "RHEL6", "RedHatEnterpriseLinux7"};
+    private static final long seed = 0x5EEDL;
+
+    /**
+     * A synthetic test result, ie what the XUnitReporter gets from TestNG for one iteration
+     */
+    public static class Result {
+        public final String classname;
+        public final String method;
+        public final String qual;
+        public final int status;
+        public final Throwable error;
+        public final Object[] params;
+        public final IdParams ip;
+        public final long millis;
+
+        Result(String classname, String method, int status, Throwable error, Object[] params, IdParams ip,
+               long millis) {
+            this.classname = classname;
+            this.method = method;
+            this.qual = classname + "." + method;
+            this.status = status;
+            this.error = error;
+            this.params = params;
+            this.ip = ip;
+            this.millis = millis;
+        }
+    }
+
+    public static String classname(int cls) {
+        return String.format("com.example.pkg%d.Generated%dTest", cls % 10, cls);
+    }
+
+    public static String method(int meth) {
+        return String.format("testMethod%d", meth);
+    }
+
+    /**
+     * @param classes number of classes
+     * @param methods number of methods per class
+     * @param params number of parameters of every method
+     * @param projectsPerMethod how many of {@link #projects} each method is mapped in (1-3)
+     * @return a mapping of classes x methods
+     */
+    public static Map<String, Map<String, IdParams>> mapping(int classes, int methods, int params,
+                                                             int projectsPerMethod) {
+        Map<String, Map<String, IdParams>> mapping = new LinkedHashMap<>();
+        List<String> args = new ArrayList<>();
+        for (int p = 0; p < params; p++)
+            args.add("arg" + p);
+        int id = 1;
+        for (int c = 0; c < classes; c++) {
+            for (int m = 0; m < methods; m++) {
+                Map<String, IdParams> inner = new HashMap<>();
+                for (int p = 0; p < Math.min(projectsPerMethod, projects.length); p++)
+                    inner.put(projects[p], new IdParams(String.format("%s-%d", projects[p], id), args));
+                mapping.put(classname(c) + "." + method(m), inner);
+                id++;
+            }
+        }
+        return mapping;
+    }
+
+    /**
+     * @param mapping a mapping from {@link #mapping}
+     * @param iterations number of data provider iterations of every method
+     * @return the results of running every method, mostly passing, with some failures, errors and skips
+     */
+    public static List<Result> results(Map<String, Map<String, IdParams>> mapping, int iterations) {
+        Random rand = new Random(seed);
+        List<Result> results = new ArrayList<>();
+        // Like the failures of a data provider test, the errors mostly share a stack trace
+        Throwable error = new IllegalStateException("Generated error for the benchmarks");
+        mapping.forEach((qual, inner) -> {
+            int dot = qual.lastIndexOf('.');
+            IdParams ip = inner.get(project);
+            for (int i = 0; i < iterations; i++) {
+                int roll = rand.nextInt(100);
+                int status = roll < 90 ? 1 : (roll < 97 ? 2 : 3);   // ITestResult SUCCESS, FAILURE, SKIP
+                Throwable t = null;
+                if (status == 2)
+                    t = roll < 94 ? new AssertionError("expected true") : error;
+                Object[] params = new Object[ip.getParameters().size()];
+                for (int p = 0; p < params.length; p++)
+                    params[p] = p % 2 == 0 ? "value-" + (i % 16) : Integer.valueOf(i);
+                results.add(new Result(qual.substring(0, dot), qual.substring(dot + 1), status, t, params, ip,
+                        rand.nextInt(5000)));
+            }
+        });
+        return results;
+    }
+
+    /**
+     * @param results results from {@link #results}
+     * @return the xunit report of the results, with a testsuite per class
+     */
+    public static Testsuites xunit(List<Result> results) {
+        Testsuites suites = new Testsuites();
+        com.github.redhatqe.polarize.importer.xunit.Properties props =
+                new com.github.redhatqe.polarize.importer.xunit.Properties();
+        props.getProperty().add(BenchmarkData.property("polarion-project-id", project));
+        props.getProperty().add(BenchmarkData.property("polarion-user-id", "benchmark"));
+        suites.setProperties(props);
+
+        Map<String, Testsuite> byClass = new LinkedHashMap<>();
+        for (Result r : results) {
+            Testsuite ts = byClass.computeIfAbsent(r.classname, c -> {
+                Testsuite s = new Testsuite();
+                s.setName(c);
+                s.setTime("1.0");
+                return s;
+            });
+            ts.getTestcase().add(BenchmarkData.testcase(r));
+        }
+        byClass.values().forEach(ts -> {
+            List<Testcase> tcs = ts.getTestcase();
+            ts.setTests(Integer.toString(tcs.size()));
+            ts.setErrors(Long.toString(tcs.stream().filter(t -> !t.getError().isEmpty()).count()));
+            ts.setFailures(Long.toString(tcs.stream().filter(t -> !t.getFailure().isEmpty()).count()));
+            ts.setSkipped(Long.toString(tcs.stream().filter(t -> t.getSkipped() != null).count()));
+            suites.getTestsuite().add(ts);
+        });
+        return suites;
+    }
+
+    private static Testcase testcase(Result r) {
+        Testcase tc = new Testcase();
+        tc.setName(r.method);
+        tc.setClassname(r.classname);
+        tc.setTime(Double.toString(r.millis / 1000.0));
+        if (r.status == 1)
+            tc.setStatus("success");
+        else if (r.status == 3)
+            tc.setSkipped("true");
+        else if (r.error instanceof AssertionError) {
+            Failure fail = new Failure();
+            fail.setContent(r.error.getMessage());
+            tc.getFailure().add(fail);
+        }
+        else {
+            Error err = new Error();
+            err.setMessage(r.error.getMessage());
+            err.setContent(Arrays.toString(r.error.getStackTrace()));
+            tc.getError().add(err);
+        }
+        com.github.redhatqe.polarize.importer.xunit.Properties props =
+                new com.github.redhatqe.polarize.importer.xunit.Properties();
+        props.getProperty().add(BenchmarkData.property("polarion-testcase-id", r.ip.getId()));
+        for (int p = 0; p < r.params.length; p++)
+            props.getProperty().add(BenchmarkData.property("polarion-parameter-" + r.ip.getParameters().get(p),
+                    r.params[p].toString()));
+        tc.setProperties(props);
+        return tc;
+    }
+
+    private static Property property(String name, String value) {
+        Property prop = new Property();
+        prop.setName(name);
+        prop.setValue(value);
+        return prop;
+    }
+
+    public static Path tempDir() throws IOException {
+        return Files.createTempDirectory("polarize-jmh");
+    }
+
+    public static void delete(Path dir) throws IOException {
+        if (dir == null || !dir.toFile().exists())
+            return;
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.github.redhatqe.polarize.benchmarks;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Compares two JMH JSON results files, eg from the jmh task run on two commits
+ *
+ * Every benchmark (with the same @Param values) found in both files is printed with both scores and the change.  A
+ * change of more than --threshold percent (default 5) for the worse is flagged as a regression, where worse is a
+ * higher score for the time modes and a lower one for throughput.
+ */
+public class CompareResults {
+    private static Map<String, JsonNode> load(File path) throws IOException {
+        JsonNode root = new ObjectMapper().readTree(path);
+        Map<String, JsonNode> results = new TreeMap<>();
+        for (JsonNode run : root) {
+            StringBuilder key = new StringBuilder(run.path("benchmark").asText()
+                    .replace("com.github.redhatqe.polarize.benchmarks.", ""));
+            Map<String, String> params = new TreeMap<>();
+            run.path("params").fields().forEachRemaining(e -> params.put(e.getKey(), e.getValue().asText()));
+            if (!params.isEmpty())
+                key.append(" ").append(params);
+            results.put(key.toString(), run);
+        }
+        return results;
+    }
+
+    /**
+     * @param args --base the results to compare against, --results the new results, --threshold percent
+     */
+    public static void main(String[] args) throws IOException {
+        OptionParser parser = new OptionParser();
+        OptionSpec<String> baseOpt = parser.accepts("base").withRequiredArg().ofType(String.class).required();
+        OptionSpec<String> resultsOpt = parser.accepts("results").withRequiredArg().ofType(String.class).required();
+        OptionSpec<Double> thresholdOpt = parser.accepts("threshold").withRequiredArg().ofType(Double.class)
+                .defaultsTo(5.0);
+        OptionSet opts = parser.parse(args);
+
+        Map<String, JsonNode> base = CompareResults.load(new File(opts.valueOf(baseOpt)));
+        Map<String, JsonNode> results = CompareResults.load(new File(opts.valueOf(resultsOpt)));
+        double threshold = opts.valueOf(thresholdOpt);
+
+        int regressions = 0;
+        System.out.println(String.format("%-70s %12s %12s %9s %s", "Benchmark", "Base", "Results", "Change", "Unit"));
+        for (Map.Entry<String, JsonNode> e : results.entrySet()) {
+            JsonNode before = base.get(e.getKey());
+            if (before == null)
+                continue;
+            double old = before.path("primaryMetric").path("score").asDouble();
+            double now = e.getValue().path("primaryMetric").path("score").asDouble();
+            double change = old == 0 ? 0 : (now - old) / old * 100;
+            Boolean throughput = e.getValue().path("mode").asText().equals("thrpt");
+            Boolean worse = throughput ? change < -threshold : change > threshold;
+            if (worse)
+                regressions++;
+            System.out.println(String.format("%-70s %12.3f %12.3f %8.1f%% %s%s", e.getKey(), old, now, change,
+                    e.getValue().path("primaryMetric").path("scoreUnit").asText(), worse ? "  REGRESSION" : ""));
+        }
+        Set<String> missing = new TreeSet<>(base.keySet());
+        missing.removeAll(results.keySet());
+        missing.forEach(k -> System.out.println(String.format("%-70s only in the base results", k)));
+        System.out.println(String.format("%d regression(s) of more than %.1f%%", regressions, threshold));
+    }
+}
@@ -0,0 +1,74 @@
+package com.github.redhatqe.polarize.benchmarks;
+
+import com.github.redhatqe.polarize.FileHelper;
+import com.github.redhatqe.polarize.IdParams;
+import com.github.redhatqe.polarize.TestDefinitionProcessor;
+import com.github.redhatqe.polarize.mapping.MappingIndex;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading and writing mapping files of various sizes
+ *
+ * - loadMapping: FileHelper.loadMapping, ie parsing mapping.json
+ * - loadIndex: MappingIndex.load, which is what the reporter and the processor use (mapping file + journal)
+ * - writeMapFile: TestDefinitionProcessor.writeMapFile
+ *
+ * Run with: gradle jmh -PjmhInclude=MappingBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MappingBenchmark {
+    /** Number of test classes, each with 10 methods */
+    @Param({"10", "100", "1000"})
+    public int classes;
+
+    /** Number of data provider parameters of each method */
+    @Param({"0", "4"})
+    public int params;
+
+    private Path dir;
+    private File mapPath;
+    private File outPath;
+    private Map<String, Map<String, IdParams>> mapping;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        this.dir = BenchmarkData.tempDir();
+        this.mapPath = this.dir.resolve("mapping.json").toFile();
+        this.outPath = this.dir.resolve("written/mapping.json").toFile();
+        this.outPath.getParentFile().mkdirs();
+        this.mapping = BenchmarkData.mapping(this.classes, 10, this.params, 2);
+        TestDefinitionProcessor.writeMapFile(this.mapPath, this.mapping);
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() throws IOException {
+        BenchmarkData.delete(this.dir);
+    }
+
+    @Benchmark
+    public Map<String, Map<String, IdParams>> loadMapping() {
+        return FileHelper.loadMapping(this.mapPath);
+    }
+
+    @Benchmark
+    public MappingIndex loadIndex() {
+        return MappingIndex.load(this.mapPath);
+    }
+
+    @Benchmark
+    public long writeMapFile() {
+        TestDefinitionProcessor.writeMapFile(this.outPath, this.mapping);
+        return this.outPath.length();
+    }
+}
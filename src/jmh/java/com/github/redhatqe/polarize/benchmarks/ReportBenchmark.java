@@ -0,0 +1,163 @@
+package com.github.redhatqe.polarize.benchmarks;
+
+import com.github.redhatqe.polarize.IJAXBHelper;
+import com.github.redhatqe.polarize.importer.xunit.*;
+import com.github.redhatqe.polarize.importer.xunit.Error;
+import com.github.redhatqe.polarize.junitreporter.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The report-building path of the XUnitReporter, for N classes x M methods x K iterations
+ *
+ * TestNG's ITestResult can not easily be made outside of a TestNG run, so the results are synthetic (see
+ * {@link BenchmarkData#results}) and turned into Testcases the same way XUnitReporter.createTestcase does it, with
+ * the StackTraces and ParameterRenderer caches.
+ *
+ * - streamReport: counts per class, then streams every testcase out with the XUnitWriter (what generateReport does)
+ * - marshalReport: builds the whole Testsuites tree and marshalls it with JAXB, for comparison
+ * - tallySerial / tallyConcurrent: the per-class counting on its own, into FullResults or from all threads into
+ *   ConcurrentFullResults (what LiveResults does)
+ *
+ * Run with: gradle jmh -PjmhInclude=ReportBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReportBenchmark {
+    /** Number of test classes */
+    @Param({"10", "100"})
+    public int classes;
+
+    /** Number of methods per class */
+    @Param({"10"})
+    public int methods;
+
+    /** Number of data provider iterations of each method */
+    @Param({"1", "50"})
+    public int iterations;
+
+    private Path dir;
+    private File report;
+    private List<BenchmarkData.Result> results;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        this.dir = BenchmarkData.tempDir();
+        this.report = this.dir.resolve("testng-polarion.xml").toFile();
+        this.results = BenchmarkData.results(BenchmarkData.mapping(this.classes, this.methods, 3, 1),
+                this.iterations);
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() throws IOException {
+        BenchmarkData.delete(this.dir);
+    }
+
+    private static Testcase createTestcase(BenchmarkData.Result r) {
+        Testcase tc = new Testcase();
+        tc.setTime(Double.toString(r.millis / 1000.0));
+        tc.setName(r.method);
+        tc.setClassname(r.classname);
+        if (r.status == 1)
+            tc.setStatus("success");
+        else if (r.status == 3)
+            tc.setSkipped("true");
+        else if (r.error instanceof AssertionError) {
+            Failure fail = new Failure();
+            fail.setContent(r.error.getMessage());
+            tc.getFailure().add(fail);
+        }
+        else {
+            Error err = new Error();
+            err.setMessage(StackTraces.truncate(r.error.getMessage()));
+            err.setContent(StackTraces.render(r.error));
+            tc.getError().add(err);
+        }
+        com.github.redhatqe.polarize.importer.xunit.Properties props =
+                new com.github.redhatqe.polarize.importer.xunit.Properties();
+        props.getProperty().add(ParameterRenderer.property("polarion-testcase-id", r.ip.getId()));
+        props.getProperty().addAll(ParameterRenderer.render(r.qual, r.ip.getParameters(), r.params));
+        tc.setProperties(props);
+        return tc;
+    }
+
+    private Map<String, List<BenchmarkData.Result>> byClass(Map<String, FullResult> counts) {
+        Map<String, List<BenchmarkData.Result>> byClass = new LinkedHashMap<>();
+        for (BenchmarkData.Result r : this.results) {
+            byClass.computeIfAbsent(r.classname, c -> new ArrayList<>()).add(r);
+            counts.computeIfAbsent(r.classname, c -> new FullResult())
+                    .tally(r.status, r.status == 2 && !(r.error instanceof AssertionError), r.qual);
+        }
+        return byClass;
+    }
+
+    @Benchmark
+    public long streamReport() {
+        Map<String, FullResult> counts = new HashMap<>();
+        Map<String, List<BenchmarkData.Result>> byClass = this.byClass(counts);
+        Testsuites header = new Testsuites();
+        try (XUnitWriter writer = new XUnitWriter(this.report)) {
+            writer.startTestsuites(header);
+            for (Map.Entry<String, List<BenchmarkData.Result>> e : byClass.entrySet()) {
+                Testsuite ts = new Testsuite();
+                ts.setName(e.getKey());
+                ts.setTime("1.0");
+                FullResult fr = counts.get(e.getKey());
+                fr.setSuiteCounts(ts, fr.fails + fr.errors, fr.skips, this.methods);
+                writer.startTestsuite(ts);
+                for (BenchmarkData.Result r : e.getValue())
+                    writer.writeTestcase(ReportBenchmark.createTestcase(r));
+                writer.endTestsuite();
+            }
+            writer.finish();
+        }
+        return this.report.length();
+    }
+
+    @Benchmark
+    public long marshalReport() {
+        Map<String, FullResult> counts = new HashMap<>();
+        Map<String, List<BenchmarkData.Result>> byClass = this.byClass(counts);
+        Testsuites suites = new Testsuites();
+        for (Map.Entry<String, List<BenchmarkData.Result>> e : byClass.entrySet()) {
+            Testsuite ts = new Testsuite();
+            ts.setName(e.getKey());
+            ts.setTime("1.0");
+            FullResult fr = counts.get(e.getKey());
+            fr.setSuiteCounts(ts, fr.fails + fr.errors, fr.skips, this.methods);
+            for (BenchmarkData.Result r : e.getValue())
+                ts.getTestcase().add(ReportBenchmark.createTestcase(r));
+            suites.getTestsuite().add(ts);
+        }
+        IJAXBHelper.marshaller(suites, this.report, new JAXBReporter().getXSDFromResource(Testsuites.class));
+        return this.report.length();
+    }
+
+    @Benchmark
+    public int tallySerial() {
+        Map<String, FullResult> counts = new HashMap<>();
+        for (BenchmarkData.Result r : this.results)
+            counts.computeIfAbsent(r.classname, c -> new FullResult())
+                    .tally(r.status, r.status == 2 && !(r.error instanceof AssertionError), r.qual);
+        return counts.size();
+    }
+
+    @Benchmark
+    public int tallyConcurrent() {
+        Map<String, ConcurrentFullResult> counts = new ConcurrentHashMap<>();
+        this.results.parallelStream().forEach(r ->
+                counts.computeIfAbsent(r.classname, ConcurrentFullResult::new)
+                        .tally(r.status, r.status == 2 && !(r.error instanceof AssertionError), r.qual));
+        return counts.size();
+    }
+}
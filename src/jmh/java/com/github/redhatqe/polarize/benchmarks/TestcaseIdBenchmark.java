@@ -0,0 +1,96 @@
+package com.github.redhatqe.polarize.benchmarks;
+
+import com.github.redhatqe.polarize.FileHelper;
+import com.github.redhatqe.polarize.IJAXBHelper;
+import com.github.redhatqe.polarize.JAXBHelper;
+import com.github.redhatqe.polarize.importer.testcase.CustomField;
+import com.github.redhatqe.polarize.importer.testcase.CustomFields;
+import com.github.redhatqe.polarize.importer.testcase.Testcase;
+import com.github.redhatqe.polarize.metadata.Meta;
+import com.github.redhatqe.polarize.utils.Tuple;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Compares the ways of getting the Polarion ID out of a testcase XML description
+ *
+ * - unmarshall: Meta.getPolarionIDFromXML, which unmarshalls the whole Testcase
+ * - unmarshallValidated: IJAXBHelper.unmarshaller against testcase-importer.xsd, ie the cost including XSD validation
+ * - probe: Meta.probePolarionIDFromXML, which only reads the attributes of the root element
+ *
+ * Run with: gradle jmh -PjmhInclude=TestcaseIdBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TestcaseIdBenchmark {
+    /** Number of custom fields in the generated XML, to vary the size of the document after the root element */
+    @Param({"4", "64"})
+    public int fields;
+
+    private Path tcPath;
+    private Meta<Object> meta;
+    private File xmlDesc;
+    private URL xsd;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        this.tcPath = Files.createTempDirectory("polarize-jmh");
+        this.meta = Meta.create("com.example.FooTest.testBar", "testBar", "FooTest", "com.example", "PLATTP",
+                "", null, null);
+        this.xmlDesc = FileHelper.makeXmlPath(this.tcPath.toString(), this.meta).toFile();
+        this.xmlDesc.getParentFile().mkdirs();
+
+        Testcase tc = new Testcase();
+        tc.setId("PLATTP-1234");
+        tc.setTitle(this.meta.qualifiedName);
+        tc.setDescription("A testcase used to benchmark reading the Polarion ID from the XML description");
+        CustomFields cfs = new CustomFields();
+        for (int i = 0; i < this.fields; i++) {
+            CustomField cf = new CustomField();
+            cf.setId("field" + i);
+            cf.setContent("some value for custom field " + i);
+            cfs.getCustomField().add(cf);
+        }
+        tc.setCustomFields(cfs);
+        IJAXBHelper.marshaller(tc, this.xmlDesc, null);
+
+        this.xsd = JAXBHelper.class.getClassLoader().getResource("testcase_importer/testcase-importer.xsd");
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() throws IOException {
+        try (Stream<Path> paths = Files.walk(this.tcPath)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Benchmark
+    public String unmarshall() {
+        Optional<Tuple<String, Testcase>> res = this.meta.getPolarionIDFromXML(this.tcPath.toString());
+        return res.map(t -> t.first).orElse("");
+    }
+
+    @Benchmark
+    public String unmarshallValidated() {
+        Optional<Testcase> tc = IJAXBHelper.unmarshaller(Testcase.class, this.xmlDesc, this.xsd);
+        return tc.map(Testcase::getId).orElse("");
+    }
+
+    @Benchmark
+    public String probe() {
+        return this.meta.probePolarionIDFromXML(this.tcPath.toString()).orElse("");
+    }
+}
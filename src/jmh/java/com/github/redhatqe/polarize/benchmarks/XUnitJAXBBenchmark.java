@@ -0,0 +1,87 @@
+package com.github.redhatqe.polarize.benchmarks;
+
+import com.github.redhatqe.polarize.IJAXBHelper;
+import com.github.redhatqe.polarize.importer.xunit.Testsuites;
+import com.github.redhatqe.polarize.junitreporter.JAXBReporter;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JAXB round trips of xunit files of various sizes
+ *
+ * - marshal / marshalValidated: IJAXBHelper.marshaller without and with the xunit.xsd
+ * - unmarshal / unmarshalValidated: IJAXBHelper.unmarshaller without and with the xunit.xsd
+ * - validate: IJAXBHelper.validateXML on its own
+ *
+ * Run with: gradle jmh -PjmhInclude=XUnitJAXBBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class XUnitJAXBBenchmark {
+    /** Number of test classes, each with 10 methods of 3 parameters */
+    @Param({"10", "100"})
+    public int classes;
+
+    /** Number of data provider iterations of each method */
+    @Param({"1", "20"})
+    public int iterations;
+
+    private Path dir;
+    private Testsuites suites;
+    private File xunit;
+    private File out;
+    private URL xsd;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        this.dir = BenchmarkData.tempDir();
+        this.suites = BenchmarkData.xunit(BenchmarkData.results(BenchmarkData.mapping(this.classes, 10, 3, 1),
+                this.iterations));
+        this.xunit = this.dir.resolve("xunit.xml").toFile();
+        this.out = this.dir.resolve("out.xml").toFile();
+        this.xsd = new JAXBReporter().getXSDFromResource(Testsuites.class);
+        IJAXBHelper.marshaller(this.suites, this.xunit, this.xsd);
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() throws IOException {
+        BenchmarkData.delete(this.dir);
+    }
+
+    @Benchmark
+    public long marshal() {
+        IJAXBHelper.marshaller(this.suites, this.out, null);
+        return this.out.length();
+    }
+
+    @Benchmark
+    public long marshalValidated() {
+        IJAXBHelper.marshaller(this.suites, this.out, this.xsd);
+        return this.out.length();
+    }
+
+    @Benchmark
+    public Optional<Testsuites> unmarshal() {
+        return IJAXBHelper.unmarshaller(Testsuites.class, this.xunit, null);
+    }
+
+    @Benchmark
+    public Optional<Testsuites> unmarshalValidated() {
+        return IJAXBHelper.unmarshaller(Testsuites.class, this.xunit, this.xsd);
+    }
+
+    @Benchmark
+    public Boolean validate() {
+        return IJAXBHelper.validateXML(this.xunit, this.xsd);
+    }
+}
@@ -6,19 +6,19 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.github.redhatqe.polarize.mapping.MappingReader;
 import com.github.redhatqe.polarize.metadata.Meta;
 import com.github.redhatqe.polarize.exceptions.InvalidArgumentType;
 import com.github.redhatqe.polarize.metadata.QualifiedName;
 import com.github.redhatqe.polarize.metadata.TestDefinition;
-import com.github.redhatqe.polarize.utils.StringHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Created by stoner on 7/7/16.
  */
 public class FileHelper implements IFileHelper {
+    private static final Logger logger = LoggerFactory.getLogger(FileHelper.class);
 
     /**
      * Creates a Path to look up or create an xml description
@@ -138,44 +138,19 @@ public class FileHelper implements IFileHelper {
      * of the form Project -> IdParams.  This second map is needed because one test method is often used across multiple
      * projects.
      *
+     * The file is read token by token by a {@link MappingReader}, without building a JSON tree first.
      *
      * @param fpath path to a mapping.json file
      * @return an in-memory map of unique methodname -> project -> IdParams
      */
     public static Map<String, Map<String, IdParams>> loadMapping(File fpath) {
-        ObjectMapper mapper = new ObjectMapper();
-
         Map<String, Map<String, IdParams>> mapped = new HashMap<>();
+        if (!fpath.exists())
+            return mapped;
+        MappingReader reader = new MappingReader();
         try {
-            if (fpath.exists()) {
-                // First key is name, second is project, third is "id" or "parameters"
-                JsonNode node = mapper.readTree(fpath);
-                node.fields().forEachRemaining(entry -> {
-                    String name = entry.getKey();
-                    JsonNode projectToInner = entry.getValue();
-                    Map<String, IdParams> innerMap = new HashMap<>();
-                    projectToInner.fields().forEachRemaining(e -> {
-                        String project = e.getKey();
-                        JsonNode inner = e.getValue();
-                        String id = inner.get("id").toString();
-
-                        IdParams idp = new IdParams();
-                        idp.id = StringHelper.removeQuotes(id);
-                        JsonNode paramNode = inner.get("parameters");
-                        if (paramNode instanceof ArrayNode) {
-                            ArrayNode params = (ArrayNode) paramNode;
-                            idp.parameters = params.findValuesAsText("parameters");
-                            List<String> p = new ArrayList<>();
-                            for(int i = 0; i < params.size(); i++) {
-                                p.add(StringHelper.removeQuotes(params.get(i).toString()));
-                            }
-                            idp.parameters = p;
-                        }
-                        innerMap.put(project, idp);
-                    });
-                    mapped.put(name, innerMap);
-                });
-            }
+            mapped = reader.read(fpath);
+            logger.info(String.format("Loaded %s: %s", fpath, reader.getStats()));
         } catch (IOException e) {
             e.printStackTrace();
         }
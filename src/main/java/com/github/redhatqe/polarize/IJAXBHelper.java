@@ -4,21 +4,29 @@ import com.github.redhatqe.polarize.exceptions.XMLDescriptonCreationError;
 import com.github.redhatqe.polarize.exceptions.XSDValidationError;
 import org.xml.sax.SAXException;
 
-import javax.xml.XMLConstants;
 import javax.xml.bind.*;
 import javax.xml.stream.XMLEventReader;
 import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.transform.Source;
 import javax.xml.transform.stream.StreamSource;
 import javax.xml.validation.Schema;
-import javax.xml.validation.SchemaFactory;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URL;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Optional;
+import java.util.UUID;
 
 /**
  * Created by stoner on 8/16/16.
@@ -27,16 +35,24 @@ public interface IJAXBHelper {
     /**
      * Generates an XML file given an object and xsd schema
      *
+     * Unless validate-on-marshal has been turned off (see {@link JAXBRegistry#validateOnMarshal}), the cached Schema
+     * is attached to the Marshaller so the XML is validated while it is being serialized.  The XML is written to a
+     * temporary file next to xmlpath which is only renamed to xmlpath if validation succeeded, so a failed validation
+     * never leaves an invalid file behind and the XML does not have to be read back in to be validated.
+     *
      * @param t An object whose class is annotated with @XmlRootElement
      * @param xmlpath where to write the generated XML
      * @param xsdpath the URL to the xsd schema to validate against
      * @param <T> The type we are going to marshall into XML
      */
     static <T> void marshaller(T t, File xmlpath, URL xsdpath) {
+        if (xsdpath != null && JAXBRegistry.validateOnMarshal) {
+            IJAXBHelper.validatingMarshaller(t, xmlpath, xsdpath);
+            return;
+        }
+
         try {
-            JAXBContext jaxbc = JAXBContext.newInstance(t.getClass());
-            Marshaller marshaller = jaxbc.createMarshaller();
-            marshaller.setProperty( Marshaller.JAXB_FORMATTED_OUTPUT, true);
+            Marshaller marshaller = JAXBRegistry.marshaller(t.getClass());
             marshaller.marshal(t, xmlpath);
             if (false)
                 marshaller.marshal(t, System.out);
@@ -55,6 +71,58 @@ public interface IJAXBHelper {
         }
     }
 
+    /**
+     * Marshalls t into a temporary file while validating against xsdpath, and atomically renames it to xmlpath
+     *
+     * @param t An object whose class is annotated with @XmlRootElement
+     * @param xmlpath where to write the generated XML
+     * @param xsdpath the URL to the xsd schema to validate against
+     * @param <T> The type we are going to marshall into XML
+     */
+    static <T> void validatingMarshaller(T t, File xmlpath, URL xsdpath) {
+        Marshaller marshaller;
+        Schema schema;
+        try {
+            marshaller = JAXBRegistry.marshaller(t.getClass());
+            schema = JAXBRegistry.schema(xsdpath);
+        } catch (JAXBException | SAXException e) {
+            e.printStackTrace();
+            throw new XMLDescriptonCreationError();
+        }
+
+        Path target = xmlpath.getAbsoluteFile().toPath();
+        Path tmp = null;
+        try {
+            // Not Files.createTempFile, whose 0600 permissions would be kept by the rename
+            tmp = target.resolveSibling(String.format("%s.%s.tmp", xmlpath.getName(), UUID.randomUUID()));
+            marshaller.setSchema(schema);
+            try (OutputStream os = Files.newOutputStream(tmp, StandardOpenOption.CREATE_NEW)) {
+                marshaller.marshal(t, os);
+            }
+            try {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (MarshalException e) {
+            System.err.println(e.getLinkedException() != null ? e.getLinkedException().getMessage() : e.getMessage());
+            throw new XSDValidationError();
+        } catch (JAXBException | IOException e) {
+            e.printStackTrace();
+            throw new XMLDescriptonCreationError();
+        } finally {
+            // The Marshaller is reused by this thread, so don't leave the schema attached to it
+            marshaller.setSchema(null);
+            if (tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
     /**
      * Generates an Optional of type T given an XML File, and an XSD to validate against
      *
@@ -75,17 +143,15 @@ public interface IJAXBHelper {
             throw new XSDValidationError();
 
         JAXBElement<T> ret;
-        try {
-            FileInputStream fis = new FileInputStream(xmlpath);
+        try (FileInputStream fis = new FileInputStream(xmlpath)) {
             XMLEventReader rdr = factory.createXMLEventReader(fis);
-            JAXBContext jaxbc = JAXBContext.newInstance(t);
-
-            Unmarshaller um = jaxbc.createUnmarshaller();
+            Unmarshaller um = JAXBRegistry.unmarshaller(t);
             ret = um.unmarshal(rdr, t);
+            rdr.close();
             return Optional.of(ret.getValue());
         } catch (JAXBException e) {
             e.printStackTrace();
-        } catch (FileNotFoundException e) {
+        } catch (IOException e) {
             e.printStackTrace();
         } catch (XMLStreamException e) {
             e.printStackTrace();
@@ -93,18 +159,51 @@ public interface IJAXBHelper {
         return Optional.empty();
     }
 
+    /**
+     * Reads only the attributes of the root element of an XML file
+     *
+     * This is a cheap alternative to {@link #unmarshaller(Class, File, URL)} for when only something like the id of a
+     * testcase is needed.  The file is streamed until the root element's start tag has been read, so neither the rest
+     * of the document nor the xsd is ever looked at.  Note that this means the file is not validated either.
+     *
+     * @param xmlpath File of xml to read
+     * @return map of local attribute name to value of the root element, or empty if the file could not be parsed
+     */
+    static Optional<Map<String, String>> rootAttributes(File xmlpath) {
+        try (FileInputStream fis = new FileInputStream(xmlpath)) {
+            XMLStreamReader rdr = JAXBRegistry.inputFactory().createXMLStreamReader(fis);
+            try {
+                while (rdr.hasNext()) {
+                    if (rdr.next() != XMLStreamConstants.START_ELEMENT)
+                        continue;
+                    Map<String, String> attrs = new HashMap<>();
+                    for (int i = 0; i < rdr.getAttributeCount(); i++)
+                        attrs.put(rdr.getAttributeLocalName(i), rdr.getAttributeValue(i));
+                    return Optional.of(attrs);
+                }
+            } finally {
+                rdr.close();
+            }
+        } catch (IOException | XMLStreamException e) {
+            e.printStackTrace();
+        }
+        return Optional.empty();
+    }
+
     /**
      * Checks that the XML validates against the Schema, and also that all the required fields have valid
      * values
      *
+     * The compiled Schema is cached in the {@link JAXBRegistry}, so only the first validation against an xsd pays
+     * for parsing it.
+     *
      * @return
      */
     static Boolean validateXML(File xmlpath, URL xsdPath) {
-        SchemaFactory sf = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
         Schema xsdSchema;
         Boolean returnEmpty = false;
         try {
-            xsdSchema = sf.newSchema(xsdPath);
+            xsdSchema = JAXBRegistry.schema(xsdPath);
             try {
                 javax.xml.validation.Validator v = xsdSchema.newValidator();
                 Source xmlSrc = new StreamSource(xmlpath);
@@ -26,17 +26,17 @@ public class IdParams {
         this.parameters = parameters;
     }
 
-    IdParams(String id, List<String> p) {
+    public IdParams(String id, List<String> p) {
         this.id = id;
         this.setParameters(p);
     }
 
-    IdParams(String id, String[] p) {
+    public IdParams(String id, String[] p) {
         this.id = id;
         this.parameters = Arrays.asList(p);
     }
 
-    IdParams() {
+    public IdParams() {
 
     }
 }
\ No newline at end of file
@@ -0,0 +1,154 @@
+package com.github.redhatqe.polarize;
+
+import org.xml.sax.SAXException;
+
+import javax.xml.XMLConstants;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A thread-safe cache of JAXBContext and compiled Schema objects
+ *
+ * Creating a JAXBContext and compiling an XSD are by far the most expensive parts of marshalling and unmarshalling,
+ * yet both are thread-safe and only depend on the class or XSD URL.  The registry builds each one once and hands them
+ * out to IJAXBHelper.  Marshaller and Unmarshaller objects are not thread-safe, so those are cached per thread.
+ */
+public class JAXBRegistry {
+    private static final Map<Class<?>, JAXBContext> contexts = new ConcurrentHashMap<>();
+    private static final Map<String, Schema> schemas = new ConcurrentHashMap<>();
+    private static final ThreadLocal<Map<Class<?>, Marshaller>> marshallers = ThreadLocal.withInitial(HashMap::new);
+    private static final ThreadLocal<Map<Class<?>, Unmarshaller>> unmarshallers =
+            ThreadLocal.withInitial(HashMap::new);
+    private static final XMLInputFactory inputFactory = JAXBRegistry.makeInputFactory();
+
+    /**
+     * If true, IJAXBHelper.marshaller validates while serializing instead of writing the file and parsing it again.
+     * Can be turned off with -Dpolarize.jaxb.validateOnMarshal=false
+     */
+    public static volatile Boolean validateOnMarshal =
+            Boolean.parseBoolean(System.getProperty("polarize.jaxb.validateOnMarshal", "true"));
+
+    private static final AtomicLong contextHits = new AtomicLong();
+    private static final AtomicLong contextMisses = new AtomicLong();
+    private static final AtomicLong schemaHits = new AtomicLong();
+    private static final AtomicLong schemaMisses = new AtomicLong();
+
+    /**
+     * @param t class which is annotated with @XmlRootElement (or is part of a JAXB generated package)
+     * @return the shared JAXBContext for t
+     * @throws JAXBException if the context could not be created
+     */
+    public static JAXBContext context(Class<?> t) throws JAXBException {
+        JAXBContext ctx = contexts.get(t);
+        if (ctx != null) {
+            contextHits.incrementAndGet();
+            return ctx;
+        }
+        contextMisses.incrementAndGet();
+        ctx = JAXBContext.newInstance(t);
+        JAXBContext prev = contexts.putIfAbsent(t, ctx);
+        return prev == null ? ctx : prev;
+    }
+
+    /**
+     * @param xsdPath URL to the xsd schema
+     * @return the shared compiled Schema for xsdPath
+     * @throws SAXException if the xsd could not be parsed
+     */
+    public static Schema schema(URL xsdPath) throws SAXException {
+        String key = xsdPath.toExternalForm();
+        Schema schema = schemas.get(key);
+        if (schema != null) {
+            schemaHits.incrementAndGet();
+            return schema;
+        }
+        schemaMisses.incrementAndGet();
+        SchemaFactory sf = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+        schema = sf.newSchema(xsdPath);
+        Schema prev = schemas.putIfAbsent(key, schema);
+        return prev == null ? schema : prev;
+    }
+
+    /**
+     * The returned Marshaller belongs to the calling thread and must not be handed to another thread
+     *
+     * @param t class to marshall
+     * @return a formatted-output Marshaller for t
+     * @throws JAXBException if the Marshaller could not be created
+     */
+    public static Marshaller marshaller(Class<?> t) throws JAXBException {
+        Map<Class<?>, Marshaller> cache = marshallers.get();
+        Marshaller m = cache.get(t);
+        if (m == null) {
+            m = JAXBRegistry.context(t).createMarshaller();
+            m.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+            cache.put(t, m);
+        }
+        return m;
+    }
+
+    /**
+     * The returned Unmarshaller belongs to the calling thread and must not be handed to another thread
+     *
+     * @param t class to unmarshall
+     * @return an Unmarshaller for t
+     * @throws JAXBException if the Unmarshaller could not be created
+     */
+    public static Unmarshaller unmarshaller(Class<?> t) throws JAXBException {
+        Map<Class<?>, Unmarshaller> cache = unmarshallers.get();
+        Unmarshaller um = cache.get(t);
+        if (um == null) {
+            um = JAXBRegistry.context(t).createUnmarshaller();
+            cache.put(t, um);
+        }
+        return um;
+    }
+
+    /**
+     * A configured XMLInputFactory is thread-safe for creating readers, so one is shared rather than looking up the
+     * StAX implementation every time.  DTDs and external entities are not needed for any of our XML files.
+     *
+     * @return the shared XMLInputFactory
+     */
+    public static XMLInputFactory inputFactory() {
+        return inputFactory;
+    }
+
+    private static XMLInputFactory makeInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
+    public static long getContextHits() {
+        return contextHits.get();
+    }
+
+    public static long getContextMisses() {
+        return contextMisses.get();
+    }
+
+    public static long getSchemaHits() {
+        return schemaHits.get();
+    }
+
+    public static long getSchemaMisses() {
+        return schemaMisses.get();
+    }
+
+    public static String stats() {
+        return String.format("JAXBContext hits/misses: %d/%d, Schema hits/misses: %d/%d", contextHits.get(),
+                contextMisses.get(), schemaHits.get(), schemaMisses.get());
+    }
+}
@@ -4,6 +4,7 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.github.redhatqe.polarize.configuration.XMLConfig;
 import com.github.redhatqe.polarize.importer.testcase.Testcase;
 import com.github.redhatqe.polarize.importer.testcase.Testcases;
+import com.github.redhatqe.polarize.mapping.MappingIndex;
 import com.github.redhatqe.polarize.metadata.*;
 
 import java.io.File;
@@ -47,7 +48,7 @@ public class Reflector {
         testsToClasses = new HashMap<>();
         testTypes = new HashSet<>(Arrays.asList("AcceptanceTests", "Tier1Tests", "Tier2Tests", "Tier3Tests"));
         testDefs = new ArrayList<>();
-        mappingFile = FileHelper.loadMapping(new File(config.getMappingPath()));
+        mappingFile = MappingIndex.forFile(new File(config.getMappingPath())).copy();
         tcPath = config.config.getTestcasesXml().getPath();
         tcPath = config.getTestcasesXMLPath();
     }
@@ -220,7 +221,7 @@ public class Reflector {
         File mapPath = new File(this.config.getMappingPath());
         this.testDefs.forEach(td ->
                 TestDefinitionProcessor.processTC(td, this.mappingFile, this.testCaseToMeta, this.tcPath, this.tcMap,
-                        mapPath, this.methodToDesc, this.config, this.methToProjectDef));
+                        mapPath, this.methodToDesc, this.config));
     }
 
     Map<String, Map<String, Meta<TestDefinition>>> makeMethToProjectMeta() {
@@ -1,7 +1,6 @@
 package com.github.redhatqe.polarize;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.github.redhatqe.polarize.configuration.*;
 import com.github.redhatqe.polarize.exceptions.*;
@@ -11,6 +10,14 @@ import com.github.redhatqe.polarize.junitreporter.XUnitReporter;
 import com.github.redhatqe.polarize.metadata.*;
 
 import com.github.redhatqe.polarize.importer.testcase.Testcase;
+import com.github.redhatqe.polarize.mapping.CompiledMapping;
+import com.github.redhatqe.polarize.mapping.IncrementalCache;
+import com.github.redhatqe.polarize.mapping.IndexedMapping;
+import com.github.redhatqe.polarize.mapping.MappingDiff;
+import com.github.redhatqe.polarize.mapping.MappingIndex;
+import com.github.redhatqe.polarize.mapping.MappingSnapshot;
+import com.github.redhatqe.polarize.mapping.MappingStore;
+import com.github.redhatqe.polarize.messagebus.CIBusDispatcher;
 import com.github.redhatqe.polarize.utils.Consumer2;
 import com.github.redhatqe.polarize.utils.Environ;
 import com.github.redhatqe.polarize.utils.Transformer;
@@ -28,7 +35,8 @@ import java.io.*;
 import java.lang.annotation.Annotation;
 import java.nio.file.*;
 import java.util.*;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
@@ -52,24 +60,34 @@ public class TestDefinitionProcessor extends AbstractProcessor {
     private static Logger logger = LoggerFactory.getLogger(TestDefinitionProcessor.class);
     private String tcPath;
     private Map<String, Map<String, Meta<TestDefinition>>> methToProjectDef;
+    // The subset of methToProjectDef that changed since the last compile, and their hashes (see IncrementalCache)
+    private Map<String, Map<String, Meta<TestDefinition>>> methToProcess = new HashMap<>();
+    private Map<Meta<TestDefinition>, String> metaToHash = new HashMap<>();
+    private IncrementalCache incremental;
     private Map<String, String> methNameToTestNGDescription;
     private Map<Testcase, Meta<TestDefinition>> testCaseToMeta;
     // Map of qualified name -> { projectID: testcaseID }
     private Map<String, Map<String, IdParams>> mappingFile = new LinkedHashMap<>();
+    // In the sharded mapping layout, the projects whose shards were loaded into mappingFile
+    private Set<String> mappingProjects = new HashSet<>();
     public static JAXBHelper jaxb = new JAXBHelper();
     //private Testcases testcases = new Testcases();
     private Map<String, List<Testcase>> tcMap = new HashMap<>();
     private XMLConfig config;
-    private static Map<String, WarningInfo> warnings = new HashMap<>();
+    private static Map<String, WarningInfo> warnings = new ConcurrentHashMap<>();
     private int round = 0;
     private String configPath = System.getProperty("polarize.config");
 
     public static final String warnText = "/tmp/polarize-warnings.txt";
     public static final String tempTestCase = "/tmp/testcases-%s.xml";
     public static final File auditFile = new File("/tmp/polarize-auditing.txt");
+    /**
+     * Number of threads processTC is run with.  Defaults to 1, which processes the methods serially
+     */
+    public static final String threadsProperty = "polarize.processor.threads";
 
     // FIXME: gross, but I need a way to prevent duplicate error strings
-    public static Set<String> errorMessages = new HashSet<>();
+    public static Set<String> errorMessages = ConcurrentHashMap.newKeySet();
 
     /**
      * Recursive function that will get the fully qualified name of a method.
@@ -317,14 +335,8 @@ public class TestDefinitionProcessor extends AbstractProcessor {
             return true;
         }
 
-        // load the mapping file
         File mapPath = new File(this.config.getMappingPath());
         System.out.println(mapPath.toString());
-        if (mapPath.exists()) {
-            logger.info("Loading the map");
-            this.mappingFile = FileHelper.loadMapping(mapPath);
-            //System.out.println(this.mappingFile.toString());
-        }
 
         /* ************************************************************************************
          * Get all the @TestDefinition annotations which were annotated on an element only once.
@@ -343,25 +355,50 @@ public class TestDefinitionProcessor extends AbstractProcessor {
 
         this.methToProjectDef = this.createMethodToMetaPolarionMap(metas);
 
+        // load the mapping file.  In the sharded layout, only the shards of the projects of these methods are loaded
+        MappingStore store = MappingStore.forFile(mapPath);
+        if (store.isSharded()) {
+            Set<String> projects = new HashSet<>();
+            this.methToProjectDef.values().forEach(pToMeta -> projects.addAll(pToMeta.keySet()));
+            logger.info(String.format("Loading the map shards of %s", projects));
+            this.mappingFile = new IndexedMapping(store.load(projects));
+            this.mappingProjects = projects;
+        }
+        else if (mapPath.exists()) {
+            logger.info("Loading the map");
+            this.mappingFile = new IndexedMapping(MappingIndex.forFile(mapPath).copy());
+            //System.out.println(this.mappingFile.toString());
+        }
+
         /* Get all the @Test annotations in order to get the description */
         Tuple<Map<String, String>, Map<String, Meta<Test>>> maps = this.getTestAnnotations(roundEnvironment);
         this.methNameToTestNGDescription.putAll(maps.first);
 
+        this.incremental = IncrementalCache.forMapping(mapPath);
+        this.methToProcess = this.findChangedMethods();
         this.processAllTC();
 
         /* testcases holds all the methods that need a new or updated Polarion TestCase */
         this.tcImportRequest();
         File mapjsonPath = new File(this.config.getMappingPath());
-        TestDefinitionProcessor.updateMappingFile(this.mappingFile, this.methToProjectDef, this.tcPath, mapjsonPath);
+        TestDefinitionProcessor.updateMappingFile(this.mappingFile, this.methToProcess, this.tcPath, mapjsonPath);
 
         /* Generate the mapping file now that all the XML files should have been generated */
-        if (!mapjsonPath.exists()) {
+        if (!MappingStore.forFile(mapjsonPath).exists()) {
             this.mappingFile = this.createMappingFile(mapPath);
         }
+        else if (MappingStore.forFile(mapjsonPath).hasPending() || TestDefinitionProcessor.isDirty(this.mappingFile)) {
+            /* Compact all the edits made during this round into the canonical mapping.json, if anything changed */
+            TestDefinitionProcessor.writeMapFile(mapjsonPath, this.mappingFile, this.mappingProjects);
+        }
+        if (Boolean.parseBoolean(System.getProperty(CompiledMapping.generateProperty, "false")))
+            this.generateMappingIndex(mapjsonPath);
 
+        this.updateIncrementalCache();
         this.printWarnings(warnings);
         this.tcMap = new HashMap<>();
         this.mappingFile = new HashMap<>();
+        this.mappingProjects = new HashSet<>();
 
         Set<String> enabledTests = TestDefinitionProcessor.getEnabledTests(maps.second);
         Tuple<SortedSet<String>, List<UpdateAnnotation>> audit =
@@ -456,15 +493,13 @@ public class TestDefinitionProcessor extends AbstractProcessor {
 
     private static void addBadFunction(String qualName, String project, List<String> badFuncs, String err) {
         err = String.format(err, qualName, project);
-        if (errorMessages.contains(err))
+        if (!errorMessages.add(err))
             return;
-        else
-            errorMessages.add(err);
         logger.error(err);
         badFuncs.add(err);
     }
 
-    private static void writeBadFunctionText(List<String> badFunctions) {
+    private static synchronized void writeBadFunctionText(List<String> badFunctions) {
         try {
             // FIXME: rotate the TestDefinitionProcess.errorsText
             Path bf = Paths.get(warnText);
@@ -482,11 +517,7 @@ public class TestDefinitionProcessor extends AbstractProcessor {
         List<String> badFunctions = new ArrayList<>();
         methMap.forEach((fnName, projectToMeta) -> projectToMeta.forEach((project, meta) -> {
             String id = meta.getPolarionIDFromTestcase()
-                    .orElseGet(() -> {
-                        Tuple<String, Testcase> maybe =
-                                meta.getPolarionIDFromXML(tcpath).orElse(new Tuple<>("", null));
-                        return maybe.first;
-                    });
+                    .orElseGet(() -> meta.probePolarionIDFromXML(tcpath).orElse(""));
             Boolean badFn = false;
             int check = 0;
             String err = "No ID in XML or annotation.  Check your Annotation %s in %s";
@@ -533,7 +564,64 @@ public class TestDefinitionProcessor extends AbstractProcessor {
     }
 
     /**
-     * Runs processTC on all the entries in methToProjectDef
+     * Finds the methods in methToProjectDef that have to be processed in this round
+     *
+     * Every method is hashed (see {@link IncrementalCache#hash}), and a method is left out if the IncrementalCache
+     * shows that neither it, nor its XML description, nor its entry in the mapping file changed since it was last
+     * processed.  Methods with update=true are always processed, since they always need an import request.
+     *
+     * @return map of qualified method name -> project -> Meta of the methods that need processing
+     */
+    private Map<String, Map<String, Meta<TestDefinition>>> findChangedMethods() {
+        Map<String, Map<String, Meta<TestDefinition>>> changed = new HashMap<>();
+        this.metaToHash = new HashMap<>();
+        int skipped = 0;
+        for (Map.Entry<String, Map<String, Meta<TestDefinition>>> es : this.methToProjectDef.entrySet()) {
+            for (Map.Entry<String, Meta<TestDefinition>> ps : es.getValue().entrySet()) {
+                Meta<TestDefinition> meta = ps.getValue();
+                Testcase tc = TestDefinitionProcessor.initImporterTestcase(meta, this.methNameToTestNGDescription,
+                        this.config);
+                List<String> params = meta.params == null ? null :
+                        meta.params.stream().map(Parameter::getName).collect(Collectors.toList());
+                String hash = IncrementalCache.hash(meta.annotation, params, tc.getDescription(), tc.getTitle());
+                this.metaToHash.put(meta, hash);
+
+                File xmlDesc = FileHelper.makeXmlPath(this.tcPath, meta).toFile();
+                if (!meta.annotation.update() &&
+                        this.incremental.isUnchanged(es.getKey(), ps.getKey(), hash, xmlDesc, this.mappingFile)) {
+                    skipped++;
+                    continue;
+                }
+                changed.computeIfAbsent(es.getKey(), k -> new HashMap<>()).put(ps.getKey(), meta);
+            }
+        }
+        if (skipped > 0)
+            logger.info(String.format("Skipping %d unchanged methods", skipped));
+        return changed;
+    }
+
+    /**
+     * Records the methods processed in this round in the IncrementalCache, once their IDs and XML files are final
+     *
+     * The entries of methods that are no longer annotated are dropped, so the cache does not grow with every method
+     * that ever existed.
+     */
+    private void updateIncrementalCache() {
+        this.incremental.retain(this.methToProjectDef);
+        this.methToProcess.forEach((qual, projects) -> projects.forEach((project, meta) -> {
+            Map<String, IdParams> mapped = this.mappingFile.get(qual);
+            String id = mapped == null || !mapped.containsKey(project) ? "" : mapped.get(project).getId();
+            File xmlDesc = FileHelper.makeXmlPath(this.tcPath, meta).toFile();
+            this.incremental.update(qual, project, this.metaToHash.get(meta), xmlDesc, id);
+        }));
+        this.incremental.save();
+    }
+
+    /**
+     * Runs processTC on all the methods that need processing in this round (see {@link #findChangedMethods()})
+     *
+     * If the polarize.processor.threads system property is greater than 1, the methods are processed in parallel (see
+     * {@link #processAllTCParallel(int)}).
      *
      * @return List of all the processed TestCases
      */
@@ -543,7 +631,12 @@ public class TestDefinitionProcessor extends AbstractProcessor {
             badFuncs.delete();
         else
             IFileHelper.makeDirs(badFuncs.toPath());
-        return this.methToProjectDef.entrySet().stream()
+
+        int threads = Integer.getInteger(threadsProperty, 1);
+        if (threads > 1)
+            return this.processAllTCParallel(threads);
+
+        return this.methToProcess.entrySet().stream()
                 .flatMap(es -> es.getValue().entrySet().stream()
                         .map(val -> {
                             Meta<TestDefinition> meta = val.getValue();
@@ -553,6 +646,107 @@ public class TestDefinitionProcessor extends AbstractProcessor {
                 .collect(Collectors.toList());
     }
 
+    /**
+     * Runs processTC on all the entries in methToProjectDef using a fixed pool of threads
+     *
+     * Each task handles every project of a single method, and collects the Testcases that need an import request in
+     * its own map instead of this.tcMap.  The mapping (and the concurrent maps it is converted to) is the only state
+     * that is shared between tasks.  Methods are submitted sorted by name and project, and the results are merged back
+     * in that same order, so the import requests and the warnings file come out the same no matter how the threads
+     * were scheduled.
+     *
+     * @param threads size of the thread pool
+     * @return List of all the processed TestCases
+     */
+    private List<Testcase> processAllTCParallel(int threads) {
+        logger.info(String.format("Processing %d methods with %d threads", this.methToProcess.size(), threads));
+        this.mappingFile = TestDefinitionProcessor.toConcurrentMapping(this.mappingFile);
+        this.testCaseToMeta = new ConcurrentHashMap<>(this.testCaseToMeta);
+        File mapPath = new File(this.config.getMappingPath());
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "polarize-processTC-" + this.count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+        List<Future<Tuple<List<Testcase>, Map<String, List<Testcase>>>>> futures = new ArrayList<>();
+        try {
+            for (Map<String, Meta<TestDefinition>> projects : new TreeMap<>(this.methToProcess).values()) {
+                List<Meta<TestDefinition>> metas = new ArrayList<>(new TreeMap<>(projects).values());
+                futures.add(pool.submit(() -> {
+                    List<Testcase> tcs = new ArrayList<>();
+                    Map<String, List<Testcase>> localTCMap = new HashMap<>();
+                    for (Meta<TestDefinition> meta : metas) {
+                        tcs.add(TestDefinitionProcessor.processTC(meta, this.mappingFile, this.testCaseToMeta,
+                                this.tcPath, localTCMap, mapPath, this.methNameToTestNGDescription, this.config));
+                    }
+                    return new Tuple<>(tcs, localTCMap);
+                }));
+            }
+
+            List<Testcase> processed = new ArrayList<>();
+            for (Future<Tuple<List<Testcase>, Map<String, List<Testcase>>>> future : futures) {
+                Tuple<List<Testcase>, Map<String, List<Testcase>>> res = future.get();
+                processed.addAll(res.first);
+                res.second.forEach((project, tcs) ->
+                        this.tcMap.computeIfAbsent(project, k -> new ArrayList<>()).addAll(tcs));
+            }
+            TestDefinitionProcessor.sortWarningsFile();
+            return processed;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            // Rethrow what processTC threw (eg a MismatchError) just as it would have been in serial mode
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new RuntimeException(cause);
+        } finally {
+            futures.forEach(f -> f.cancel(true));
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Copies the mapping into ConcurrentHashMaps so that it can be shared by the processTC tasks
+     *
+     * @param mapFile the mapping to copy
+     * @return a concurrent copy of mapFile which holds the same IdParams objects
+     */
+    private static Map<String, Map<String, IdParams>>
+    toConcurrentMapping(Map<String, Map<String, IdParams>> mapFile) {
+        if (mapFile instanceof IndexedMapping)
+            return new IndexedMapping(mapFile, true);
+        Map<String, Map<String, IdParams>> concurrent = new ConcurrentHashMap<>();
+        mapFile.forEach((qual, projects) -> concurrent.put(qual, new ConcurrentHashMap<>(projects)));
+        return concurrent;
+    }
+
+    /**
+     * Sorts the lines of the warnings file, whose order otherwise depends on how the processTC tasks were scheduled
+     */
+    private static synchronized void sortWarningsFile() {
+        Path warn = Paths.get(warnText);
+        if (!warn.toFile().exists())
+            return;
+        try {
+            List<String> lines = Files.readAllLines(warn);
+            Collections.sort(lines);
+            Files.write(warn, lines);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
     /**
      * Generates an XML description file equivalent to the Polarion definition
      *
@@ -615,6 +809,9 @@ public class TestDefinitionProcessor extends AbstractProcessor {
     /**
      * Sends an import request for each project
      *
+     * The requests for all the projects are made concurrently and this waits once for all the replies, rather than
+     * waiting for the reply of each project before sending the request for the next one.
+     *
      * @param testcaseMap
      * @param selectorName
      * @param selectorValue
@@ -664,30 +861,36 @@ public class TestDefinitionProcessor extends AbstractProcessor {
             return maybeNodes;
         }
 
-        String selector = String.format("%s='%s'", selectorName, selectorValue);
-        for(String project: testcaseMap.keySet()) {
+        // Each project gets its own selector value, so that the replies of the concurrent requests can't get mixed up
+        long timeout = CIBusDispatcher.forConfig(cfgPath).defaultTimeout();
+        List<CompletableFuture<Optional<ObjectNode>>> futures = new ArrayList<>();
+        for(String project: new TreeSet<>(testcaseMap.keySet())) {
             String path = String.format(tempTestCase, project);
             File testXml = new File(path);
             Testcases tests = new Testcases();
-            if (!TestDefinitionProcessor.initTestcases(selectorName, selectorValue, project, testXml,
+            String projSelectorValue = String.format("%s_%s", selectorValue, project);
+            if (!TestDefinitionProcessor.initTestcases(selectorName, projSelectorValue, project, testXml,
                     testcaseMap, tests).isPresent())
-                maybeNodes.add(Optional.empty());
+                futures.add(CompletableFuture.completedFuture(Optional.empty()));
             else {
-                try {
-                    Consumer<Optional<ObjectNode>> hdlr;
-                    hdlr = TestDefinitionProcessor.testcaseImportHandler(tcPath, project, tests, tType);
-                    maybeNodes.add(ImporterRequest.sendImportRequest(url, user, pw, testXml, selector, hdlr, cfgPath));
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                } catch (ExecutionException e) {
-                    logger.warn("FIXME: Retry due to exception");
-                    e.printStackTrace();
-                } catch (JMSException e) {
-                    logger.warn("TODO: Retry after a sleep");
-                    e.printStackTrace();
-                }
+                String selector = String.format("%s='%s'", selectorName, projSelectorValue);
+                Consumer<Optional<ObjectNode>> hdlr;
+                hdlr = TestDefinitionProcessor.testcaseImportHandler(tcPath, project, tests, tType);
+                futures.add(ImporterRequest.sendImportRequestAsync(url, user, pw, testXml, selector, hdlr, cfgPath,
+                        timeout));
             }
         }
+
+        // All the requests are in flight now, so wait for all of them at once
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException e) {
+            // Rethrow what a handler threw (eg an XMLEditError), just as if it had been called directly
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw e;
+        }
+        futures.forEach(f -> maybeNodes.add(f.join()));
         return maybeNodes;
     }
 
@@ -1061,7 +1264,9 @@ public class TestDefinitionProcessor extends AbstractProcessor {
             pToI = mapFile.get(name);
         }
         else {
-            pToI = new LinkedHashMap<>();
+            Boolean concurrent = mapFile instanceof ConcurrentMap
+                    || (mapFile instanceof IndexedMapping && ((IndexedMapping) mapFile).isConcurrent());
+            pToI = concurrent ? new ConcurrentHashMap<>() : new LinkedHashMap<>();
         }
 
         IdParams ip; // = pToI.getOrDefault(project, null);
@@ -1235,25 +1440,33 @@ public class TestDefinitionProcessor extends AbstractProcessor {
                                     File mapPath) {
         String msg = "Adding TestCase ID to the mapping file.  Editing map: %s -> {%s: %s}";
         //logger.debug(String.format(msg, meta.qualifiedName, meta.project, id));
-        Map<String, IdParams> projToId = mapFile.getOrDefault(meta.qualifiedName, null);
-        if (projToId != null) {
-            if (projToId.containsKey(meta.project)) {
-                IdParams ip = projToId.get(meta.project);
-                ip.id = id;
+        // When processTC runs in parallel, the edit and its journal entry must happen together so that the last
+        // journaled entry for a method always matches what is in mapFile
+        synchronized (mapFile) {
+            Map<String, IdParams> projToId = mapFile.getOrDefault(meta.qualifiedName, null);
+            if (projToId != null) {
+                if (projToId.containsKey(meta.project)) {
+                    IdParams ip = projToId.get(meta.project);
+                    ip.id = id;
+                }
+                else {
+                    IdParams ip = new IdParams();
+                    ip.setId(id);
+                    ip.setParameters(meta.params.stream().map(Parameter::getName).collect(Collectors.toList()));
+                    projToId.put(meta.project, ip);
+                }
             }
             else {
-                IdParams ip = new IdParams();
-                ip.setId(id);
-                ip.setParameters(meta.params.stream().map(Parameter::getName).collect(Collectors.toList()));
-                projToId.put(meta.project, ip);
+                // In this case, although the XML file existed and we have (some) annotation data, we don't have all
+                // of it.  So let's put it into this.mappingFile
+                TestDefinitionProcessor.setPolarionIDInMapFile(meta, id, mapFile);
             }
+            if (mapFile instanceof IndexedMapping)
+                ((IndexedMapping) mapFile).reindex(meta.qualifiedName, meta.project);
+            // Only journal the edit here.  The full mapping file is compacted once at the end of process()
+            IdParams edited = mapFile.get(meta.qualifiedName).get(meta.project);
+            MappingStore.forFile(mapPath).append(meta.qualifiedName, meta.project, edited);
         }
-        else {
-            // In this case, although the XML file existed and we have (some) annotation data, we don't have all
-            // of it.  So let's put it into this.mappingFile
-            TestDefinitionProcessor.setPolarionIDInMapFile(meta, id, mapFile);
-        }
-        writeMapFile(mapPath, mapFile);
     }
 
     private enum IDType {
@@ -1422,17 +1635,15 @@ public class TestDefinitionProcessor extends AbstractProcessor {
                       Map<String, Map<String, IdParams>> mapFile,
                       Testcase tc,
                       File mapPath,
-                      Path xmlDef,
-                      Map<String, Map<String, Meta<TestDefinition>>> methToPD) {
+                      Path xmlDef) {
         List<String> badFuncs = new ArrayList<>();
 
         Optional<String> maybePolarionID = meta.getPolarionIDFromTestcase();
-        Optional<Tuple<String, Testcase>> maybeIDXml = meta.getPolarionIDFromXML(testCasePath);
+        Optional<String> maybeIDXml = meta.probePolarionIDFromXML(testCasePath);
         Optional<String> maybeMapFileID =
                 TestDefinitionProcessor.getPolarionIDFromMapFile(meta.qualifiedName, meta.project, mapFile);
         String annId = maybePolarionID.orElse("");
-        Tuple<String, Testcase> idAndTC = maybeIDXml.orElse(new Tuple<>("", null));
-        String xmlId = idAndTC.first;
+        String xmlId = maybeIDXml.orElse("");
         String mapId = maybeMapFileID.orElse("");
         int importType = meta.annotation.update() ? 1 << 1 : 0;
         boolean mapFileEdit = false;
@@ -1449,9 +1660,11 @@ public class TestDefinitionProcessor extends AbstractProcessor {
         String pqual = meta.project + " -> " + qual;
 
         // Check that the description field is not empty
-        if (idAndTC.second != null && tc.getDescription() != null && tc.getDescription().equals("")) {
+        // Only unmarshall the whole XML when we actually need the Testcase from it
+        if (maybeIDXml.isPresent() && tc.getDescription() != null && tc.getDescription().equals("")) {
             String desc = tc.getDescription();
-            TestDefinitionProcessor.addDescToXML(meta, testCasePath, desc, idAndTC.second);
+            meta.getPolarionIDFromXML(testCasePath).ifPresent(idAndTC ->
+                    TestDefinitionProcessor.addDescToXML(meta, testCasePath, desc, idAndTC.second));
         }
 
         Boolean mapIsEdited = false;
@@ -1542,14 +1755,21 @@ public class TestDefinitionProcessor extends AbstractProcessor {
                     idtouse = xmlId;
             }
             if (!idtouse.equals("")) {
-                TestDefinitionProcessor.setPolarionIDInMapFile(meta, idtouse, mapFile);
+                // Journal the edit like addToMapFile does, since the mapping is only written back from the journal
+                synchronized (mapFile) {
+                    TestDefinitionProcessor.setPolarionIDInMapFile(meta, idtouse, mapFile);
+                    IdParams edited = mapFile.get(meta.qualifiedName).get(meta.project);
+                    MappingStore.forFile(mapPath).append(meta.qualifiedName, meta.project, edited);
+                }
                 mapFileEdit = true;
             }
         }
 
-        // We need to regenerate the mapfile if we have a new method before checkParameterMismatch is called
+        // We need to regenerate the mapfile entry if we have a new method before checkParameterMismatch is called.
+        // Only this method and project can have changed, so the rest of the mapping is left alone
         if (mapFileEdit)
-            updateMappingFile(mapFile, methToPD, testCasePath, mapPath);
+            updateMappingFile(mapFile, Collections.singletonMap(qual, Collections.singletonMap(project, meta)),
+                    testCasePath, mapPath);
 
         // At this point, make sure that the number of args in the method is how many we have in the mapping file.
         checkParameterMismatch(meta, mapFile);
@@ -1566,8 +1786,7 @@ public class TestDefinitionProcessor extends AbstractProcessor {
      */
     private Testcase processTC(Meta<TestDefinition> meta) throws MismatchError {
         return TestDefinitionProcessor.processTC(meta, this.mappingFile, this.testCaseToMeta, this.tcPath, this.tcMap,
-                new File(this.config.getMappingPath()), this.methNameToTestNGDescription, this.config,
-                this.methToProjectDef);
+                new File(this.config.getMappingPath()), this.methNameToTestNGDescription, this.config);
     }
 
     /**
@@ -1587,8 +1806,7 @@ public class TestDefinitionProcessor extends AbstractProcessor {
                                      Map<String, List<Testcase>> testCaseMap,
                                      File mapPath,
                                      Map<String, String> methToDesc,
-                                     XMLConfig config,
-                                     Map<String, Map<String, Meta<TestDefinition>>> methToPD) {
+                                     XMLConfig config) {
         Testcase tc = TestDefinitionProcessor.initImporterTestcase(meta, methToDesc, config);
         // Check if testCasePath exists.  If it doesn't, generate the XML definition.
         Path xmlDef = FileHelper.makeXmlPath(testCasePath, meta);
@@ -1598,7 +1816,7 @@ public class TestDefinitionProcessor extends AbstractProcessor {
         tcToMeta.put(tc, meta);
 
         int importType;
-        Tuple<Integer, Boolean> res = processIdEntities(meta, testCasePath, mapFile, tc, mapPath, xmlDef, methToPD);
+        Tuple<Integer, Boolean> res = processIdEntities(meta, testCasePath, mapFile, tc, mapPath, xmlDef);
         importType = res.first;
 
         // If the update bit and the none bit are 0 we don't do anything.  Otherwise, do an import request
@@ -1711,21 +1929,78 @@ public class TestDefinitionProcessor extends AbstractProcessor {
         return mpid;
     }
 
+    /**
+     * Generates the {@link CompiledMapping} class from the mapping, so that javac compiles it along with the tests
+     *
+     * This is only done in the first round, since a source file can only be created once per compile.
+     *
+     * @param mapPath path of the mapping file the mapping was written to
+     */
+    private void generateMappingIndex(File mapPath) {
+        String source;
+        try {
+            source = CompiledMapping.generateSource(this.mappingFile, mapPath.getAbsolutePath());
+        } catch (MappingError me) {
+            logger.error(String.format("Not generating %s: %s", CompiledMapping.className, me.getMessage()));
+            return;
+        }
+        try (Writer w = this.processingEnv.getFiler().createSourceFile(CompiledMapping.className).openWriter()) {
+            w.write(source);
+            logger.info(String.format("Generated %s for %d methods", CompiledMapping.className,
+                    this.mappingFile.size()));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
     /**
      * Creates the mapping JSON file given a Map of methodName -> Project -> IdParam
      *
+     * Since mpid is the complete mapping, this also clears any journaled edits (see {@link MappingStore}), and writes
+     * the binary {@link MappingSnapshot} of the new mapping file next to it.  If mpid is the same as what is already
+     * on disk, nothing is written.  Otherwise what changed is appended to the audit file.
+     *
      * @param mapPath path for where to write the JSON mapping
      * @param mpid a map of methodName to Project to IdParam object
      */
     public static void writeMapFile(File mapPath, Map<String, Map<String, IdParams>> mpid) {
-        ObjectMapper mapper = new ObjectMapper();
+        TestDefinitionProcessor.writeMapFile(mapPath, mpid, Collections.emptySet());
+    }
+
+    /**
+     * Like {@link #writeMapFile(File, Map)}, for a mapping that was loaded from only some of the shards of a sharded
+     * mapping (see {@link MappingStore#compact(Map, Collection)})
+     *
+     * @param mapPath path for where to write the JSON mapping
+     * @param mpid a map of methodName to Project to IdParam object
+     * @param projects the projects that mpid is complete for
+     */
+    public static void writeMapFile(File mapPath, Map<String, Map<String, IdParams>> mpid, Set<String> projects) {
+        MappingDiff diff = MappingStore.forFile(mapPath).compact(mpid, projects);
+        if (mpid instanceof IndexedMapping)
+            ((IndexedMapping) mpid).clearDirty();
+        if (diff.isEmpty())
+            return;
+        MappingSnapshot.write(mapPath, mpid);
+
+        List<String> lines = new ArrayList<>();
+        lines.add(String.format("Mapping file %s changed: %s", mapPath, diff));
+        diff.lines().forEach(l -> lines.add("  " + l));
         try {
-            mapper.writer().withDefaultPrettyPrinter().writeValue(mapPath, printSortedMappingFile(mpid));
+            TestDefinitionProcessor.writeAuditFile(auditFile, lines);
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * @param mapFile the mapping
+     * @return false only if mapFile is an IndexedMapping that has not been edited since it was loaded
+     */
+    private static Boolean isDirty(Map<String, Map<String, IdParams>> mapFile) {
+        return !(mapFile instanceof IndexedMapping) || ((IndexedMapping) mapFile).isDirty();
+    }
+
     public static Map<String, Map<String, IdParams>> printSortedMappingFile(Map<String, Map<String, IdParams>> defs) {
         Map<String, Map<String, IdParams>> sorted = new TreeMap<>();
         for(Map.Entry<String, Map<String, IdParams>> me: defs.entrySet()) {
@@ -1774,7 +2049,7 @@ public class TestDefinitionProcessor extends AbstractProcessor {
         }
     }
 
-    public static void
+    public static synchronized void
     writeAuditFile(File path, Tuple<SortedSet<String>, List<UpdateAnnotation>> audit) throws IOException {
 
         Set<String> difference = audit.first;
@@ -1795,7 +2070,7 @@ public class TestDefinitionProcessor extends AbstractProcessor {
         }
     }
 
-    public static void writeAuditFile(File path, String line) throws IOException {
+    public static synchronized void writeAuditFile(File path, String line) throws IOException {
         Path p = path.toPath();
         OpenOption[] opts = {StandardOpenOption.APPEND, StandardOpenOption.CREATE};
         try (BufferedWriter writer = Files.newBufferedWriter(p, opts)) {
@@ -1803,7 +2078,7 @@ public class TestDefinitionProcessor extends AbstractProcessor {
         }
     }
 
-    public static void writeAuditFile(String line) throws IOException {
+    public static synchronized void writeAuditFile(String line) throws IOException {
         Path p = TestDefinitionProcessor.auditFile.toPath();
         OpenOption[] opts = {StandardOpenOption.APPEND, StandardOpenOption.CREATE};
         try (BufferedWriter writer = Files.newBufferedWriter(p, opts)) {
@@ -1811,7 +2086,7 @@ public class TestDefinitionProcessor extends AbstractProcessor {
         }
     }
 
-    public static void writeAuditFile(File path, List<String> lines) throws IOException {
+    public static synchronized void writeAuditFile(File path, List<String> lines) throws IOException {
         Path p = path.toPath();
         OpenOption[] opts = {StandardOpenOption.APPEND, StandardOpenOption.CREATE};
         try (BufferedWriter writer = Files.newBufferedWriter(p, opts)) {
@@ -28,6 +28,9 @@ import javax.xml.bind.annotation.XmlValue;
  *       &lt;attribute name="url" type="{http://www.w3.org/2001/XMLSchema}string" />
  *       &lt;attribute name="user" type="{http://www.w3.org/2001/XMLSchema}string" />
  *       &lt;attribute name="password" type="{http://www.w3.org/2001/XMLSchema}string" />
+ *       &lt;attribute name="connect-timeout" type="{http://www.w3.org/2001/XMLSchema}int" />
+ *       &lt;attribute name="socket-timeout" type="{http://www.w3.org/2001/XMLSchema}int" />
+ *       &lt;attribute name="max-connections" type="{http://www.w3.org/2001/XMLSchema}int" />
  *     &lt;/extension>
  *   &lt;/simpleContent>
  * &lt;/complexType>
@@ -51,6 +54,12 @@ public class ServerType {
     protected String user;
     @XmlAttribute(name = "password")
     protected String password;
+    @XmlAttribute(name = "connect-timeout")
+    protected Integer connectTimeout;
+    @XmlAttribute(name = "socket-timeout")
+    protected Integer socketTimeout;
+    @XmlAttribute(name = "max-connections")
+    protected Integer maxConnections;
 
     /**
      * Gets the value of the value property.
@@ -172,4 +181,76 @@ public class ServerType {
         this.password = value;
     }
 
+    /**
+     * Gets the value of the connectTimeout property.
+     * 
+     * @return
+     *     possible object is
+     *     {@link Integer }
+     *     
+     */
+    public Integer getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    /**
+     * Sets the value of the connectTimeout property.
+     * 
+     * @param value
+     *     allowed object is
+     *     {@link Integer }
+     *     
+     */
+    public void setConnectTimeout(Integer value) {
+        this.connectTimeout = value;
+    }
+
+    /**
+     * Gets the value of the socketTimeout property.
+     * 
+     * @return
+     *     possible object is
+     *     {@link Integer }
+     *     
+     */
+    public Integer getSocketTimeout() {
+        return socketTimeout;
+    }
+
+    /**
+     * Sets the value of the socketTimeout property.
+     * 
+     * @param value
+     *     allowed object is
+     *     {@link Integer }
+     *     
+     */
+    public void setSocketTimeout(Integer value) {
+        this.socketTimeout = value;
+    }
+
+    /**
+     * Gets the value of the maxConnections property.
+     * 
+     * @return
+     *     possible object is
+     *     {@link Integer }
+     *     
+     */
+    public Integer getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * Sets the value of the maxConnections property.
+     * 
+     * @param value
+     *     allowed object is
+     *     {@link Integer }
+     *     
+     */
+    public void setMaxConnections(Integer value) {
+        this.maxConnections = value;
+    }
+
 }
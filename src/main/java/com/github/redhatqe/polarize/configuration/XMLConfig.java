@@ -3,6 +3,7 @@ package com.github.redhatqe.polarize.configuration;
 import com.github.redhatqe.polarize.IJAXBHelper;
 import com.github.redhatqe.polarize.JAXBHelper;
 import com.github.redhatqe.polarize.exceptions.XSDValidationError;
+import com.github.redhatqe.polarize.importer.HttpClientFactory;
 import com.github.redhatqe.polarize.utils.Environ;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -139,6 +140,8 @@ public class XMLConfig {
                 default:
                     this.logger.error(String.format("Unknown server type: %s", st.getName()));
             }
+            // Apply the connection pool settings (timeouts, max connections) for this server if it has any
+            HttpClientFactory.configure(st);
         }
     }
 
@@ -0,0 +1,320 @@
+package com.github.redhatqe.polarize.importer;
+
+import com.github.redhatqe.polarize.configuration.ServerType;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpHost;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.CredentialsProvider;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.NoopHostnameVerifier;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.client.LaxRedirectStrategy;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.ssl.SSLContextBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLContext;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.security.KeyManagementException;
+import java.security.KeyStoreException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out a single, pooled CloseableHttpClient that is shared by all the requests made by ImporterRequest
+ *
+ * Building a new client (with its own SSLContext) for every request means every request pays for a new TCP connection
+ * and TLS handshake, and the clients were never closed.  Instead, there is one client backed by a
+ * PoolingHttpClientConnectionManager, so connections to the same server are kept alive and reused.  Since the client
+ * is shared, the credentials are not part of it but are passed with each request (see {@link #context(String, String,
+ * String)}).
+ *
+ * The pool can be tuned with these system properties:
+ * - polarize.http.maxTotal: max number of connections in the pool (default 20)
+ * - polarize.http.maxPerRoute: default max number of connections to a single server (default 5)
+ * - polarize.http.keepAlive: ms to keep an idle connection if the server doesn't say (default 30000)
+ * - polarize.http.leaseTimeout: ms to wait for a connection from the pool before giving up (default 60000)
+ *
+ * Servers in the polarize-config.xml can override the per-route limit and the timeouts through the max-connections,
+ * connect-timeout and socket-timeout attributes of their server element (see {@link #configure(ServerType)}).
+ *
+ * The client is closed by a shutdown hook, or explicitly with {@link #shutdown()}.
+ */
+public class HttpClientFactory {
+    private static final Logger logger = LoggerFactory.getLogger(HttpClientFactory.class);
+    public static final String maxTotalProperty = "polarize.http.maxTotal";
+    public static final String maxPerRouteProperty = "polarize.http.maxPerRoute";
+    public static final String keepAliveProperty = "polarize.http.keepAlive";
+    public static final String leaseTimeoutProperty = "polarize.http.leaseTimeout";
+
+    // host:port -> the RequestConfig (timeouts) for that server
+    private static final Map<String, RequestConfig> requestConfigs = new ConcurrentHashMap<>();
+    // route -> max connections for that server, so that servers configured before the pool exists get applied too
+    private static final Map<HttpRoute, Integer> routeLimits = new ConcurrentHashMap<>();
+
+    private static final AtomicLong leases = new AtomicLong();
+    private static final AtomicLong leaseWaitNanos = new AtomicLong();
+    private static final AtomicLong maxLeaseWaitNanos = new AtomicLong();
+
+    private static CloseableHttpClient client;
+    private static PoolingHttpClientConnectionManager manager;
+    private static Thread shutdownHook;
+
+    /**
+     * A PoolingHttpClientConnectionManager which records how many connections were leased and how long the callers
+     * had to wait for them
+     */
+    private static class StatsConnectionManager extends PoolingHttpClientConnectionManager {
+        StatsConnectionManager(Registry<ConnectionSocketFactory> registry) {
+            super(registry);
+        }
+
+        @Override
+        public ConnectionRequest requestConnection(HttpRoute route, Object state) {
+            ConnectionRequest request = super.requestConnection(route, state);
+            return new ConnectionRequest() {
+                @Override
+                public HttpClientConnection get(long timeout, TimeUnit tunit)
+                        throws InterruptedException, ExecutionException, ConnectionPoolTimeoutException {
+                    long start = System.nanoTime();
+                    try {
+                        return request.get(timeout, tunit);
+                    } finally {
+                        long waited = System.nanoTime() - start;
+                        leases.incrementAndGet();
+                        leaseWaitNanos.addAndGet(waited);
+                        maxLeaseWaitNanos.accumulateAndGet(waited, Math::max);
+                    }
+                }
+
+                @Override
+                public boolean cancel() {
+                    return request.cancel();
+                }
+            };
+        }
+    }
+
+    /**
+     * @return the shared client, creating it (and registering its shutdown hook) on first use
+     */
+    public static synchronized CloseableHttpClient getClient() {
+        if (client != null)
+            return client;
+
+        // Like before, trust all certificates since the Polarion servers tend to use self signed certs
+        SSLContext sslContext = null;
+        try {
+            sslContext = new SSLContextBuilder().loadTrustMaterial(null, (arg0, arg1) -> true).build();
+        } catch (NoSuchAlgorithmException | KeyManagementException | KeyStoreException e) {
+            logger.error("Could not create a trust all SSLContext");
+            e.printStackTrace();
+        }
+        RegistryBuilder<ConnectionSocketFactory> registry = RegistryBuilder.<ConnectionSocketFactory>create()
+                .register("http", PlainConnectionSocketFactory.getSocketFactory());
+        if (sslContext != null)
+            registry.register("https", new SSLConnectionSocketFactory(sslContext, NoopHostnameVerifier.INSTANCE));
+        else
+            registry.register("https", SSLConnectionSocketFactory.getSocketFactory());
+
+        manager = new StatsConnectionManager(registry.build());
+        manager.setMaxTotal(Integer.getInteger(maxTotalProperty, 20));
+        manager.setDefaultMaxPerRoute(Integer.getInteger(maxPerRouteProperty, 5));
+        routeLimits.forEach(manager::setMaxPerRoute);
+
+        long keepAlive = Long.getLong(keepAliveProperty, 30000L);
+        ConnectionKeepAliveStrategy keepAliveStrategy = (response, context) -> {
+            long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+            return duration > 0 ? duration : keepAlive;
+        };
+
+        client = HttpClients.custom()
+                .setConnectionManager(manager)
+                .setDefaultRequestConfig(HttpClientFactory.defaultRequestConfig().build())
+                .setKeepAliveStrategy(keepAliveStrategy)
+                .setRedirectStrategy(new LaxRedirectStrategy())
+                .evictExpiredConnections()
+                .evictIdleConnections(keepAlive, TimeUnit.MILLISECONDS)
+                .build();
+
+        shutdownHook = new Thread(HttpClientFactory::close, "polarize-http-shutdown");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+        return client;
+    }
+
+    /**
+     * Sets the timeouts and the max number of connections for requests to a server
+     *
+     * @param server a server from the polarize-config.xml
+     */
+    public static void configure(ServerType server) {
+        if (server == null || server.getUrl() == null || server.getUrl().equals(""))
+            return;
+        HttpRoute route = HttpClientFactory.routeOf(server.getUrl());
+        if (route == null)
+            return;
+
+        RequestConfig.Builder rc = HttpClientFactory.defaultRequestConfig();
+        if (server.getConnectTimeout() != null) {
+            rc.setConnectTimeout(server.getConnectTimeout());
+            rc.setConnectionRequestTimeout(server.getConnectTimeout());
+        }
+        if (server.getSocketTimeout() != null)
+            rc.setSocketTimeout(server.getSocketTimeout());
+        requestConfigs.put(HttpClientFactory.keyOf(route), rc.build());
+
+        if (server.getMaxConnections() != null) {
+            routeLimits.put(route, server.getMaxConnections());
+            synchronized (HttpClientFactory.class) {
+                if (manager != null)
+                    manager.setMaxPerRoute(route, server.getMaxConnections());
+            }
+        }
+    }
+
+    /**
+     * A request must never wait forever for a connection from the pool, eg when responses were not closed, so every
+     * server gets the lease timeout unless its config sets a connect-timeout
+     *
+     * @return the RequestConfig for servers that are not configured
+     */
+    private static RequestConfig.Builder defaultRequestConfig() {
+        return RequestConfig.custom().setConnectionRequestTimeout(Integer.getInteger(leaseTimeoutProperty, 60000));
+    }
+
+    /**
+     * Creates the per request context, which holds the credentials and the timeouts of the server url belongs to
+     *
+     * @param url url the request will be made to
+     * @param user user to authenticate as
+     * @param pw password for the user
+     * @return a new HttpClientContext
+     */
+    public static HttpClientContext context(String url, String user, String pw) {
+        HttpClientContext context = HttpClientContext.create();
+        if (user != null) {
+            CredentialsProvider provider = new BasicCredentialsProvider();
+            provider.setCredentials(AuthScope.ANY, new UsernamePasswordCredentials(user, pw));
+            context.setCredentialsProvider(provider);
+        }
+        HttpRoute route = HttpClientFactory.routeOf(url);
+        if (route != null) {
+            RequestConfig rc = requestConfigs.get(HttpClientFactory.keyOf(route));
+            if (rc != null)
+                context.setRequestConfig(rc);
+        }
+        return context;
+    }
+
+    /**
+     * Executes a request with the shared client
+     *
+     * The caller must consume the entity or close the response so that the connection goes back into the pool.
+     *
+     * @param request the request to make
+     * @param user user to authenticate as
+     * @param pw password for the user
+     * @return the response
+     * @throws IOException if the request failed
+     */
+    public static CloseableHttpResponse execute(HttpRequestBase request, String user, String pw) throws IOException {
+        HttpClientContext context = HttpClientFactory.context(request.getURI().toString(), user, pw);
+        return HttpClientFactory.getClient().execute(request, context);
+    }
+
+    /**
+     * Closes the shared client and its pool.  A later call to getClient() creates a new one.
+     */
+    public static synchronized void shutdown() {
+        HttpClientFactory.close();
+        if (shutdownHook != null) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException e) {
+                // Already shutting down, so the hook is running or has run
+            }
+            shutdownHook = null;
+        }
+    }
+
+    private static synchronized void close() {
+        if (client == null)
+            return;
+        logger.debug(HttpClientFactory.stats());
+        try {
+            client.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        client = null;
+        manager = null;
+    }
+
+    /**
+     * @return the current number of leased, available and pending connections, or null if there is no pool yet
+     */
+    public static synchronized PoolStats getPoolStats() {
+        return manager == null ? null : manager.getTotalStats();
+    }
+
+    public static long getLeases() {
+        return leases.get();
+    }
+
+    public static long getLeaseWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(leaseWaitNanos.get());
+    }
+
+    public static long getMaxLeaseWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxLeaseWaitNanos.get());
+    }
+
+    public static String stats() {
+        PoolStats ps = HttpClientFactory.getPoolStats();
+        String pool = ps == null ? "no pool" : ps.toString();
+        return String.format("HTTP connection leases: %d, total wait: %d ms, max wait: %d ms, pool: %s", leases.get(),
+                HttpClientFactory.getLeaseWaitMillis(), HttpClientFactory.getMaxLeaseWaitMillis(), pool);
+    }
+
+    private static HttpRoute routeOf(String url) {
+        try {
+            URI uri = new URI(url);
+            if (uri.getHost() == null)
+                return null;
+            String scheme = uri.getScheme() == null ? "http" : uri.getScheme();
+            int port = uri.getPort() != -1 ? uri.getPort() : (scheme.equals("https") ? 443 : 80);
+            return new HttpRoute(new HttpHost(uri.getHost(), port, scheme), null, scheme.equals("https"));
+        } catch (URISyntaxException e) {
+            logger.error(String.format("Invalid url %s", url));
+            return null;
+        }
+    }
+
+    private static String keyOf(HttpRoute route) {
+        return route.getTargetHost().toHostString();
+    }
+}
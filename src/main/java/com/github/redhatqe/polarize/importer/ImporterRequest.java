@@ -1,46 +1,36 @@
 package com.github.redhatqe.polarize.importer;
 
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.github.redhatqe.polarize.messagebus.CIBusListener;
+import com.github.redhatqe.polarize.messagebus.CIBusDispatcher;
 import com.github.redhatqe.polarize.IFileHelper;
 import com.github.redhatqe.polarize.IJAXBHelper;
 import com.github.redhatqe.polarize.JAXBHelper;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
-import org.apache.http.auth.AuthScope;
-import org.apache.http.auth.UsernamePasswordCredentials;
-import org.apache.http.client.CredentialsProvider;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.conn.ssl.NoopHostnameVerifier;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.mime.MultipartEntityBuilder;
-import org.apache.http.impl.client.*;
-import org.apache.http.ssl.SSLContextBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.jms.JMSException;
-import javax.net.ssl.SSLContext;
 import java.io.*;
 import java.net.MalformedURLException;
-import java.net.URI;
-import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.channels.Channels;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.security.KeyManagementException;
-import java.security.KeyStoreException;
-import java.security.NoSuchAlgorithmException;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
-import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 /**
@@ -48,6 +38,13 @@ import java.util.stream.Collectors;
  */
 public class ImporterRequest {
     private static Logger logger = LoggerFactory.getLogger(ImporterRequest.class);
+    private static final AtomicInteger uploads = new AtomicInteger();
+    // Runs the uploads of sendImportRequestAsync.  How many run at once is bounded by the HttpClientFactory pool
+    private static final ExecutorService uploader = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "polarize-upload-" + uploads.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    });
 
     /**
      * Marshalls t of Type T into xml file and uses this generated xml for an importer request
@@ -74,7 +71,8 @@ public class ImporterRequest {
      *
      * This style of post is used by the XUnit and Testcase importer, the only difference is the endpoint in the URL.
      * Note that the http response does not hold the data from the request.  Instead, the response of the request is
-     * actually sent through the CI Message Bus.  See CIBusListener class
+     * actually sent through the CI Message Bus.  See CIBusListener class.  The request is made with the shared, pooled
+     * client from {@link HttpClientFactory}, so the caller must close the returned response.
      *
      * @param url
      * @param importerFile
@@ -90,44 +88,7 @@ public class ImporterRequest {
         }
         ImporterRequest.logger.info(String.format("Sending %s to importer:\n", importerFile.toString()));
 
-        CredentialsProvider provider = new BasicCredentialsProvider();
-        UsernamePasswordCredentials credentials = new UsernamePasswordCredentials(user, pw);
-        provider.setCredentials(AuthScope.ANY, credentials);
-
-        HttpClientBuilder builder = HttpClients.custom()
-                .setDefaultCredentialsProvider(provider)
-                .setRedirectStrategy(new LaxRedirectStrategy());
-
-        // FIXME: This should probably go into a helper class since the XUnitReporter is going to need this too
         try {
-            URI polarion = null;
-            try {
-                polarion = new URI(url);
-            } catch (URISyntaxException e) {
-                e.printStackTrace();
-            }
-            CloseableHttpClient httpClient;
-            if(polarion != null && polarion.getScheme().equals("https")) {
-                // setup a Trust Strategy that allows all certificates.
-                SSLContext sslContext = null;
-                try {
-                    sslContext = new SSLContextBuilder().loadTrustMaterial(null, (arg0, arg1) -> true).build();
-                } catch (NoSuchAlgorithmException e) {
-                    e.printStackTrace();
-                } catch (KeyManagementException e) {
-                    ImporterRequest.logger.error("KeyManagement error");
-                    e.printStackTrace();
-                } catch (KeyStoreException e) {
-                    ImporterRequest.logger.error("KeyStore error");
-                    e.printStackTrace();
-                }
-                builder.setSSLHostnameVerifier(new NoopHostnameVerifier())
-                        .setSSLContext(sslContext)
-                        .setDefaultCredentialsProvider(provider)
-                        .setRedirectStrategy(new LaxRedirectStrategy());
-            }
-
-            httpClient = builder.build();
             HttpPost postMethod = new HttpPost(url);
 
             MultipartEntityBuilder body = MultipartEntityBuilder.create();
@@ -135,10 +96,11 @@ public class ImporterRequest {
             body.setContentType(ContentType.MULTIPART_FORM_DATA);
             HttpEntity bodyEntity = body.build();
             postMethod.setEntity(bodyEntity);
-            response = httpClient.execute(postMethod);
+            response = HttpClientFactory.execute(postMethod, user, pw);
             ImporterRequest.logger.info(response.toString());
         } catch (IOException e) {
             e.printStackTrace();
+            return response;
         }
 
         ImporterRequest.printBody(response);
@@ -185,6 +147,9 @@ public class ImporterRequest {
     /**
      * Makes an importer REST call to upload testrun results
      *
+     * This blocks until the reply arrives on the message bus (or the timeout in the config file is reached).  See
+     * {@link #sendImportRequestAsync} for a version that doesn't block.
+     *
      * @param url url including the server and endpoint
      * @param user user to authenticate as
      * @param pw password for user (note, not encrypted!!)
@@ -198,24 +163,70 @@ public class ImporterRequest {
     sendImportRequest(String url, String user, String pw, File reportPath, String selector,
                       Consumer<Optional<ObjectNode>> handler, String cfgPath)
             throws InterruptedException, ExecutionException, JMSException {
-        Supplier<Optional<ObjectNode>> sup = CIBusListener.getCIMessage(selector, cfgPath);
-        CompletableFuture<Optional<ObjectNode>> future = CompletableFuture.supplyAsync(sup);
-        // FIXME: While this async code works, it's possible for the calling thread to finish before the handler is
-        // called.  Perhaps I can return the future, and the calling thread just joins()?
-        //future.thenAccept(messageHandler());
+        long timeout = CIBusDispatcher.forConfig(cfgPath).defaultTimeout();
+        return ImporterRequest.sendImportRequestAsync(url, user, pw, reportPath, selector, handler, cfgPath, timeout)
+                .get();
+    }
 
-        logger.info("Making import request as user: " + user);
-        CloseableHttpResponse resp = ImporterRequest.post(url, reportPath, user, pw);
-        HttpEntity entity = resp.getEntity();
-        System.out.println(resp.toString());
+    /**
+     * Makes an importer REST call without waiting for the reply from the message bus
+     *
+     * The waiter for the reply is registered before the file is uploaded, and the upload runs on a thread of its own so
+     * that this returns right away.  The returned future completes once the reply was received and the handler has
+     * been run on it (on a thread of the common pool, not the message bus thread).  If no reply arrives within timeout
+     * ms, or the upload failed, the handler is run with Optional.empty().  Requests that may be in flight at the same
+     * time should use distinct selectors, since a reply goes to the oldest request waiting on its selector.
+     *
+     * @param url url including the server and endpoint
+     * @param user user to authenticate as
+     * @param pw password for user (note, not encrypted!!)
+     * @param reportPath path the XML file that will be uploaded
+     * @param selector a JMS Selector string
+     * @param handler run on the reply
+     * @param cfgPath path to the polarize-config.xml (or null for the default)
+     * @param timeout ms to wait for the reply
+     * @return a future of the reply
+     */
+    public static CompletableFuture<Optional<ObjectNode>>
+    sendImportRequestAsync(String url, String user, String pw, File reportPath, String selector,
+                           Consumer<Optional<ObjectNode>> handler, String cfgPath, long timeout) {
+        // Register for the reply on the shared bus connection before making the request, so it can't be missed
+        CIBusDispatcher dispatcher = CIBusDispatcher.forConfig(cfgPath);
+        CompletableFuture<Optional<ObjectNode>> reply = dispatcher.register(selector, timeout);
 
-        // FIXME:  Should I synchronize here?  If I leave this out and return future, it is the caller's responsibility
-        // to check by either calling get() or join()
-        Optional<ObjectNode> maybeNode = future.get();
+        return CompletableFuture.supplyAsync(() -> ImporterRequest.upload(url, reportPath, user, pw), uploader)
+                .exceptionally(ex -> {
+                    ex.printStackTrace();
+                    return false;
+                })
+                .thenCompose(uploaded -> {
+                    if (uploaded)
+                        return reply;
+                    logger.error(String.format("Import request for %s failed, not waiting for a reply", reportPath));
+                    dispatcher.cancel(selector, reply);
+                    return CompletableFuture.completedFuture(Optional.<ObjectNode>empty());
+                })
+                .thenApplyAsync(maybeNode -> {
+                    handler.accept(maybeNode);
+                    return maybeNode;
+                });
+    }
 
-        // FIXME: Should I add a message handler here?  or just do it externally?
-        handler.accept(maybeNode);
-        return maybeNode;
+    /**
+     * Posts a file and closes the response
+     *
+     * @return true if the request was made
+     */
+    private static Boolean upload(String url, File reportPath, String user, String pw) {
+        logger.info("Making import request as user: " + user);
+        try (CloseableHttpResponse resp = ImporterRequest.post(url, reportPath, user, pw)) {
+            if (resp == null)
+                return false;
+            System.out.println(resp.toString());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return true;
     }
 
     /**
@@ -229,46 +240,11 @@ public class ImporterRequest {
      */
     public static Optional<File> get(String url, String user, String pw, String path) {
         CloseableHttpResponse response;
-        CredentialsProvider provider = new BasicCredentialsProvider();
-        UsernamePasswordCredentials credentials = new UsernamePasswordCredentials(user, pw);
-        provider.setCredentials(AuthScope.ANY, credentials);
         Optional<File> maybeFile = Optional.empty();
 
-        HttpClientBuilder builder = HttpClients.custom()
-                .setDefaultCredentialsProvider(provider)
-                .setRedirectStrategy(new LaxRedirectStrategy());
-
+        HttpGet getMethod = new HttpGet(url);
         try {
-            URI server = null;
-            try {
-                server = new URI(url);
-            } catch (URISyntaxException e) {
-                e.printStackTrace();
-            }
-            CloseableHttpClient httpClient;
-            if(server != null && server.getScheme().equals("https")) {
-                // setup a Trust Strategy that allows all certificates.
-                SSLContext sslContext = null;
-                try {
-                    sslContext = new SSLContextBuilder().loadTrustMaterial(null, (arg0, arg1) -> true).build();
-                } catch (NoSuchAlgorithmException e) {
-                    e.printStackTrace();
-                } catch (KeyManagementException e) {
-                    ImporterRequest.logger.error("KeyManagement error");
-                    e.printStackTrace();
-                } catch (KeyStoreException e) {
-                    ImporterRequest.logger.error("KeyStore error");
-                    e.printStackTrace();
-                }
-                builder.setSSLHostnameVerifier(new NoopHostnameVerifier())
-                        .setSSLContext(sslContext)
-                        .setDefaultCredentialsProvider(provider)
-                        .setRedirectStrategy(new LaxRedirectStrategy());
-            }
-
-            httpClient = builder.build();
-            HttpGet getMethod = new HttpGet(url);
-            response = httpClient.execute(getMethod);
+            response = HttpClientFactory.execute(getMethod, user, pw);
             ImporterRequest.logger.info(response.toString());
 
             maybeFile = ImporterRequest.getBody(response, path);
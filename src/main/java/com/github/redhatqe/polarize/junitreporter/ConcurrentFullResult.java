@@ -0,0 +1,75 @@
+package com.github.redhatqe.polarize.junitreporter;
+
+import org.testng.ITestResult;
+
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The counts of a {@link FullResult}, but safe to update from many threads at once without locking
+ *
+ * With parallel="methods" (or a data provider with parallel=true) many TestNG threads finish tests of the same class
+ * at the same time.  Each counter is a LongAdder, so threads only contend when they read the sums, and the methods
+ * which errored are kept in a concurrent set.  Once the run is over, {@link #snapshot()} gives a plain FullResult.
+ */
+public class ConcurrentFullResult {
+    private final LongAdder total = new LongAdder();
+    private final LongAdder passes = new LongAdder();
+    private final LongAdder fails = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder skips = new LongAdder();
+    private final Set<String> errorsByMethod = ConcurrentHashMap.newKeySet();
+    private final String classname;
+
+    public ConcurrentFullResult(String classname) {
+        this.classname = classname;
+    }
+
+    /**
+     * Counts the result of a method invocation.  Same as {@link FullResult#tally(int, Boolean, String)}
+     *
+     * @param status an ITestResult status
+     * @param error true if the method failed with something other than an AssertionError
+     * @param qual qualified name of the method
+     */
+    public void tally(int status, Boolean error, String qual) {
+        this.total.increment();
+        switch(status) {
+            case ITestResult.FAILURE:
+                if (error) {
+                    this.errors.increment();
+                    this.errorsByMethod.add(qual);
+                }
+                else
+                    this.fails.increment();
+                break;
+            case ITestResult.SKIP:
+                this.skips.increment();
+                break;
+            case ITestResult.SUCCESS:
+                this.passes.increment();
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * The counts are only consistent with each other if no thread is still tallying
+     *
+     * @return a FullResult with the current counts
+     */
+    public FullResult snapshot() {
+        FullResult fr = new FullResult();
+        fr.total = this.total.intValue();
+        fr.passes = this.passes.intValue();
+        fr.fails = this.fails.intValue();
+        fr.errors = this.errors.intValue();
+        fr.skips = this.skips.intValue();
+        fr.classname = this.classname;
+        fr.errorsByMethod = new TreeSet<>(this.errorsByMethod);
+        return fr;
+    }
+}
@@ -1,5 +1,9 @@
 package com.github.redhatqe.polarize.junitreporter;
 
+import com.github.redhatqe.polarize.importer.xunit.Testsuite;
+import com.github.redhatqe.polarize.importer.xunit.Testsuites;
+import org.testng.ITestResult;
+
 import java.util.*;
 
 /**
@@ -15,14 +19,102 @@ public class FullResult {
     public Boolean dataProvider = false;
     public Set<String> errorsByMethod = new TreeSet<>();
 
+    /**
+     * @param x the result to add to this one
+     * @return a new FullResult with the sum of the counts and the union of the errored methods
+     */
     public FullResult add(FullResult x) {
         FullResult fr = new FullResult();
         fr.total = this.total + x.total;
         fr.skips = this.skips + x.skips;
         fr.errors = this.errors + x.errors;
+        fr.fails = this.fails + x.fails;
         fr.passes = this.passes + x.passes;
         fr.classname = x.classname;
         fr.dataProvider = this.dataProvider && x.dataProvider;
+        fr.errorsByMethod.addAll(this.errorsByMethod);
+        fr.errorsByMethod.addAll(x.errorsByMethod);
         return fr;
     }
+
+    /**
+     * Counts the result of a method invocation
+     *
+     * @param status an ITestResult status
+     * @param error true if the method failed with something other than an AssertionError
+     * @param qual qualified name of the method
+     */
+    public void tally(int status, Boolean error, String qual) {
+        this.total++;
+        switch(status) {
+            case ITestResult.FAILURE:
+                if (error) {
+                    this.errors++;
+                    this.errorsByMethod.add(qual);
+                }
+                else
+                    this.fails++;
+                break;
+            case ITestResult.SKIP:
+                this.skips++;
+                break;
+            case ITestResult.SUCCESS:
+                this.passes++;
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Sets the counts of a testsuite
+     *
+     * The iterations feature of Polarion means that we don't need to specify how many times a permutation of a
+     * method + args passed/failed/skipped etc.  That's why the counts are mostly not the ones of this FullResult.
+     *
+     * @param ts the testsuite to set the counts on
+     * @param numFails number of failed results (including errors) as TestNG counts them
+     * @param numSkips number of skipped results
+     * @param numTotal number of test methods
+     */
+    public void setSuiteCounts(Testsuite ts, int numFails, int numSkips, int numTotal) {
+        if (this.total != this.fails + this.errors + this.skips + this.passes) {
+            String e = "Total number of tests run != fails + errors + skips + passes\n";
+            String v = "                       %d !=    %d +     %d +    %d +     %d\n";
+            v = String.format(v, this.total, this.fails, this.errors, this.skips, this.passes);
+            System.err.println(e + v);
+        }
+        int numErrors = this.errorsByMethod.size();
+        if (numErrors > 0)
+            numFails = numFails - numErrors;
+        if (numFails <= 0)
+            numFails = 0;
+        ts.setErrors(Integer.toString(numErrors));
+        ts.setFailures(Integer.toString(numFails));
+        ts.setSkipped(Integer.toString(numSkips));
+        ts.setTests(Integer.toString(numTotal));
+    }
+
+    /**
+     * @param suites testsuites whose counts have been set
+     * @return the sum of the counts of the testsuites
+     */
+    public static FullResult fromSuites(Testsuites suites) {
+        List<Testsuite> sList = suites.getTestsuite();
+        return sList.stream()
+                .reduce(new FullResult(),
+                        (acc, s) -> {
+                            int skips = Integer.parseInt(s.getSkipped());
+                            int errors = Integer.parseInt(s.getErrors());
+                            int fails = Integer.parseInt(s.getFailures());
+                            int total = Integer.parseInt(s.getTests());
+                            acc.skips += skips;
+                            acc.errors += errors;
+                            acc.fails += fails;
+                            acc.total += total;
+                            acc.passes += total - (skips + errors + fails);
+                            return acc;
+                        },
+                        FullResult::add);
+    }
 }
@@ -0,0 +1,157 @@
+package com.github.redhatqe.polarize.junitreporter;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.redhatqe.polarize.IdParams;
+import com.github.redhatqe.polarize.exceptions.MappingError;
+import com.github.redhatqe.polarize.mapping.MappingLookup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.ITestContext;
+import org.testng.ITestListener;
+import org.testng.ITestResult;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Optional;
+
+/**
+ * A TestNG listener which writes every test result to a {@link ResultJournal} as soon as it is known
+ *
+ * XUnitReporter only writes the xunit file once the whole run is over, so if the JVM is killed partway through, there
+ * is nothing to import.  Run TestNG with -listener com.github.redhatqe.polarize.junitreporter.JournalListener (next to
+ * the -reporter) to also get a journal of the results, which {@link JournalReplay} can turn into the same xunit file
+ * for the XUnit Importer at any time, even for a run that never finished.
+ *
+ * The journal is written to the file given by -Dpolarize.journal, or else to polarize-journal.jsonl in the TestNG
+ * output directory.  It is started fresh for every run.  Like XUnitReporter, only methods in the mapping file are
+ * recorded.
+ */
+public class JournalListener implements ITestListener {
+    private static final Logger logger = LoggerFactory.getLogger(JournalListener.class);
+    public static final String pathProperty = "polarize.journal";
+    public static final String defaultName = "polarize-journal.jsonl";
+
+    private ResultJournal journal = null;
+    private MappingLookup mapping = null;
+    private String project = null;
+    private Boolean failed = false;
+
+    /**
+     * @param ctx context of the first <test>
+     * @return the journal, which is opened on first use
+     */
+    private synchronized Optional<ResultJournal> getJournal(ITestContext ctx) {
+        if (this.journal != null)
+            return Optional.of(this.journal);
+        if (this.failed)
+            return Optional.empty();
+        // Only open the journal once the mapping is loaded, so that a journal is never used without a mapping.  If
+        // either fails, nothing is journaled for the rest of the run
+        MappingLookup lookup;
+        try {
+            lookup = XUnitReporter.loadMapping();
+        } catch (MappingError e) {
+            e.printStackTrace();
+            this.failed = true;
+            return Optional.empty();
+        }
+
+        String path = System.getProperty(pathProperty);
+        if (path == null) {
+            File suiteDir = new File(ctx.getSuite().getOutputDirectory());
+            File outDir = suiteDir.getParentFile() == null ? suiteDir : suiteDir.getParentFile();
+            path = new File(outDir, defaultName).getPath();
+        }
+        ResultJournal opened;
+        try {
+            opened = new ResultJournal(new File(path), false);
+        } catch (IOException e) {
+            e.printStackTrace();
+            this.failed = true;
+            return Optional.empty();
+        }
+        this.mapping = lookup;
+        this.project = XUnitReporter.getProject();
+        this.journal = opened;
+        Runtime.getRuntime().addShutdownHook(new Thread(opened::close, "polarize-journal-shutdown"));
+        logger.info(String.format("Writing the result journal to %s", path));
+        return Optional.of(this.journal);
+    }
+
+    @Override
+    public void onStart(ITestContext ctx) {
+        this.getJournal(ctx).ifPresent(j -> {
+            ObjectNode rec = ResultJournal.record(ResultJournal.START, ctx.getName());
+            rec.put("time", ctx.getStartDate().getTime());
+            j.append(rec);
+        });
+    }
+
+    @Override
+    public void onFinish(ITestContext ctx) {
+        this.getJournal(ctx).ifPresent(j -> {
+            ObjectNode rec = ResultJournal.record(ResultJournal.FINISH, ctx.getName());
+            rec.put("time", ctx.getEndDate().getTime());
+            rec.put("failed", ctx.getFailedTests().size());
+            rec.put("skipped", ctx.getSkippedTests().size());
+            rec.put("methods", ctx.getAllTestMethods().length);
+            j.append(rec);
+            j.sync();
+        });
+    }
+
+    @Override
+    public void onTestStart(ITestResult result) {
+    }
+
+    @Override
+    public void onTestSuccess(ITestResult result) {
+        this.record(result);
+    }
+
+    @Override
+    public void onTestFailure(ITestResult result) {
+        this.record(result);
+    }
+
+    @Override
+    public void onTestSkipped(ITestResult result) {
+        this.record(result);
+    }
+
+    @Override
+    public void onTestFailedButWithinSuccessPercentage(ITestResult result) {
+        this.record(result);
+    }
+
+    private void record(ITestResult result) {
+        if (!result.getMethod().isTest())
+            return;
+        Optional<ResultJournal> maybe = this.getJournal(result.getTestContext());
+        if (!maybe.isPresent())
+            return;
+
+        String qual = String.format("%s.%s", result.getMethod().getTestClass().getName(),
+                result.getMethod().getMethodName());
+        Optional<IdParams> ip = this.mapping.get(qual, this.project);
+        if (!ip.isPresent()) {
+            logger.warn(String.format("%s does not exist in mapping file for Project %s", qual, this.project));
+            return;
+        }
+
+        ObjectNode rec = ResultJournal.record(ResultJournal.RESULT, result.getTestContext().getName());
+        rec.put("qual", qual);
+        rec.put("status", result.getStatus());
+        rec.put("error", XUnitReporter.isError(result));
+        rec.put("start", result.getStartMillis());
+        rec.put("end", result.getEndMillis());
+        rec.put("id", ip.get().getId());
+        try {
+            rec.set("testcase", ResultJournal.toJson(XUnitReporter.createTestcase(result, ip.get())));
+        } catch (MappingError e) {
+            logger.error(String.format("Not recording %s since its parameters do not match the mapping file", qual));
+            return;
+        }
+        maybe.get().append(rec);
+    }
+}
@@ -0,0 +1,190 @@
+package com.github.redhatqe.polarize.junitreporter;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.redhatqe.polarize.importer.xunit.Testsuite;
+import com.github.redhatqe.polarize.importer.xunit.Testsuites;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Renders a journal written by {@link JournalListener} into an xunit file for the XUnit Importer
+ *
+ * The xunit file is the same one XUnitReporter would have generated: a <testsuite> per <test> with the same counts,
+ * and a <testcase> per recorded result.  A <test> which did not finish (eg the JVM was killed) still gets a
+ * <testsuite> with what was recorded for it, counted from the results themselves.
+ *
+ * The journal is read once, counting the results and copying the testcase of every result into a temporary spool file.
+ * Only the offset and length of each testcase in the spool file are kept per <test>, and the testcases are read back
+ * from there one at a time when their <testsuite> is written, so the testcases are never all held in memory.
+ */
+public class JournalReplay {
+    private static final Logger logger = LoggerFactory.getLogger(JournalReplay.class);
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    /**
+     * What is known about a <test> after the first pass over the journal
+     */
+    private static class TestSummary {
+        final String name;
+        final FullResult fr = new FullResult();
+        final Set<String> methods = new HashSet<>();
+        long start = -1;
+        long end = -1;
+        int failed = 0;
+        int skipped = 0;
+        JsonNode finish = null;
+        // where the testcases of this <test> are in the spool file
+        long[] offsets = new long[16];
+        int[] lengths = new int[16];
+        int spooled = 0;
+
+        TestSummary(String name) {
+            this.name = name;
+        }
+
+        void spooled(long offset, int length) {
+            if (this.spooled == this.offsets.length) {
+                this.offsets = Arrays.copyOf(this.offsets, this.spooled * 2);
+                this.lengths = Arrays.copyOf(this.lengths, this.spooled * 2);
+            }
+            this.offsets[this.spooled] = offset;
+            this.lengths[this.spooled] = length;
+            this.spooled++;
+        }
+    }
+
+    /**
+     * @param journal the journal to render
+     * @param reportPath where to write the xunit file
+     * @return the counts of all the testsuites that were written
+     * @throws IOException if the journal could not be read
+     */
+    public static FullResult render(File journal, File reportPath) throws IOException {
+        Path spool = Files.createTempFile("polarize-replay", ".jsonl");
+        try {
+            return JournalReplay.render(journal, reportPath, spool);
+        } finally {
+            Files.deleteIfExists(spool);
+        }
+    }
+
+    private static FullResult render(File journal, File reportPath, Path spool) throws IOException {
+        Map<String, TestSummary> tests = new LinkedHashMap<>();
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(spool))) {
+            long[] position = {0};
+            ResultJournal.read(journal, rec -> {
+                String test = rec.path("test").asText();
+                TestSummary sum = tests.computeIfAbsent(test, TestSummary::new);
+                switch (rec.path("type").asText()) {
+                    case ResultJournal.START:
+                        sum.start = rec.path("time").asLong();
+                        break;
+                    case ResultJournal.FINISH:
+                        sum.finish = rec;
+                        sum.end = rec.path("time").asLong();
+                        break;
+                    case ResultJournal.RESULT:
+                        int status = rec.path("status").asInt();
+                        String qual = rec.path("qual").asText();
+                        sum.fr.tally(status, rec.path("error").asBoolean(), qual);
+                        sum.fr.classname = qual.substring(0, Math.max(0, qual.lastIndexOf('.')));
+                        sum.methods.add(qual);
+                        if (status == org.testng.ITestResult.FAILURE)
+                            sum.failed++;
+                        else if (status == org.testng.ITestResult.SKIP)
+                            sum.skipped++;
+                        if (sum.start < 0)
+                            sum.start = rec.path("start").asLong();
+                        if (sum.finish == null)
+                            sum.end = Math.max(sum.end, rec.path("end").asLong());
+                        try {
+                            byte[] tc = mapper.writeValueAsBytes(rec.path("testcase"));
+                            out.write(tc);
+                            sum.spooled(position[0], tc.length);
+                            position[0] += tc.length;
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                        break;
+                    default:
+                        logger.warn(String.format("Unknown record type in %s", journal));
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        Testsuites tsuites = XUnitReporter.initTestSuiteInfo();
+        try (FileChannel spooled = FileChannel.open(spool, StandardOpenOption.READ);
+             XUnitWriter writer = new XUnitWriter(reportPath)) {
+            writer.startTestsuites(tsuites);
+            for (TestSummary sum : tests.values()) {
+                if (sum.fr.total == 0)
+                    continue;  // Like XUnitReporter, skip a <test> without any results
+                if (sum.finish == null)
+                    logger.warn(String.format("%s did not finish, rendering the %d results it has", sum.name,
+                            sum.fr.total));
+
+                Testsuite ts = new Testsuite();
+                ts.setName(sum.name);
+                ts.setTime(Double.toString(Math.max(0, sum.end - sum.start) / 1000.0));
+                if (sum.finish != null)
+                    sum.fr.setSuiteCounts(ts, sum.finish.path("failed").asInt(), sum.finish.path("skipped").asInt(),
+                            sum.finish.path("methods").asInt());
+                else
+                    sum.fr.setSuiteCounts(ts, sum.failed, sum.skipped, sum.methods.size());
+                tsuites.getTestsuite().add(ts);
+
+                writer.startTestsuite(ts);
+                for (int i = 0; i < sum.spooled; i++) {
+                    ByteBuffer buf = ByteBuffer.allocate(sum.lengths[i]);
+                    long offset = sum.offsets[i];
+                    while (buf.hasRemaining())
+                        if (spooled.read(buf, offset + buf.position()) < 0)
+                            throw new EOFException(String.format("%s is truncated", spool));
+                    writer.writeTestcase(ResultJournal.toTestcase(mapper.readTree(buf.array())));
+                }
+                writer.endTestsuite();
+            }
+            writer.finish();
+        }
+        return FullResult.fromSuites(tsuites);
+    }
+
+    /**
+     * Program to render a journal into an xunit file
+     *
+     * @param args --journal path to the journal, --output path of the xunit file (defaults to testng-polarion.xml
+     *             next to the journal)
+     */
+    public static void main(String[] args) throws IOException {
+        OptionParser parser = new OptionParser();
+        OptionSpec<String> journalOpt = parser.accepts("journal").withRequiredArg().ofType(String.class).required();
+        OptionSpec<String> outputOpt = parser.accepts("output").withRequiredArg().ofType(String.class);
+
+        OptionSet opts = parser.parse(args);
+        File journal = new File(opts.valueOf(journalOpt));
+        File output;
+        if (opts.has(outputOpt))
+            output = new File(opts.valueOf(outputOpt));
+        else
+            output = new File(journal.getAbsoluteFile().getParentFile(), "testng-polarion.xml");
+
+        FullResult results = JournalReplay.render(journal, output);
+        System.out.println(String.format("Error: %d, Failures: %d, Success: %d, Skips: %d", results.errors,
+                results.fails, results.passes, results.skips));
+        logger.info(String.format("Wrote %s", output));
+    }
+}
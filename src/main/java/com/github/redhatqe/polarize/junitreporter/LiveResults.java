@@ -0,0 +1,115 @@
+package com.github.redhatqe.polarize.junitreporter;
+
+import com.github.redhatqe.polarize.IdParams;
+import com.github.redhatqe.polarize.mapping.MappingLookup;
+import com.github.redhatqe.polarize.utils.Tuple;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.ITestNGMethod;
+import org.testng.ITestResult;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The results of a run, grouped by suite, <test> and class as the tests finish
+ *
+ * This is what XUnitReporter.getMethodInfo builds after the run from every invoked method, but built up while the
+ * tests run, from whichever TestNG thread finished the test.  Apart from loading the mapping once, nothing here takes
+ * a lock: the maps are ConcurrentHashMaps, the counts a {@link ConcurrentFullResult} per class and the results a
+ * lock-free queue per class.  Once the suite is done, {@link #forSuite(String)} only has to snapshot the counts of
+ * each class.
+ */
+public class LiveResults {
+    private static final Logger logger = LoggerFactory.getLogger(LiveResults.class);
+    private final Map<String, Map<String, Map<String, ClassResults>>> suites = new ConcurrentHashMap<>();
+    private final File badMethods;
+    private volatile MappingLookup mapping = null;
+    private volatile String project = null;
+
+    /**
+     * The counts and results of one class
+     */
+    private static class ClassResults {
+        final ConcurrentFullResult counts;
+        final Queue<Tuple<ITestResult, IdParams>> results = new ConcurrentLinkedQueue<>();
+
+        ClassResults(String classname) {
+            this.counts = new ConcurrentFullResult(classname);
+        }
+    }
+
+    /**
+     * @param badMethods file where methods missing from the mapping file are written
+     */
+    public LiveResults(File badMethods) {
+        this.badMethods = badMethods;
+    }
+
+    /**
+     * The mapping is loaded once, by whichever thread records the first result
+     */
+    private MappingLookup getMapping() {
+        MappingLookup m = this.mapping;
+        if (m == null) {
+            synchronized (this) {
+                if (this.mapping == null) {
+                    // Start this run's list of bad methods, since it is written while the tests run
+                    if (this.badMethods.exists() && !this.badMethods.delete())
+                        logger.warn(String.format("Could not delete %s", this.badMethods));
+                    this.project = XUnitReporter.getProject();
+                    this.mapping = XUnitReporter.loadMapping();
+                }
+                m = this.mapping;
+            }
+        }
+        return m;
+    }
+
+    /**
+     * Counts a finished test, and keeps it for its testcase.  Methods which are not in the mapping file are skipped.
+     *
+     * @param result result of a test method (never of a configuration method)
+     */
+    public void record(ITestResult result) {
+        ITestNGMethod fn = result.getMethod();
+        if (!fn.isTest())
+            return;
+
+        MappingLookup index = this.getMapping();
+        String classname = fn.getTestClass().getName();
+        String qual = String.format("%s.%s", classname, fn.getMethodName());
+        Map<String, IdParams> inner = index.getMethod(qual);
+        if (!XUnitReporter.checkMethInMapping(inner, qual, this.project, this.badMethods))
+            return;
+
+        String suite = result.getTestContext().getSuite().getName();
+        String test = result.getTestContext().getName();
+        ClassResults cr = this.suites.computeIfAbsent(suite, s -> new ConcurrentHashMap<>())
+                .computeIfAbsent(test, t -> new ConcurrentHashMap<>())
+                .computeIfAbsent(classname, ClassResults::new);
+        cr.counts.tally(result.getStatus(), XUnitReporter.isError(result), qual);
+        cr.results.add(new Tuple<>(result, inner.get(this.project)));
+    }
+
+    /**
+     * @return true if any result was recorded, ie if TestNG is calling this as a listener
+     */
+    public Boolean isLive() {
+        return !this.suites.isEmpty();
+    }
+
+    /**
+     * @param suite name of the suite
+     * @return the index of the results of the suite, like getMethodInfo
+     */
+    public ResultIndex forSuite(String suite) {
+        ResultIndex index = new ResultIndex();
+        this.suites.getOrDefault(suite, Collections.emptyMap()).forEach((test, classes) ->
+                classes.forEach((cls, cr) ->
+                        index.put(test, cls, new ResultIndex.Bucket(cr.counts.snapshot(), cr.results))));
+        return index;
+    }
+}
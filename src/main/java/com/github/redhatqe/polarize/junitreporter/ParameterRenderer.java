@@ -0,0 +1,158 @@
+package com.github.redhatqe.polarize.junitreporter;
+
+import com.github.redhatqe.polarize.importer.xunit.Property;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Renders the arguments of a data provider iteration into the polarion-parameter-* properties of a testcase
+ *
+ * Every iteration of a data provider test used to get new property names, new Property objects and a fresh toString()
+ * of each of its arguments, however big.  Instead:
+ * - the property names are built once per method
+ * - an adapter can be registered for a type whose toString() is expensive or huge (see {@link #register})
+ * - the values are truncated to polarize.param.maxLength chars, 0 for no limit (default 1024)
+ * - a Property with the same name and value as an earlier one is handed out again, for up to
+ *   polarize.param.cacheSize distinct properties (default 4096)
+ *
+ * The Property objects may therefore be shared by several testcases, and must not be modified.
+ */
+public class ParameterRenderer {
+    public static final String maxLengthProperty = "polarize.param.maxLength";
+    public static final String cacheSizeProperty = "polarize.param.cacheSize";
+    public static final String prefix = "polarion-parameter-";
+    public static final String ellipsis = "...";
+
+    private static final int maxLength = Integer.getInteger(maxLengthProperty, 1024);
+    private static final int cacheSize = Integer.getInteger(cacheSizeProperty, 4096);
+
+    private static final Map<String, String[]> names = new ConcurrentHashMap<>();
+    private static final Map<Class<?>, Function<Object, String>> adapters = new ConcurrentHashMap<>();
+    private static final Map<Class<?>, Function<Object, String>> resolved = new ConcurrentHashMap<>();
+    private static final Map<String, Map<String, Property>> properties = new ConcurrentHashMap<>();
+    private static final AtomicLong cached = new AtomicLong();
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong truncated = new AtomicLong();
+
+    static {
+        ParameterRenderer.register(String.class, s -> s);
+        // The default toString() of an array is its identity hash, which is useless as an iteration value
+        ParameterRenderer.register(Object[].class, Arrays::deepToString);
+        ParameterRenderer.register(int[].class, Arrays::toString);
+        ParameterRenderer.register(long[].class, Arrays::toString);
+        ParameterRenderer.register(double[].class, Arrays::toString);
+        ParameterRenderer.register(boolean[].class, Arrays::toString);
+        ParameterRenderer.register(byte[].class, b -> String.format("byte[%d]", b.length));
+        ParameterRenderer.register(char[].class, String::new);
+    }
+
+    /**
+     * Registers how to render the arguments of a type (and of its subtypes, unless they have their own adapter)
+     *
+     * @param type the type of the argument
+     * @param adapter renders an argument of the type
+     * @param <T> the type of the argument
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> void register(Class<T> type, Function<? super T, String> adapter) {
+        adapters.put(type, o -> adapter.apply((T) o));
+        resolved.clear();
+    }
+
+    /**
+     * @param qual qualified name of the method
+     * @param args the parameter names of the method from the mapping file
+     * @return the property names for the parameters, built once per method
+     */
+    public static String[] names(String qual, List<String> args) {
+        String[] cachedNames = names.get(qual);
+        if (cachedNames != null && cachedNames.length == args.size())
+            return cachedNames;
+        String[] built = args.stream().map(a -> (prefix + a).intern()).toArray(String[]::new);
+        names.put(qual, built);
+        return built;
+    }
+
+    /**
+     * @param param an argument of the method
+     * @return the argument as a string, truncated to polarize.param.maxLength
+     */
+    public static String render(Object param) {
+        if (param == null)
+            return "null";
+        Function<Object, String> adapter = resolved.computeIfAbsent(param.getClass(), ParameterRenderer::resolve);
+        String value = adapter.apply(param);
+        if (value == null)
+            return "null";
+        if (maxLength > 0 && value.length() > maxLength) {
+            truncated.incrementAndGet();
+            value = value.substring(0, maxLength) + ellipsis;
+        }
+        return value;
+    }
+
+    /**
+     * Finds the adapter of the closest registered superclass (or interface) of cls, or else toString()
+     */
+    private static Function<Object, String> resolve(Class<?> cls) {
+        if (cls.isArray() && !cls.getComponentType().isPrimitive() && !adapters.containsKey(cls))
+            return adapters.get(Object[].class);
+        for (Class<?> c = cls; c != null; c = c.getSuperclass()) {
+            Function<Object, String> adapter = adapters.get(c);
+            if (adapter != null)
+                return adapter;
+            for (Class<?> iface : c.getInterfaces()) {
+                adapter = adapters.get(iface);
+                if (adapter != null)
+                    return adapter;
+            }
+        }
+        return Object::toString;
+    }
+
+    /**
+     * @param name name of the property
+     * @param value value of the property
+     * @return a Property with name and value, which is shared with earlier calls of the same name and value
+     */
+    public static Property property(String name, String value) {
+        Map<String, Property> byValue = properties.computeIfAbsent(name, n -> new ConcurrentHashMap<>());
+        Property prop = byValue.get(value);
+        if (prop != null) {
+            hits.incrementAndGet();
+            return prop;
+        }
+        prop = new Property();
+        prop.setName(name);
+        prop.setValue(value);
+        if (cached.get() >= cacheSize)
+            return prop;
+        Property prev = byValue.putIfAbsent(value, prop);
+        if (prev != null)
+            return prev;
+        cached.incrementAndGet();
+        return prop;
+    }
+
+    /**
+     * @param qual qualified name of the method
+     * @param args the parameter names of the method from the mapping file
+     * @param params the arguments of the iteration, as many as args
+     * @return the polarion-parameter-* properties of the iteration
+     */
+    public static List<Property> render(String qual, List<String> args, Object[] params) {
+        String[] keys = ParameterRenderer.names(qual, args);
+        List<Property> props = new ArrayList<>(params.length);
+        for (int x = 0; x < params.length; x++)
+            props.add(ParameterRenderer.property(keys[x], ParameterRenderer.render(params[x])));
+        return props;
+    }
+
+    public static String stats() {
+        return String.format("Parameter properties reused/cached: %d/%d, values truncated: %d", hits.get(),
+                cached.get(), truncated.get());
+    }
+}
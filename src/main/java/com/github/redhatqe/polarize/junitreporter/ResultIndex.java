@@ -0,0 +1,96 @@
+package com.github.redhatqe.polarize.junitreporter;
+
+import com.github.redhatqe.polarize.IdParams;
+import com.github.redhatqe.polarize.utils.Tuple;
+import org.testng.ITestResult;
+import org.testng.xml.XmlClass;
+import org.testng.xml.XmlTest;
+
+import java.util.*;
+
+/**
+ * The results of a suite, indexed by <test> and then by class
+ *
+ * The index is built once per suite (by XUnitReporter.getMethodInfo, or from {@link LiveResults}), and then each
+ * <test> of the suite.xml is looked up by name, so resolving a <test> only costs as much as the classes in it.  Since
+ * the results are keyed by the <test> they ran in, a class that is listed in several <test> elements only shows up in
+ * the <testsuite> of the <test> it actually ran in.
+ */
+public class ResultIndex {
+    private final Map<String, Map<String, Bucket>> tests = new HashMap<>();
+
+    /**
+     * The counts and the results of one class (or of all the classes of a <test>, once resolved)
+     */
+    public static class Bucket {
+        public final FullResult counts;
+        public final Collection<Tuple<ITestResult, IdParams>> results;
+
+        public Bucket(FullResult counts, Collection<Tuple<ITestResult, IdParams>> results) {
+            this.counts = counts;
+            this.results = results;
+        }
+    }
+
+    /**
+     * @param test name of the <test>
+     * @param classname name of the class
+     * @return the bucket for the class, created (empty) if need be
+     */
+    public Bucket bucket(String test, String classname) {
+        return this.tests.computeIfAbsent(test, t -> new LinkedHashMap<>())
+                .computeIfAbsent(classname, c -> {
+                    FullResult fr = new FullResult();
+                    fr.classname = c;
+                    return new Bucket(fr, new ArrayList<>());
+                });
+    }
+
+    /**
+     * @param test name of the <test>
+     * @param classname name of the class
+     * @param bucket the already filled in bucket of the class
+     */
+    public void put(String test, String classname, Bucket bucket) {
+        this.tests.computeIfAbsent(test, t -> new LinkedHashMap<>()).put(classname, bucket);
+    }
+
+    /**
+     * Gets the results of all the classes of a <test>
+     *
+     * The classes are taken in the order of the suite.xml, followed by any other class that ran in the <test> (eg
+     * from a <packages> element).  A <test> with a single class gets the bucket of that class as is, otherwise the
+     * counts are added up and the results put one after the other.
+     *
+     * @param test name of the <test>
+     * @param xt the <test> from the suite.xml
+     * @return the results of the <test>, or empty if none of its methods were in the mapping file
+     */
+    public Optional<Bucket> resolve(String test, XmlTest xt) {
+        Map<String, Bucket> classes = this.tests.get(test);
+        if (classes == null || classes.isEmpty())
+            return Optional.empty();
+        if (classes.size() == 1)
+            return Optional.of(classes.values().iterator().next());
+
+        List<Bucket> ordered = new ArrayList<>(classes.size());
+        Set<String> seen = new HashSet<>();
+        for (XmlClass xc : xt.getClasses()) {
+            Bucket b = classes.get(xc.getName());
+            if (b != null && seen.add(xc.getName()))
+                ordered.add(b);
+        }
+        classes.forEach((cls, b) -> {
+            if (seen.add(cls))
+                ordered.add(b);
+        });
+
+        FullResult counts = new FullResult();
+        List<Tuple<ITestResult, IdParams>> results = new ArrayList<>();
+        for (Bucket b : ordered) {
+            counts = counts.add(b.counts);
+            results.addAll(b.results);
+        }
+        return Optional.of(new Bucket(counts, results));
+    }
+}
@@ -0,0 +1,233 @@
+package com.github.redhatqe.polarize.junitreporter;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.redhatqe.polarize.importer.xunit.*;
+import com.github.redhatqe.polarize.importer.xunit.Error;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * An append-only file of test results, one JSON object per line
+ *
+ * Every line is handed to the OS as soon as it is written, so a killed JVM loses nothing.  Since forcing every line to
+ * disk would slow down fast tests, the file is only fsync'ed every polarize.journal.syncEvery records (default 50) or
+ * polarize.journal.syncMillis ms (default 1000), whichever comes first, and when the journal is synced or closed
+ * explicitly.  So if the machine itself goes down, at most the last batch is lost.  A torn last line is skipped by
+ * {@link #read(File, Consumer)}.
+ *
+ * There are 3 kinds of records, told apart by their "type":
+ * - start: a <test> was started (test, time)
+ * - result: a test method finished (test, qual, status, error, start, end, id, testcase)
+ * - finish: a <test> finished (test, time, failed, skipped, methods), with the counts as TestNG has them
+ */
+public class ResultJournal implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(ResultJournal.class);
+    public static final String syncEveryProperty = "polarize.journal.syncEvery";
+    public static final String syncMillisProperty = "polarize.journal.syncMillis";
+    public static final String START = "start";
+    public static final String RESULT = "result";
+    public static final String FINISH = "finish";
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final File path;
+    private final FileOutputStream fos;
+    private final Writer writer;
+    private final int syncEvery = Integer.getInteger(syncEveryProperty, 50);
+    private final long syncMillis = Long.getLong(syncMillisProperty, 1000L);
+    private int pending = 0;
+    private long lastSync = System.currentTimeMillis();
+    private Boolean closed = false;
+
+    /**
+     * @param path file of the journal
+     * @param append if false, an existing journal is truncated
+     * @throws IOException if the file could not be opened
+     */
+    public ResultJournal(File path, Boolean append) throws IOException {
+        this.path = path;
+        File dir = path.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.exists() && !dir.mkdirs())
+            throw new IOException("Could not create " + dir);
+        this.fos = new FileOutputStream(path, append);
+        this.writer = new BufferedWriter(new OutputStreamWriter(this.fos, StandardCharsets.UTF_8));
+    }
+
+    public File getPath() {
+        return this.path;
+    }
+
+    public static ObjectNode record(String type, String test) {
+        ObjectNode node = mapper.createObjectNode();
+        node.put("type", type);
+        node.put("test", test);
+        return node;
+    }
+
+    /**
+     * Writes a record, and syncs if the batch is full or the last sync was too long ago
+     *
+     * @param record the record to write
+     */
+    public synchronized void append(ObjectNode record) {
+        if (this.closed)
+            return;
+        try {
+            this.writer.write(mapper.writeValueAsString(record));
+            this.writer.write('\n');
+            this.writer.flush();
+            this.pending++;
+            if (this.pending >= this.syncEvery || System.currentTimeMillis() - this.lastSync >= this.syncMillis)
+                this.sync();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Flushes the written records and forces them to disk
+     */
+    public synchronized void sync() {
+        if (this.closed)
+            return;
+        try {
+            this.writer.flush();
+            this.fos.getFD().sync();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        this.pending = 0;
+        this.lastSync = System.currentTimeMillis();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (this.closed)
+            return;
+        this.sync();
+        this.closed = true;
+        try {
+            this.writer.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Reads the records of a journal one at a time
+     *
+     * A line that can not be parsed (eg the last one, if the JVM died while writing it) is skipped.
+     *
+     * @param path file of the journal
+     * @param consumer called with each record
+     * @throws IOException if the journal could not be read
+     */
+    public static void read(File path, Consumer<ObjectNode> consumer) throws IOException {
+        try (BufferedReader rdr = new BufferedReader(new InputStreamReader(new FileInputStream(path),
+                StandardCharsets.UTF_8))) {
+            String line;
+            int lineNo = 0;
+            while ((line = rdr.readLine()) != null) {
+                lineNo++;
+                if (line.trim().isEmpty())
+                    continue;
+                JsonNode node;
+                try {
+                    node = mapper.readTree(line);
+                } catch (IOException e) {
+                    logger.warn(String.format("Skipping unreadable line %d of %s", lineNo, path));
+                    continue;
+                }
+                if (node instanceof ObjectNode)
+                    consumer.accept((ObjectNode) node);
+            }
+        }
+    }
+
+    /**
+     * @param tc the Testcase to record
+     * @return the Testcase as JSON
+     */
+    public static ObjectNode toJson(Testcase tc) {
+        ObjectNode node = mapper.createObjectNode();
+        node.put("name", tc.getName());
+        node.put("classname", tc.getClassname());
+        node.put("time", tc.getTime());
+        if (tc.getStatus() != null)
+            node.put("status", tc.getStatus());
+        if (tc.getSkipped() != null)
+            node.put("skipped", tc.getSkipped());
+        ArrayNode errors = node.putArray("errors");
+        for (Error err : tc.getError()) {
+            ObjectNode e = errors.addObject();
+            e.put("type", err.getType());
+            e.put("message", err.getMessage());
+            e.put("content", err.getContent());
+        }
+        ArrayNode failures = node.putArray("failures");
+        for (Failure fail : tc.getFailure()) {
+            ObjectNode f = failures.addObject();
+            f.put("type", fail.getType());
+            f.put("message", fail.getMessage());
+            f.put("content", fail.getContent());
+        }
+        ArrayNode props = node.putArray("properties");
+        if (tc.getProperties() != null) {
+            for (Property p : tc.getProperties().getProperty()) {
+                ObjectNode prop = props.addObject();
+                prop.put("name", p.getName());
+                prop.put("value", p.getValue());
+            }
+        }
+        return node;
+    }
+
+    /**
+     * @param node JSON from {@link #toJson(Testcase)}
+     * @return the Testcase
+     */
+    public static Testcase toTestcase(JsonNode node) {
+        Testcase tc = new Testcase();
+        tc.setName(ResultJournal.text(node, "name"));
+        tc.setClassname(ResultJournal.text(node, "classname"));
+        tc.setTime(ResultJournal.text(node, "time"));
+        tc.setStatus(ResultJournal.text(node, "status"));
+        tc.setSkipped(ResultJournal.text(node, "skipped"));
+        node.path("errors").forEach(e -> {
+            Error err = new Error();
+            err.setType(ResultJournal.text(e, "type"));
+            err.setMessage(ResultJournal.text(e, "message"));
+            err.setContent(ResultJournal.text(e, "content"));
+            tc.getError().add(err);
+        });
+        node.path("failures").forEach(f -> {
+            Failure fail = new Failure();
+            fail.setType(ResultJournal.text(f, "type"));
+            fail.setMessage(ResultJournal.text(f, "message"));
+            fail.setContent(ResultJournal.text(f, "content"));
+            tc.getFailure().add(fail);
+        });
+        if (node.path("properties").size() > 0) {
+            Properties props = new Properties();
+            node.path("properties").forEach(p -> {
+                Property prop = new Property();
+                prop.setName(ResultJournal.text(p, "name"));
+                prop.setValue(ResultJournal.text(p, "value"));
+                props.getProperty().add(prop);
+            });
+            tc.setProperties(props);
+        }
+        return tc;
+    }
+
+    private static String text(JsonNode node, String field) {
+        JsonNode n = node.get(field);
+        return n == null || n.isNull() ? null : n.asText();
+    }
+}
@@ -0,0 +1,143 @@
+package com.github.redhatqe.polarize.junitreporter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Renders the stack traces that go into the <error> elements of the xunit file
+ *
+ * A data provider test that fails the same way for every iteration used to get a freshly built copy of the same trace
+ * for each iteration.  Instead, traces are fingerprinted by their frames, and a trace that was already rendered is
+ * handed out again as the same String.  To keep the upload small, the rendered trace can also be capped and runs of
+ * a repeated frame (eg from recursion) collapsed.  These system properties control it:
+ *
+ * - polarize.trace.maxFrames: max number of frames to render, 0 for all (default 100)
+ * - polarize.trace.maxBytes: max size of a rendered trace in bytes, 0 for no limit (default 16384)
+ * - polarize.trace.collapse: collapse consecutive identical frames into one line (default true)
+ * - polarize.trace.cacheSize: max number of distinct traces to remember (default 1024)
+ */
+public class StackTraces {
+    public static final String maxFramesProperty = "polarize.trace.maxFrames";
+    public static final String maxBytesProperty = "polarize.trace.maxBytes";
+    public static final String collapseProperty = "polarize.trace.collapse";
+    public static final String cacheSizeProperty = "polarize.trace.cacheSize";
+    public static final int maxMessage = 128;
+
+    private static final int maxFrames = Integer.getInteger(maxFramesProperty, 100);
+    private static final int maxBytes = Integer.getInteger(maxBytesProperty, 16384);
+    private static final Boolean collapse = Boolean.parseBoolean(System.getProperty(collapseProperty, "true"));
+    private static final int cacheSize = Integer.getInteger(cacheSizeProperty, 1024);
+
+    private static final Map<Fingerprint, String> traces = new ConcurrentHashMap<>();
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    /**
+     * The identity of a trace: the frames, with the hash computed once
+     */
+    private static class Fingerprint {
+        private final StackTraceElement[] frames;
+        private final int hash;
+
+        Fingerprint(StackTraceElement[] frames) {
+            this.frames = frames;
+            this.hash = Arrays.hashCode(frames);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Fingerprint))
+                return false;
+            Fingerprint other = (Fingerprint) o;
+            return this.hash == other.hash && Arrays.equals(this.frames, other.frames);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+    }
+
+    /**
+     * @param t the throwable whose stack trace to render
+     * @return one frame per line, capped and collapsed as configured.  Identical traces return the same String.
+     */
+    public static String render(Throwable t) {
+        StackTraceElement[] frames = t.getStackTrace();
+        Fingerprint fp = new Fingerprint(frames);
+        String trace = traces.get(fp);
+        if (trace != null) {
+            hits.incrementAndGet();
+            return trace;
+        }
+        misses.incrementAndGet();
+        trace = StackTraces.render(frames);
+        if (traces.size() < cacheSize) {
+            String prev = traces.putIfAbsent(fp, trace);
+            if (prev != null)
+                trace = prev;
+        }
+        return trace;
+    }
+
+    private static String render(StackTraceElement[] frames) {
+        StringBuilder sb = new StringBuilder();
+        int bytes = 0;
+        int rendered = 0;
+        for (int i = 0; i < frames.length; i++) {
+            if (maxFrames > 0 && rendered >= maxFrames) {
+                sb.append(String.format("... %d more\n", frames.length - i));
+                break;
+            }
+
+            int repeats = 1;
+            if (collapse) {
+                while (i + repeats < frames.length && frames[i + repeats].equals(frames[i]))
+                    repeats++;
+            }
+            String line = frames[i].toString();
+            if (repeats > 1)
+                line += String.format(" [repeated %d times]", repeats);
+            line += "\n";
+
+            int size = line.getBytes(StandardCharsets.UTF_8).length;
+            if (maxBytes > 0 && bytes + size > maxBytes) {
+                sb.append(String.format("... %d more\n", frames.length - i));
+                break;
+            }
+            sb.append(line);
+            bytes += size;
+            rendered++;
+            i += repeats - 1;
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @param msg message of a throwable
+     * @return the first 128 characters of msg
+     */
+    public static String truncate(String msg) {
+        if (msg == null)
+            return null;
+        return msg.length() > maxMessage ? msg.substring(0, maxMessage) : msg;
+    }
+
+    public static long getHits() {
+        return hits.get();
+    }
+
+    public static long getMisses() {
+        return misses.get();
+    }
+
+    public static String stats() {
+        return String.format("Stack trace hits/misses: %d/%d, distinct traces cached: %d", hits.get(), misses.get(),
+                traces.size());
+    }
+}
@@ -0,0 +1,470 @@
+package com.github.redhatqe.polarize.junitreporter;
+
+import com.github.redhatqe.polarize.JAXBRegistry;
+import com.github.redhatqe.polarize.exceptions.InvalidArgument;
+import com.github.redhatqe.polarize.exceptions.XMLDescriptonCreationError;
+import com.github.redhatqe.polarize.importer.xunit.Properties;
+import com.github.redhatqe.polarize.importer.xunit.Property;
+import com.github.redhatqe.polarize.importer.xunit.Testsuite;
+import com.github.redhatqe.polarize.importer.xunit.Testsuites;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.ITestResult;
+
+import javax.xml.stream.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Merges the xunit files of several TestNG workers (eg one suite split across many JVMs) into one file for the XUnit
+ * Importer
+ *
+ * Testsuites with the same name are merged into one, and the top-level <properties> and attributes are taken from the
+ * first file.  A testcase is identified by its classname, name and properties (ie the Polarion ID and the parameters
+ * of the iteration).  If the same testcase is in more than one file (or more than once in a file), only one is kept:
+ * - RERUN: the last one, in the order the files were given (eg put the files of a rerun last)
+ * - WORST: the one with the worst status (error, then failure, then skipped, then passed), or the last one if tied
+ *
+ * The counts of each testsuite are recomputed from the testcases that were kept, the same way XUnitReporter does (see
+ * FullResult.setSuiteCounts):
+ * errors is the number of methods with an error, failures the number of failed iterations minus the errors, skipped
+ * the number of skipped iterations and tests the number of methods.  The time is the longest of the merged suites,
+ * since the workers run at the same time.
+ *
+ * The files are read with StAX twice.  The first pass only keeps a 64 bit fingerprint and the status of every
+ * testcase, so memory grows with the number of distinct testcases but not with their size (eg their stack traces).
+ * The second pass copies the testcases that were kept into a temporary fragment file per input file and testsuite,
+ * with only one fragment open at a time, and the fragments of each testsuite are then copied into the merged file.
+ */
+public class XUnitMerger {
+    private static final Logger logger = LoggerFactory.getLogger(XUnitMerger.class);
+    private static final XMLOutputFactory outputFactory = XMLOutputFactory.newFactory();
+
+    public enum Strategy {
+        RERUN,
+        WORST
+    }
+
+    // ranks of the testcase statuses, higher is worse
+    private static final int PASSED = 0;
+    private static final int SKIPPED = 1;
+    private static final int FAILED = 2;
+    private static final int ERROR = 3;
+
+    /**
+     * The testcase that is kept for a fingerprint
+     */
+    private static class Winner {
+        final int file;
+        final int ordinal;
+        final int status;
+        final int method;
+
+        Winner(int file, int ordinal, int status, int method) {
+            this.file = file;
+            this.ordinal = ordinal;
+            this.status = status;
+            this.method = method;
+        }
+    }
+
+    /**
+     * Everything known about a merged testsuite after the first pass
+     */
+    private static class Suite {
+        final String name;
+        final Map<Long, Winner> winners = new HashMap<>();
+        final Map<String, Integer> methods = new HashMap<>();
+        double time = 0.0;
+        int duplicates = 0;
+        final List<File> fragments = new ArrayList<>();
+
+        Suite(String name) {
+            this.name = name;
+        }
+
+        int methodId(String qual) {
+            return this.methods.computeIfAbsent(qual, k -> this.methods.size());
+        }
+    }
+
+    /**
+     * The testcase being read by the first pass
+     */
+    private static class Current {
+        String classname = "";
+        String name = "";
+        int status = PASSED;
+        final MessageDigest digest = XUnitMerger.sha256();
+    }
+
+    /**
+     * Merges xunit files into one
+     *
+     * @param inputs the xunit files, in order (see Strategy)
+     * @param output where to write the merged file
+     * @param strategy how to pick between duplicate testcases
+     * @return the counts of the merged file
+     */
+    public static FullResult merge(List<File> inputs, File output, Strategy strategy) {
+        if (inputs.isEmpty())
+            throw new InvalidArgument("No xunit files to merge");
+
+        Testsuites header = new Testsuites();
+        Map<String, Suite> suites = new LinkedHashMap<>();
+        for (int i = 0; i < inputs.size(); i++)
+            XUnitMerger.reconcile(inputs.get(i), i, i == 0 ? header : null, suites, strategy);
+
+        Path tmpDir;
+        try {
+            tmpDir = Files.createTempDirectory("polarize-merge");
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new XMLDescriptonCreationError();
+        }
+        try {
+            XUnitMerger.spool(inputs, suites, tmpDir);
+
+            Testsuites tsuites = new Testsuites();
+            try (XUnitWriter writer = new XUnitWriter(output)) {
+                writer.startTestsuites(header);
+                for (Suite suite : suites.values()) {
+                    Testsuite ts = XUnitMerger.count(suite);
+                    tsuites.getTestsuite().add(ts);
+                    writer.startTestsuite(ts);
+                    for (File fragment : suite.fragments)
+                        XUnitMerger.copyFragment(fragment, writer);
+                    writer.endTestsuite();
+                    if (suite.duplicates > 0)
+                        logger.info(String.format("Dropped %d duplicate testcases from %s", suite.duplicates,
+                                suite.name));
+                }
+                writer.finish();
+            }
+            return FullResult.fromSuites(tsuites);
+        } finally {
+            XUnitMerger.deleteAll(tmpDir);
+        }
+    }
+
+    /**
+     * First pass over a file: fingerprints every testcase and decides which ones are kept
+     *
+     * @param header if not null, gets the attributes and properties of the testsuites element
+     */
+    private static void reconcile(File input, int fileIdx, Testsuites header, Map<String, Suite> suites,
+                                  Strategy strategy) {
+        try (InputStream is = new BufferedInputStream(new FileInputStream(input))) {
+            XMLStreamReader rdr = JAXBRegistry.inputFactory().createXMLStreamReader(is);
+            int depth = 0;
+            Suite suite = null;
+            Current tc = null;
+            Map<String, Integer> ordinals = new HashMap<>();
+            while (rdr.hasNext()) {
+                int event = rdr.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    depth++;
+                    String name = rdr.getLocalName();
+                    if (depth == 1 && header != null) {
+                        header.setName(rdr.getAttributeValue(null, "name"));
+                        header.setTime(rdr.getAttributeValue(null, "time"));
+                        header.setDisabled(rdr.getAttributeValue(null, "disabled"));
+                    }
+                    else if (depth == 3 && suite == null && header != null && name.equals("property")) {
+                        if (header.getProperties() == null)
+                            header.setProperties(new Properties());
+                        Property p = new Property();
+                        p.setName(rdr.getAttributeValue(null, "name"));
+                        p.setValue(rdr.getAttributeValue(null, "value"));
+                        header.getProperties().getProperty().add(p);
+                    }
+                    else if (depth == 2 && name.equals("testsuite")) {
+                        String sname = rdr.getAttributeValue(null, "name");
+                        suite = suites.computeIfAbsent(sname, Suite::new);
+                        suite.time = Math.max(suite.time, XUnitMerger.parseTime(rdr.getAttributeValue(null, "time")));
+                    }
+                    else if (depth == 3 && suite != null && name.equals("testcase")) {
+                        tc = new Current();
+                        tc.classname = Optional.ofNullable(rdr.getAttributeValue(null, "classname")).orElse("");
+                        tc.name = Optional.ofNullable(rdr.getAttributeValue(null, "name")).orElse("");
+                        XUnitMerger.update(tc.digest, tc.classname, tc.name);
+                    }
+                    else if (depth == 4 && tc != null) {
+                        if (name.equals("error"))
+                            tc.status = Math.max(tc.status, ERROR);
+                        else if (name.equals("failure"))
+                            tc.status = Math.max(tc.status, FAILED);
+                        else if (name.equals("skipped"))
+                            tc.status = Math.max(tc.status, SKIPPED);
+                    }
+                    else if (depth == 5 && tc != null && name.equals("property"))
+                        XUnitMerger.update(tc.digest, rdr.getAttributeValue(null, "name"),
+                                rdr.getAttributeValue(null, "value"));
+                }
+                else if (event == XMLStreamConstants.END_ELEMENT) {
+                    if (depth == 3 && tc != null) {
+                        int ordinal = ordinals.merge(suite.name, 1, Integer::sum) - 1;
+                        long fp = ByteBuffer.wrap(tc.digest.digest()).getLong();
+                        int method = suite.methodId(tc.classname + "." + tc.name);
+                        Winner candidate = new Winner(fileIdx, ordinal, tc.status, method);
+                        Winner prev = suite.winners.get(fp);
+                        if (prev != null)
+                            suite.duplicates++;
+                        if (prev == null || strategy == Strategy.RERUN || candidate.status >= prev.status)
+                            suite.winners.put(fp, candidate);
+                        tc = null;
+                    }
+                    else if (depth == 2)
+                        suite = null;
+                    depth--;
+                }
+            }
+            rdr.close();
+        } catch (IOException | XMLStreamException e) {
+            e.printStackTrace();
+            throw new XMLDescriptonCreationError();
+        }
+    }
+
+    /**
+     * Second pass: copies the testcases that were kept into a fragment file per input file and testsuite
+     *
+     * A fragment is only created for a testsuite of a file that has kept testcases, and is closed at the end of the
+     * testsuite, so no matter how many testsuites there are only one fragment is open at a time.
+     */
+    private static void spool(List<File> inputs, Map<String, Suite> suites, Path tmpDir) {
+        int n = 0;
+        for (int i = 0; i < inputs.size(); i++) {
+            OutputStream os = null;
+            try (InputStream is = new BufferedInputStream(new FileInputStream(inputs.get(i)))) {
+                XMLStreamReader rdr = JAXBRegistry.inputFactory().createXMLStreamReader(is);
+                XMLStreamWriter w = null;
+                int depth = 0;
+                Suite suite = null;
+                Set<Integer> keep = Collections.emptySet();
+                Map<String, Set<Integer>> kept = new HashMap<>();
+                Map<String, Integer> ordinals = new HashMap<>();
+                while (rdr.hasNext()) {
+                    int event = rdr.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        depth++;
+                        if (depth == 2 && rdr.getLocalName().equals("testsuite")) {
+                            suite = suites.get(rdr.getAttributeValue(null, "name"));
+                            int file = i;
+                            keep = kept.computeIfAbsent(suite.name, k -> suites.get(k).winners.values().stream()
+                                    .filter(win -> win.file == file)
+                                    .map(win -> win.ordinal)
+                                    .collect(Collectors.toSet()));
+                            if (!keep.isEmpty()) {
+                                File fragment = tmpDir.resolve(String.format("fragment-%d.xml", n++)).toFile();
+                                suite.fragments.add(fragment);
+                                os = new BufferedOutputStream(new FileOutputStream(fragment));
+                                w = outputFactory.createXMLStreamWriter(os, "UTF-8");
+                                w.writeStartDocument("UTF-8", "1.0");
+                                w.writeStartElement("fragment");
+                            }
+                        }
+                        else if (depth == 3 && suite != null && rdr.getLocalName().equals("testcase")) {
+                            int ordinal = ordinals.merge(suite.name, 1, Integer::sum) - 1;
+                            if (keep.contains(ordinal))
+                                XUnitMerger.copy(rdr, w);
+                            else
+                                XUnitMerger.skip(rdr);
+                            depth--;
+                        }
+                    }
+                    else if (event == XMLStreamConstants.END_ELEMENT) {
+                        if (depth == 2) {
+                            if (w != null) {
+                                w.writeEndElement();
+                                w.writeEndDocument();
+                                w.close();
+                                os.close();
+                                w = null;
+                                os = null;
+                            }
+                            suite = null;
+                            keep = Collections.emptySet();
+                        }
+                        depth--;
+                    }
+                }
+                rdr.close();
+            } catch (IOException | XMLStreamException e) {
+                e.printStackTrace();
+                throw new XMLDescriptonCreationError();
+            } finally {
+                if (os != null) {
+                    try {
+                        os.close();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the testsuite (without testcases) with the counts recomputed from the testcases that were kept
+     */
+    private static Testsuite count(Suite suite) {
+        String[] quals = new String[suite.methods.size()];
+        suite.methods.forEach((qual, id) -> quals[id] = qual);
+
+        FullResult fr = new FullResult();
+        Set<Integer> methods = new HashSet<>();
+        int numFails = 0;
+        int numSkips = 0;
+        for (Winner w : suite.winners.values()) {
+            methods.add(w.method);
+            int status = ITestResult.SUCCESS;
+            if (w.status >= FAILED) {
+                status = ITestResult.FAILURE;
+                numFails++;
+            }
+            else if (w.status == SKIPPED) {
+                status = ITestResult.SKIP;
+                numSkips++;
+            }
+            fr.tally(status, w.status == ERROR, quals[w.method]);
+        }
+
+        Testsuite ts = new Testsuite();
+        ts.setName(suite.name);
+        ts.setTime(Double.toString(suite.time));
+        fr.setSuiteCounts(ts, numFails, numSkips, methods.size());
+        return ts;
+    }
+
+    private static void copyFragment(File fragment, XUnitWriter writer) {
+        try (InputStream is = new BufferedInputStream(new FileInputStream(fragment))) {
+            XMLStreamReader rdr = JAXBRegistry.inputFactory().createXMLStreamReader(is);
+            while (rdr.hasNext()) {
+                if (rdr.next() == XMLStreamConstants.START_ELEMENT && rdr.getLocalName().equals("testcase"))
+                    writer.copyTestcase(rdr);
+            }
+            rdr.close();
+        } catch (IOException | XMLStreamException e) {
+            e.printStackTrace();
+            throw new XMLDescriptonCreationError();
+        }
+    }
+
+    /**
+     * Copies the element the reader is on as is
+     */
+    private static void copy(XMLStreamReader rdr, XMLStreamWriter w) throws XMLStreamException {
+        int depth = 0;
+        do {
+            switch (rdr.getEventType()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    depth++;
+                    w.writeStartElement(rdr.getLocalName());
+                    for (int i = 0; i < rdr.getAttributeCount(); i++)
+                        w.writeAttribute(rdr.getAttributeLocalName(i), rdr.getAttributeValue(i));
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    w.writeCharacters(rdr.getText());
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    depth--;
+                    w.writeEndElement();
+                    break;
+                default:
+                    break;
+            }
+            if (depth > 0)
+                rdr.next();
+        } while (depth > 0);
+    }
+
+    /**
+     * Moves the reader past the element it is on
+     */
+    private static void skip(XMLStreamReader rdr) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = rdr.next();
+            if (event == XMLStreamConstants.START_ELEMENT)
+                depth++;
+            else if (event == XMLStreamConstants.END_ELEMENT)
+                depth--;
+        }
+    }
+
+    private static void update(MessageDigest digest, String... values) {
+        for (String v : values) {
+            byte[] bytes = (v == null ? "" : v).getBytes(StandardCharsets.UTF_8);
+            digest.update(ByteBuffer.allocate(4).putInt(bytes.length).array());
+            digest.update(bytes);
+        }
+    }
+
+    private static double parseTime(String time) {
+        try {
+            return time == null ? 0.0 : Double.parseDouble(time);
+        } catch (NumberFormatException e) {
+            return 0.0;
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void deleteAll(Path dir) {
+        File[] files = dir.toFile().listFiles();
+        if (files != null) {
+            for (File f : files) {
+                if (!f.delete())
+                    logger.warn(String.format("Could not delete %s", f));
+            }
+        }
+        if (!dir.toFile().delete())
+            logger.warn(String.format("Could not delete %s", dir));
+    }
+
+    /**
+     * Program to merge xunit files
+     *
+     * @param args --xunit for each file to merge (in order), --output for the merged file, and optionally
+     *             --strategy rerun|worst
+     */
+    public static void main(String[] args) {
+        OptionParser parser = new OptionParser();
+        OptionSpec<String> xunitOpt = parser.accepts("xunit").withRequiredArg().ofType(String.class).required();
+        OptionSpec<String> outputOpt = parser.accepts("output").withRequiredArg().ofType(String.class).required();
+        OptionSpec<String> strategyOpt = parser.accepts("strategy").withRequiredArg().ofType(String.class)
+                .defaultsTo("rerun");
+
+        OptionSet opts = parser.parse(args);
+        List<File> inputs = opts.valuesOf(xunitOpt).stream().map(File::new).collect(Collectors.toList());
+        Strategy strategy;
+        try {
+            strategy = Strategy.valueOf(opts.valueOf(strategyOpt).toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new InvalidArgument("--strategy must be rerun or worst");
+        }
+
+        FullResult results = XUnitMerger.merge(inputs, new File(opts.valueOf(outputOpt)), strategy);
+        System.out.println(String.format("Error: %d, Failures: %d, Success: %d, Skips: %d", results.errors,
+                results.fails, results.passes, results.skips));
+    }
+}
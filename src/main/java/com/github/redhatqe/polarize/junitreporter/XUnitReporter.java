@@ -3,28 +3,31 @@ package com.github.redhatqe.polarize.junitreporter;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
-import com.github.redhatqe.polarize.FileHelper;
 import com.github.redhatqe.polarize.IJAXBHelper;
 import com.github.redhatqe.polarize.IdParams;
-import com.github.redhatqe.polarize.JAXBHelper;
 import com.github.redhatqe.polarize.configuration.ConfigType;
 import com.github.redhatqe.polarize.configuration.XMLConfig;
 import com.github.redhatqe.polarize.exceptions.*;
 import com.github.redhatqe.polarize.importer.ImporterRequest;
 import com.github.redhatqe.polarize.importer.xunit.*;
 import com.github.redhatqe.polarize.importer.xunit.Error;
+import com.github.redhatqe.polarize.mapping.CompiledMapping;
+import com.github.redhatqe.polarize.mapping.MappingIndex;
+import com.github.redhatqe.polarize.mapping.MappingLookup;
+import com.github.redhatqe.polarize.mapping.MappingShards;
+import com.github.redhatqe.polarize.mapping.MappingSnapshot;
+import com.github.redhatqe.polarize.mapping.MappingStore;
+import com.github.redhatqe.polarize.messagebus.CIBusDispatcher;
 import com.github.redhatqe.polarize.metadata.Requirement;
 import com.github.redhatqe.polarize.metadata.TestDefinition;
 import com.github.redhatqe.polarize.utils.Tuple;
 import joptsimple.OptionParser;
 import joptsimple.OptionSet;
 import joptsimple.OptionSpec;
-import org.apache.http.HttpEntity;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.testng.*;
-import org.testng.xml.XmlClass;
 import org.testng.xml.XmlSuite;
 import org.testng.xml.XmlTest;
 
@@ -38,7 +41,6 @@ import java.util.*;
 import java.util.Properties;
 import java.util.concurrent.ExecutionException;
 import java.util.function.Consumer;
-import java.util.stream.Collectors;
 
 /**
  * Class that handles junit report generation for TestNG
@@ -47,8 +49,12 @@ import java.util.stream.Collectors;
  * configured through the polarize-config.xml file.  A default configuration is contained in the resources folder, but
  * a global environment variable of XUNIT_IMPORTER_CONFIG can also be set.  If this env var exists and it points to a
  * file, this file will be loaded instead.
+ *
+ * For parallel runs, use -listener XUnitReporter instead (TestNG then also calls it as a reporter).  The results are
+ * then counted per class as each test finishes, from the TestNG threads and without locking (see {@link LiveResults}),
+ * so the report does not have to go through every invoked method of the suite again once the run is over.
  */
-public class XUnitReporter implements IReporter {
+public class XUnitReporter implements IReporter, ITestListener {
     private final static Logger logger = LoggerFactory.getLogger(XUnitReporter.class);
     public static String configPath = System.getProperty("polarize.config");
     public static File cfgFile = null;
@@ -61,6 +67,7 @@ public class XUnitReporter implements IReporter {
     private final static File defaultPropertyFile =
             new File(System.getProperty("user.home") + "/.polarize/reporter.properties");
     private static List<String> failedSuites = new ArrayList<>();
+    private final static Object badMethodsLock = new Object();
 
     public final static String templateId = "polarion-testrun-template-id";
     public final static String testrunId = "polarion-testrun-id";
@@ -68,6 +75,7 @@ public class XUnitReporter implements IReporter {
     public final static String polarionCustom = "polarion-custom";
     public final static String polarionResponse = "polarion-response";
     private File bad = new File("/tmp/bad-tests.txt");
+    private final LiveResults live = new LiveResults(this.bad);
 
     public static void setXMLConfig(String path) {
         if (path == null || path.equals(""))
@@ -116,38 +124,21 @@ public class XUnitReporter implements IReporter {
     }
 
     public void setTestSuiteResults(Testsuite ts, FullResult fr, ITestContext ctx) {
-        if (fr == null)
-            return;
-
-        if (fr.total != fr.fails + fr.errors + fr.skips + fr.passes) {
-            String e = "Total number of tests run != fails + errors + skips + passes\n";
-            String v = "                       %d !=    %d +     %d +    %d +     %d\n";
-            v = String.format(v, fr.total, fr.fails, fr.errors, fr.skips, fr.passes);
-            System.err.println(e + v);
-        }
-        int numErrors = fr.errorsByMethod.size();
-
-
         // The iterations feature of Polarion means that we don't need to specify how many times a permutation of a
         // method + args passed/failed/skipped etc.  That's why we don't directly use the fr numbers.
-        int numFails = ctx.getFailedTests().size();
-        int numSkips = ctx.getSkippedTests().size();
-        int numTotal = ctx.getAllTestMethods().length;
-        if (numErrors > 0)
-            numFails = numFails - numErrors;
-        if (numFails <= 0)
-            numFails = 0;
-        ts.setErrors(Integer.toString(numErrors));
-        ts.setFailures(Integer.toString(numFails));
-        ts.setSkipped(Integer.toString(numSkips));
-        ts.setTests(Integer.toString(numTotal));
+        if (fr == null)
+            return;
+        fr.setSuiteCounts(ts, ctx.getFailedTests().size(), ctx.getSkippedTests().size(),
+                ctx.getAllTestMethods().length);
     }
 
-
     /**
      * Generates a modified xunit result that can be used for the XUnit Importer
      *
-     * Example of a modified junit file:
+     * The report is streamed out with an XUnitWriter rather than marshalled from one big Testsuites tree.  The
+     * invoked methods are first grouped by class and counted (see getMethodInfo, or LiveResults when run as a
+     * listener), since the counts of a testsuite have to be written before its testcases.  Then each Testcase is
+     * created, written and dropped one at a time, so the memory used does not grow with the number of iterations.
      *
      * @param xmlSuites passed by TestNG
      * @param suites passed by TestNG
@@ -155,10 +146,11 @@ public class XUnitReporter implements IReporter {
      */
     @Override
     public void generateReport(List<XmlSuite> xmlSuites, List<ISuite> suites, String outputDirectory) {
-        Testsuites tsuites = XUnitReporter.initTestSuiteInfo(config.xunit.getSelector().getName());
+        Testsuites tsuites = XUnitReporter.initTestSuiteInfo();
         List<Testsuite> tsuite = tsuites.getTestsuite();
 
-        if (this.bad.exists()) {
+        // When run as a listener, the bad methods were already written while the tests ran
+        if (!this.live.isLive() && this.bad.exists()) {
             try {
                 Files.delete(this.bad.toPath());
             } catch (IOException e) {
@@ -166,77 +158,95 @@ public class XUnitReporter implements IReporter {
             }
         }
 
-        // Get information for each <testsuite>
-        suites.forEach(suite -> {
-            // suite here for the rhsm-qe tests should only be one occurrence
-            Map<String, ISuiteResult> results = suite.getResults();
-            Map<String, Tuple<FullResult, List<Testcase>>> full = XUnitReporter.getMethodInfo(suite, this.bad);
-            List<Testsuite> collected = results.entrySet().stream()
-                    .map(es -> {
-                        // the results that we iterate through is each <test> element from the suite.xml.  From our
-                        // perspective each <testsuite> is effectively the <test>, and in turn we model each <test>
-                        // as a Class in java
-                        Testsuite ts = new Testsuite();
-                        List<Testcase> tests = ts.getTestcase();
-                        if (tests == null)
-                            tests = new ArrayList<>();
-
-                        String key = es.getKey();
-                        ISuiteResult result = es.getValue();
-                        ITestContext ctx = result.getTestContext();
-                        XmlTest xt = ctx.getCurrentXmlTest();
-                        List<XmlClass> clses = xt.getClasses();
-                        Set<String> clsSet = clses.stream()
-                                .map(x -> {
-                                    String sptCls = x.getSupportClass().toString();
-                                    sptCls = sptCls.replace("class ", "");
-                                    return sptCls;
-                                })
-                                .collect(Collectors.toSet());
-
-                        ts.setName(key);
-                        Date start = ctx.getStartDate();
-                        Date end = ctx.getEndDate();
-                        double duration = (end.getTime() - start.getTime()) / 1000.0;
-                        ts.setTime(Double.toString(duration));
-
-                        // While I suppose it's possible, we should have only one or zero possible results from the map
-                        // so findFirst should return at most 1.  When will we have zero?
-                        List<Tuple<FullResult, List<Testcase>>> frList = full.entrySet().stream()
-                                .filter(e -> {
-                                    String cls = e.getKey();
-                                    return clsSet.contains(cls);
-                                })
-                                .map(Map.Entry::getValue)
-                                .collect(Collectors.toList());
-                        Optional<Tuple<FullResult, List<Testcase>>> maybeFR = frList.stream().findFirst();
-                        Tuple<FullResult, List<Testcase>> tup = maybeFR.orElse(new Tuple<>());
-                        FullResult fr = tup.first;
-                        List<Testcase> tcs = tup.second;
-                        if (tcs != null)
-                            tests.addAll(tcs);
-
-                        setTestSuiteResults(ts, fr, ctx);
-                        if (fr == null) {
-                            //System.out.println(String.format("Skipping test for %s", ctx.toString()));
-                            return null;  // No FullResult due to empty frList.  Will be filtered out
-                        }
-                        else
-                            return ts;
-                    })
-                    .filter(Objects::nonNull)  // filter out any suites without FullResult
-                    .collect(Collectors.toList());
-
-            tsuite.addAll(collected);
-        });
+        File reportPath = new File(outputDirectory + "/testng-polarion.xml");
+        try (XUnitWriter writer = new XUnitWriter(reportPath)) {
+            writer.startTestsuites(tsuites);
+
+            // Get information for each <testsuite>
+            for (ISuite suite : suites) {
+                // suite here for the rhsm-qe tests should only be one occurrence
+                Map<String, ISuiteResult> results = suite.getResults();
+                ResultIndex index;
+                if (this.live.isLive())
+                    index = this.live.forSuite(suite.getName());
+                else
+                    index = XUnitReporter.getMethodInfo(suite, this.bad);
+                for (Map.Entry<String, ISuiteResult> es : results.entrySet()) {
+                    // the results that we iterate through is each <test> element from the suite.xml.  From our
+                    // perspective each <testsuite> is effectively the <test>, and in turn we model each <test>
+                    // as a Class in java
+                    String key = es.getKey();
+                    ISuiteResult result = es.getValue();
+                    ITestContext ctx = result.getTestContext();
+                    XmlTest xt = ctx.getCurrentXmlTest();
+
+                    // A <test> may have several classes, in which case their results all go in its <testsuite>.
+                    // We have zero when none of the methods that ran in the <test> are in the mapping file
+                    Optional<ResultIndex.Bucket> maybeFR = index.resolve(ctx.getName(), xt);
+                    if (!maybeFR.isPresent())
+                        continue;  // No FullResult, so skip this suite
+                    FullResult fr = maybeFR.get().counts;
+                    Collection<Tuple<ITestResult, IdParams>> methods = maybeFR.get().results;
+
+                    // The Testsuite only holds the attributes.  Its testcases are streamed straight to the file
+                    Testsuite ts = new Testsuite();
+                    ts.setName(key);
+                    Date start = ctx.getStartDate();
+                    Date end = ctx.getEndDate();
+                    double duration = (end.getTime() - start.getTime()) / 1000.0;
+                    ts.setTime(Double.toString(duration));
+                    setTestSuiteResults(ts, fr, ctx);
+                    tsuite.add(ts);
+
+                    writer.startTestsuite(ts);
+                    for (Tuple<ITestResult, IdParams> meth : methods)
+                        writer.writeTestcase(XUnitReporter.createTestcase(meth.first, meth.second));
+                    writer.endTestsuite();
+                }
+            }
+            writer.finish();
+        }
 
-        // Now that we've gone through the suites, let's marshall this into an XML file for the XUnit Importer
+        logger.debug(StackTraces.stats());
+        logger.debug(ParameterRenderer.stats());
         FullResult suiteResults = getSuiteResults(tsuites);
         System.out.println(String.format("Error: %d, Failures: %d, Success: %d, Skips: %d", suiteResults.errors,
                 suiteResults.fails, suiteResults.passes, suiteResults.skips));
-        File reportPath = new File(outputDirectory + "/testng-polarion.xml");
-        JAXBHelper jaxb = new JAXBHelper();
-        IJAXBHelper.marshaller(tsuites, reportPath, jaxb.getXSDFromResource(Testsuites.class));
+    }
+
+    @Override
+    public void onTestStart(ITestResult result) {
+
+    }
+
+    @Override
+    public void onTestSuccess(ITestResult result) {
+        this.live.record(result);
+    }
+
+    @Override
+    public void onTestFailure(ITestResult result) {
+        this.live.record(result);
+    }
+
+    @Override
+    public void onTestSkipped(ITestResult result) {
+        this.live.record(result);
+    }
+
+    @Override
+    public void onTestFailedButWithinSuccessPercentage(ITestResult result) {
+        this.live.record(result);
+    }
+
+    @Override
+    public void onStart(ITestContext context) {
+
+    }
+
+    @Override
+    public void onFinish(ITestContext context) {
+
     }
 
     /**
@@ -253,16 +263,14 @@ public class XUnitReporter implements IReporter {
      */
     public static void sendXunitImportRequest(String url, String user, String pw, File reportPath, Testsuites tsuites) {
         // Now that we've gone through the suites, let's marshall this into an XML file for the XUnit Importer
-        CloseableHttpResponse resp =
-                ImporterRequest.post(tsuites, Testsuites.class, url, reportPath.toString(), user, pw);
-        HttpEntity entity = resp.getEntity();
-        try {
-            BufferedReader bfr = new BufferedReader(new InputStreamReader(entity.getContent()));
-            System.out.println(bfr.lines().collect(Collectors.joining("\n")));
+        // post already printed the body, so all that is left is to give the connection back to the pool
+        try (CloseableHttpResponse resp =
+                     ImporterRequest.post(tsuites, Testsuites.class, url, reportPath.toString(), user, pw)) {
+            if (resp != null)
+                System.out.println(resp.toString());
         } catch (IOException e) {
             e.printStackTrace();
         }
-        System.out.println(resp.toString());
     }
 
     /**
@@ -310,39 +318,56 @@ public class XUnitReporter implements IReporter {
         };
     }
 
+    /**
+     * Counts the result of a method invocation
+     *
+     * @param result result of the invocation
+     * @param fr where the counts are kept
+     * @param qual qualified name of the method
+     */
+    private static void tally(ITestResult result, FullResult fr, String qual) {
+        fr.tally(result.getStatus(), XUnitReporter.isError(result), qual);
+    }
+
+    /**
+     * TestNG doesn't distinguish between an assertion failure and an error, so anything but an AssertionError is
+     * counted as an error
+     *
+     * @param result result of the invocation
+     * @return true if the result is a failure due to an error
+     */
+    static Boolean isError(ITestResult result) {
+        Throwable t = result.getThrowable();
+        return result.getStatus() == ITestResult.FAILURE && t != null && !(t instanceof java.lang.AssertionError);
+    }
+
     /**
      * Sets the status for a Testcase object given values from ITestResult
+     *
+     * The counting is done separately by tally(), since the counts are needed before any Testcase is created
      * 
      * @param result
      * @param tc
      */
-    private static void getStatus(ITestResult result, Testcase tc, FullResult fr, String qual) {
+    private static void getStatus(ITestResult result, Testcase tc) {
         Throwable t = result.getThrowable();
         int status = result.getStatus();
-        StringBuilder sb = new StringBuilder();
-        fr.total++;
         switch(status) {
             // Unfortunately, TestNG doesn't distinguish between an assertion failure and an error.  The way to check
             // is if getThrowable() returns non-null
             case ITestResult.FAILURE:
                 if (t != null && !(t instanceof java.lang.AssertionError)) {
-                    fr.errors++;
-                    if (!fr.errorsByMethod.contains(qual))
-                        fr.errorsByMethod.add(qual);
                     Error err = new Error();
                     String maybe = t.getMessage();
-                    if (maybe != null) {
-                        String msg = t.getMessage().length() > 128 ? t.getMessage().substring(128) : t.getMessage();
-                        err.setMessage(msg);
-                    }
+                    if (maybe != null)
+                        err.setMessage(StackTraces.truncate(maybe));
                     else
                         err.setMessage("java.lang.NullPointerException");
-                    Arrays.stream(t.getStackTrace()).forEach(st -> sb.append(st.toString()).append("\n"));
-                    err.setContent(sb.toString());
+                    // Identical traces (eg from every iteration of a data provider) share one String
+                    err.setContent(StackTraces.render(t));
                     tc.getError().add(err);
                 }
                 else {
-                    fr.fails++;
                     Failure fail = new Failure();
                     if (t != null)
                         fail.setContent(t.getMessage());
@@ -350,17 +375,15 @@ public class XUnitReporter implements IReporter {
                 }
                 break;
             case ITestResult.SKIP:
-                fr.skips++;
                 tc.setSkipped("true");
                 break;
             case ITestResult.SUCCESS:
-                fr.passes++;
                 tc.setStatus("success");
                 break;
             default:
                 if (t != null) {
                     Error err = new Error();
-                    err.setMessage(t.getMessage().substring(128));
+                    err.setMessage(StackTraces.truncate(t.getMessage()));
                     err.setContent(t.getMessage());
                     tc.getError().add(err);
                 }
@@ -368,12 +391,20 @@ public class XUnitReporter implements IReporter {
         }
     }
 
+    /**
+     * Checks that a method is in the mapping file, and appends it to the badMethods file if not
+     *
+     * This is called for every result (from the TestNG threads when run as a listener), so only the rare miss takes
+     * the lock that keeps the appends to badMethods from interleaving.
+     */
     public static boolean
     checkMethInMapping(Map<String, IdParams> inner, String qual, String project, File badMethods) {
-        boolean in = true;
-        if (inner == null || !inner.containsKey(project)) {
-            String err = String.format("%s does not exist in mapping file for Project %s \n", qual, project);
-            logger.error(err);
+        if (inner != null && inner.containsKey(project))
+            return true;
+
+        String err = String.format("%s does not exist in mapping file for Project %s \n", qual, project);
+        logger.error(err);
+        synchronized (badMethodsLock) {
             try {
                 FileWriter badf = new FileWriter(badMethods, true);
                 BufferedWriter bw = new BufferedWriter(badf);
@@ -382,36 +413,32 @@ public class XUnitReporter implements IReporter {
             } catch (IOException e) {
                 e.printStackTrace();
             }
-            in = false;
         }
-        return in;
+        return false;
     }
 
     public FullResult getSuiteResults(Testsuites suites) {
-        List<Testsuite> sList = suites.getTestsuite();
-        return sList.stream()
-                .reduce(new FullResult(),
-                        (acc, s) -> {
-                            acc.skips += Integer.parseInt(s.getSkipped());
-                            acc.errors += Integer.parseInt(s.getErrors());
-                            acc.fails += Integer.parseInt(s.getFailures());
-                            acc.total += Integer.parseInt(s.getTests());
-                            acc.passes = acc.passes + (acc.total - (acc.skips + acc.errors + acc.fails));
-                            return acc;
-                        },
-                        FullResult::add);
+        return FullResult.fromSuites(suites);
     }
 
     /**
-     * Gets information from each invoked method in the test suite
+     * Groups the invoked test methods of a suite by <test> and class, and counts their results
+     *
+     * No Testcase is created here.  Only the (already existing) ITestResult and its IdParams from the mapping
+     * file are kept, and the Testcase is created by createTestcase right before it is written.  This is only used
+     * when XUnitReporter was not also a listener, since otherwise {@link LiveResults} already has all of this.
      *
      * @param suite suite that was run by TestNG
-     * @return map of classname to a tuple of the FullResult and TestCase
+     * @return index of the FullResult and the methods with their IdParams, by <test> and classname
      */
-    private static Map<String, Tuple<FullResult, List<Testcase>>>
-    getMethodInfo(ISuite suite, File badMethods) {
+    private static ResultIndex getMethodInfo(ISuite suite, File badMethods) {
         List<IInvokedMethod> invoked = suite.getAllInvokedMethods();
-        Map<String, Tuple<FullResult, List<Testcase>>> full = new HashMap<>();
+        ResultIndex full = new ResultIndex();
+
+        // Load the mapping file once for the whole suite
+        String project = XUnitReporter.getProject();
+        MappingLookup mapping = XUnitReporter.loadMapping();
+
         for(IInvokedMethod meth: invoked) {
             ITestNGMethod fn = meth.getTestMethod();
             if (!fn.isTest()) {
@@ -423,59 +450,89 @@ public class XUnitReporter implements IReporter {
             String methname = fn.getMethodName();
             String classname = clz.getName();
 
-            // Load the mapping file
-            String project = XUnitReporter.cfg.getProject();
-            String path = XUnitReporter.config.getMappingPath();
-            File fpath = new File(path);
-            if (!fpath.exists()) {
-                String err = String.format("Could not find mapping file %s", path);
-                XUnitReporter.logger.error(err);
-                throw new MappingError(err);
-            }
             String qual = String.format("%s.%s", classname, methname);
-            Map<String, Map<String, IdParams>> mapping = FileHelper.loadMapping(fpath);
-            Map<String, IdParams> inner = mapping.get(qual);
+            Map<String, IdParams> inner = mapping.getMethod(qual);
 
             if (!checkMethInMapping(inner, qual, project, badMethods))
                 continue;
 
-            FullResult fres;
-            Testcase testcase = new Testcase();
-            List<Testcase> tests;
-            if (!full.containsKey(classname)) {
-                fres = new FullResult();
-                tests = new ArrayList<>();
-                tests.add(testcase);
-                full.put(classname, new Tuple<>(fres, tests));
-            }
-            else {
-                Tuple<FullResult, List<Testcase>> tup = full.get(classname);
-                fres = tup.first;
-                tests = tup.second;
-                tests.add(testcase);
-            }
             ITestResult result = meth.getTestResult();
-            Double millis = (result.getEndMillis() - result.getStartMillis()) / 1000.0;
-
-            fres.classname = classname;
-            testcase.setTime(millis.toString());
-            testcase.setName(methname);
-            testcase.setClassname(classname);
-            XUnitReporter.getStatus(result, testcase, fres, qual);
-
-            // Create the <properties> element, and all the child <property> sub-elements from the iteration data.
-            // Gets the IdParams from the mapping.json file which has all the parameter information
-            IdParams ip = inner.get(project);
-            String id = ip.getId();
-            List<String> args = ip.getParameters();
-            Property polarionID = XUnitReporter.createProperty("polarion-testcase-id", id);
-            com.github.redhatqe.polarize.importer.xunit.Properties props =
-                    getPropertiesFromMethod(result, args, polarionID);
-            testcase.setProperties(props);
+            ResultIndex.Bucket bucket = full.bucket(result.getTestContext().getName(), classname);
+            XUnitReporter.tally(result, bucket.counts, qual);
+            bucket.results.add(new Tuple<>(result, inner.get(project)));
         }
         return full;
     }
 
+    /**
+     * @return the project from the polarize-config.xml
+     */
+    static String getProject() {
+        return XUnitReporter.cfg.getProject();
+    }
+
+    /**
+     * Uses the mapping compiled along with the tests when it is on the classpath (see {@link CompiledMapping}), so
+     * that no JSON has to be parsed.  Otherwise the up to date {@link MappingSnapshot} of the mapping file from the
+     * polarize-config.xml is looked up in place, or else the mapping file is loaded.  In the sharded layout (see
+     * {@link MappingShards}) only the shard of the project from the config is used.
+     *
+     * @return the compiled mapping, the snapshot, or the (shared) index of the mapping file
+     * @throws MappingError if there is no compiled mapping and no mapping file
+     */
+    static MappingLookup loadMapping() {
+        Optional<CompiledMapping> compiled = CompiledMapping.find();
+        if (compiled.isPresent())
+            return compiled.get();
+        String path = XUnitReporter.config.getMappingPath();
+        File fpath = new File(path);
+        MappingStore store = MappingStore.forFile(fpath);
+        if (!store.exists()) {
+            String err = String.format("Could not find mapping file %s", path);
+            XUnitReporter.logger.error(err);
+            throw new MappingError(err);
+        }
+        if (store.isSharded()) {
+            String project = XUnitReporter.getProject();
+            if (store.hasPending())
+                return MappingLookup.of(store.load(Collections.singletonList(project)));
+            fpath = new MappingShards(fpath).shardPath(project);
+        }
+        // The snapshot only has what is in the mapping file, so it can't be used while there are journaled edits
+        if (!MappingStore.forFile(fpath).hasPending()) {
+            Optional<MappingSnapshot> snapshot = MappingSnapshot.open(fpath);
+            if (snapshot.isPresent())
+                return snapshot.get();
+        }
+        return MappingIndex.forFile(fpath);
+    }
+
+    /**
+     * Creates the Testcase for a single invoked method
+     *
+     * @param result the result of the invoked test method
+     * @param ip the IdParams of the method from the mapping file
+     * @return the Testcase with its status and <properties> (the Polarion ID and the iteration data)
+     */
+    static Testcase createTestcase(ITestResult result, IdParams ip) {
+        ITestNGMethod fn = result.getMethod();
+        Double millis = (result.getEndMillis() - result.getStartMillis()) / 1000.0;
+
+        Testcase testcase = new Testcase();
+        testcase.setTime(millis.toString());
+        testcase.setName(fn.getMethodName());
+        testcase.setClassname(fn.getTestClass().getName());
+        XUnitReporter.getStatus(result, testcase);
+
+        // Create the <properties> element, and all the child <property> sub-elements from the iteration data.
+        // Gets the IdParams from the mapping.json file which has all the parameter information
+        Property polarionID = ParameterRenderer.property("polarion-testcase-id", ip.getId());
+        com.github.redhatqe.polarize.importer.xunit.Properties props =
+                getPropertiesFromMethod(result, ip.getParameters(), polarionID);
+        testcase.setProperties(props);
+        return testcase;
+    }
+
     /**
      * Takes the parameter info from the mapping.json file for the TestCase ID, and generates the Properties for it
      *
@@ -500,27 +557,27 @@ public class XUnitReporter implements IReporter {
             logger.error(String.format("While checking args = %s", argList));
             throw new MappingError();
         }
-        for(int x = 0; x < params.length; x++) {
-            Property param = new Property();
-            param.setName("polarion-parameter-" + args.get(x));
-            String p;
-            if (params[x] == null)
-                p = "null";
-            else
-                p = params[x].toString();
-            param.setValue(p);
-            tcProps.add(param);
-        }
+        // The names, renderings and Property objects are cached across iterations (see ParameterRenderer)
+        String qual = String.format("%s.%s", result.getMethod().getTestClass().getName(),
+                result.getMethod().getMethodName());
+        tcProps.addAll(ParameterRenderer.render(qual, args, params));
         return props;
     }
 
+    /**
+     * @return the <testsuites> with the properties from the polarize-config, and the configured response name
+     */
+    static Testsuites initTestSuiteInfo() {
+        return XUnitReporter.initTestSuiteInfo(config.xunit.getSelector().getName());
+    }
+
     /**
      * Gets information from polarize-config to set as the elements in the <testsuites>
      *
      * @param responseName
      * @return
      */
-    private static Testsuites initTestSuiteInfo(String responseName) {
+    static Testsuites initTestSuiteInfo(String responseName) {
         Testsuites tsuites = new Testsuites();
         com.github.redhatqe.polarize.importer.xunit.Properties props =
                 new com.github.redhatqe.polarize.importer.xunit.Properties();
@@ -738,6 +795,12 @@ public class XUnitReporter implements IReporter {
         OptionSpec<String> xunitOpt = parser.accepts("xunit").withRequiredArg().ofType(String.class).required();
         OptionSpec<String> selectorOpt = parser.accepts("selector").withRequiredArg().ofType(String.class)
                 .defaultsTo(defaultSelector);
+        OptionSpec<Long> maxBytesOpt = parser.accepts("max-bytes").withRequiredArg().ofType(Long.class)
+                .defaultsTo(XUnitSharder.defaultMaxBytes());
+        OptionSpec<Integer> maxTestcasesOpt = parser.accepts("max-testcases").withRequiredArg().ofType(Integer.class)
+                .defaultsTo(XUnitSharder.defaultMaxTestcases());
+        OptionSpec<Integer> threadsOpt = parser.accepts("upload-threads").withRequiredArg().ofType(Integer.class)
+                .defaultsTo(XUnitSharder.defaultUploadThreads());
 
         OptionSet opts = parser.parse(args);
         String xunit = opts.valueOf(xunitOpt);
@@ -765,9 +828,21 @@ public class XUnitReporter implements IReporter {
                 throw new ImportRequestError(String.format("Could not download %s", xml.toString()));
         }
 
-        Optional<ObjectNode> node =
-                ImporterRequest.sendImportRequest(url, user, pw, xml, selector, XUnitReporter.xunitMessageHandler(),
-                configPath);
+        // Files that are too big for the importer are split up and uploaded in pieces
+        List<XUnitSharder.Shard> shards = XUnitSharder.split(xml, opts.valueOf(maxBytesOpt),
+                opts.valueOf(maxTestcasesOpt));
+        Optional<ObjectNode> node;
+        try {
+            if (shards.size() > 1)
+                node = XUnitSharder.upload(url, user, pw, shards, selector, XUnitReporter.xunitMessageHandler(),
+                        configPath, opts.valueOf(threadsOpt));
+            else
+                node = ImporterRequest.sendImportRequest(url, user, pw, xml, selector,
+                        XUnitReporter.xunitMessageHandler(), configPath);
+        } finally {
+            // Don't keep the JVM around until the connection to the CI Message Bus idles out
+            CIBusDispatcher.closeAll();
+        }
         ObjectNode n = node.orElseThrow(() -> new MessageError("Did not get a response message from CI Bus"));
     }
 }
@@ -0,0 +1,436 @@
+package com.github.redhatqe.polarize.junitreporter;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.redhatqe.polarize.IJAXBHelper;
+import com.github.redhatqe.polarize.JAXBRegistry;
+import com.github.redhatqe.polarize.exceptions.XMLDescriptonCreationError;
+import com.github.redhatqe.polarize.exceptions.XSDValidationError;
+import com.github.redhatqe.polarize.importer.ImporterRequest;
+import com.github.redhatqe.polarize.importer.xunit.Testsuites;
+import com.github.redhatqe.polarize.messagebus.CIBusDispatcher;
+import com.github.redhatqe.polarize.utils.Tuple;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.stream.*;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.XMLEvent;
+import java.io.*;
+import java.net.URL;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Splits an xunit file that is too big for the XUnit Importer into several smaller ones, and uploads them
+ *
+ * The file is split at <testsuite> boundaries, so a single <testsuite> is never split even if it is bigger than the
+ * limit.  Every shard gets a copy of the top-level <properties>, with these changes:
+ * - all the shards get the same polarion-testrun-id, so they end up in the same TestRun.  If the file has none, one
+ *   is made up
+ * - polarion-set-testrun-finished is false on all but the last shard
+ * - each shard gets its own polarion-response value (value_shardN), so that the replies of shards uploaded at the
+ *   same time can't get mixed up
+ *
+ * Both splitting and copying are done with StAX, so the file is never loaded into memory.  The limits can be set with
+ * these system properties:
+ * - polarize.xunit.maxBytes: max (approximate) size of a shard, 0 for no limit (default 0)
+ * - polarize.xunit.maxTestcases: max number of testcases in a shard, 0 for no limit (default 0)
+ * - polarize.xunit.uploadThreads: max number of shards to upload at the same time (default 2)
+ */
+public class XUnitSharder {
+    private static final Logger logger = LoggerFactory.getLogger(XUnitSharder.class);
+    public static final String maxBytesProperty = "polarize.xunit.maxBytes";
+    public static final String maxTestcasesProperty = "polarize.xunit.maxTestcases";
+    public static final String uploadThreadsProperty = "polarize.xunit.uploadThreads";
+    private static final String responsePrefix = XUnitReporter.polarionResponse + "-";
+    private static final String finishedProperty = "polarion-set-testrun-finished";
+    private static final XMLOutputFactory outputFactory = XMLOutputFactory.newFactory();
+    private static final XMLEventFactory eventFactory = XMLEventFactory.newFactory();
+
+    /**
+     * One of the files a report was split into
+     */
+    public static class Shard {
+        public final File file;
+        public final int testsuites;
+        public final int testcases;
+        public final long bytes;
+        // the selector the reply to this shard will come back with, or null if the report has no response property
+        public final String selector;
+
+        Shard(File file, int testsuites, int testcases, long bytes, String selector) {
+            this.file = file;
+            this.testsuites = testsuites;
+            this.testcases = testcases;
+            this.bytes = bytes;
+            this.selector = selector;
+        }
+    }
+
+    /**
+     * What the first pass found out about a <testsuite>
+     */
+    private static class SuiteInfo {
+        long bytes = 0;
+        int testcases = 0;
+    }
+
+    public static long defaultMaxBytes() {
+        return Long.getLong(maxBytesProperty, 0L);
+    }
+
+    public static int defaultMaxTestcases() {
+        return Integer.getInteger(maxTestcasesProperty, 0);
+    }
+
+    public static int defaultUploadThreads() {
+        return Integer.getInteger(uploadThreadsProperty, 2);
+    }
+
+    /**
+     * Splits an xunit file into shards
+     *
+     * @param xunit the xunit file to split
+     * @param maxBytes max size of a shard, 0 for no limit
+     * @param maxTestcases max testcases in a shard, 0 for no limit
+     * @return the shards.  If the file is within the limits, this is just the file itself.
+     */
+    public static List<Shard> split(File xunit, long maxBytes, int maxTestcases) {
+        List<Tuple<String, String>> props = new ArrayList<>();
+        List<SuiteInfo> suites = XUnitSharder.measure(xunit, props);
+        String responseName = props.stream()
+                .map(p -> p.first)
+                .filter(n -> n.startsWith(responsePrefix))
+                .findFirst()
+                .map(n -> n.substring(responsePrefix.length()))
+                .orElse(null);
+
+        // Greedily fill each shard with whole testsuites
+        List<List<Integer>> plan = new ArrayList<>();
+        List<Integer> current = new ArrayList<>();
+        long bytes = 0;
+        int testcases = 0;
+        for (int i = 0; i < suites.size(); i++) {
+            SuiteInfo si = suites.get(i);
+            boolean tooBig = (maxBytes > 0 && bytes + si.bytes > maxBytes)
+                    || (maxTestcases > 0 && testcases + si.testcases > maxTestcases);
+            if (tooBig && !current.isEmpty()) {
+                plan.add(current);
+                current = new ArrayList<>();
+                bytes = 0;
+                testcases = 0;
+            }
+            if ((maxBytes > 0 && si.bytes > maxBytes) || (maxTestcases > 0 && si.testcases > maxTestcases))
+                logger.warn(String.format("Testsuite %d of %s is over the shard limit on its own", i + 1, xunit));
+            current.add(i);
+            bytes += si.bytes;
+            testcases += si.testcases;
+        }
+        plan.add(current);
+
+        if (plan.size() == 1) {
+            String selector = responseName == null ? null : XUnitSharder.responseSelector(responseName, props, null);
+            return Collections.singletonList(new Shard(xunit, suites.size(), testcases, xunit.length(), selector));
+        }
+
+        // All the shards must go to the same TestRun
+        if (props.stream().noneMatch(p -> p.first.equals(XUnitReporter.testrunId))) {
+            String id = "polarize-" + new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Date());
+            props.add(new Tuple<>(XUnitReporter.testrunId, id));
+            logger.info(String.format("Using testrun id %s for all the shards", id));
+        }
+
+        Map<Integer, Integer> shardOf = new HashMap<>();
+        for (int s = 0; s < plan.size(); s++)
+            for (Integer suite : plan.get(s))
+                shardOf.put(suite, s);
+
+        List<Shard> shards = XUnitSharder.write(xunit, plan, shardOf, props, suites, responseName);
+        logger.info(String.format("Split %s into %d shards", xunit, shards.size()));
+        return shards;
+    }
+
+    /**
+     * Uploads the shards and waits for all the replies
+     *
+     * All but the last shard are uploaded at most threads at a time.  The last shard (the only one which marks the
+     * TestRun as finished) is uploaded once all the others got their reply.
+     *
+     * @param url url of the xunit importer
+     * @param user user to authenticate as
+     * @param pw password for user
+     * @param shards the shards from split()
+     * @param selector the selector for shards which don't have their own
+     * @param handler run once on the aggregated reply
+     * @param cfgPath path to the polarize-config.xml, or null for the default
+     * @param threads max number of shards being uploaded at the same time
+     * @return the aggregated reply (see {@link #aggregate(List)})
+     */
+    public static Optional<ObjectNode> upload(String url, String user, String pw, List<Shard> shards, String selector,
+                                              Consumer<Optional<ObjectNode>> handler, String cfgPath, int threads) {
+        long timeout = CIBusDispatcher.forConfig(cfgPath).defaultTimeout();
+        Consumer<Optional<ObjectNode>> noop = node -> {};
+        List<Optional<ObjectNode>> replies = new ArrayList<>();
+
+        // Shards without their own selector would share one, so they have to go one at a time
+        if (shards.stream().anyMatch(s -> s.selector == null))
+            threads = 1;
+        AtomicInteger count = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+            Thread t = new Thread(r, "polarize-xunit-shard-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<Future<Optional<ObjectNode>>> futures = new ArrayList<>();
+            for (Shard shard : shards.subList(0, shards.size() - 1)) {
+                String sel = shard.selector == null ? selector : shard.selector;
+                futures.add(pool.submit(() -> ImporterRequest.sendImportRequestAsync(url, user, pw, shard.file, sel,
+                        noop, cfgPath, timeout).join()));
+            }
+            for (Future<Optional<ObjectNode>> f : futures)
+                replies.add(f.get());
+
+            Shard last = shards.get(shards.size() - 1);
+            String sel = last.selector == null ? selector : last.selector;
+            replies.add(ImporterRequest.sendImportRequestAsync(url, user, pw, last.file, sel, noop, cfgPath, timeout)
+                    .join());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            e.printStackTrace();
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+        } finally {
+            pool.shutdownNow();
+        }
+
+        while (replies.size() < shards.size())
+            replies.add(Optional.empty());
+        Optional<ObjectNode> result = XUnitSharder.aggregate(replies);
+        handler.accept(result);
+        return result;
+    }
+
+    /**
+     * Combines the replies to the shards into one reply of the same form as for a single file
+     *
+     * The status is passed only if every shard passed.  The import-results of all the shards are concatenated, and a
+     * shard without a reply counts as failed.
+     *
+     * @param replies the reply to each shard, in order
+     * @return the combined reply, or empty if no shard got a reply
+     */
+    public static Optional<ObjectNode> aggregate(List<Optional<ObjectNode>> replies) {
+        if (replies.stream().noneMatch(Optional::isPresent))
+            return Optional.empty();
+
+        ObjectMapper mapper = new ObjectMapper();
+        ObjectNode node = mapper.createObjectNode();
+        ObjectNode root = node.putObject("root");
+        ArrayNode results = root.putArray("import-results");
+        ArrayNode perShard = root.putArray("shards");
+        List<String> messages = new ArrayList<>();
+        boolean passed = true;
+        for (int i = 0; i < replies.size(); i++) {
+            ObjectNode shard = perShard.addObject();
+            shard.put("shard", i + 1);
+            JsonNode r = replies.get(i).map(n -> n.path("root")).orElse(null);
+            if (r == null || r.isMissingNode()) {
+                shard.put("status", "no reply");
+                passed = false;
+                messages.add(String.format("No reply for shard %d", i + 1));
+                continue;
+            }
+            String status = r.path("status").asText();
+            shard.put("status", status);
+            if (!status.equals("passed")) {
+                passed = false;
+                if (r.has("message"))
+                    messages.add(String.format("shard %d: %s", i + 1, r.get("message").asText()));
+            }
+            if (r.has("testrun-url") && !root.has("testrun-url"))
+                root.put("testrun-url", r.get("testrun-url").asText());
+            r.path("import-results").forEach(results::add);
+        }
+        root.put("status", passed ? "passed" : "failed");
+        if (!messages.isEmpty())
+            root.put("message", String.join("\n", messages));
+        return Optional.of(node);
+    }
+
+    /**
+     * First pass: collects the top-level properties, and the size and number of testcases of each testsuite
+     */
+    private static List<SuiteInfo> measure(File xunit, List<Tuple<String, String>> props) {
+        List<SuiteInfo> suites = new ArrayList<>();
+        try (InputStream is = new BufferedInputStream(new FileInputStream(xunit))) {
+            XMLStreamReader rdr = JAXBRegistry.inputFactory().createXMLStreamReader(is);
+            int depth = 0;
+            SuiteInfo current = null;
+            long start = 0;
+            while (rdr.hasNext()) {
+                int event = rdr.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    depth++;
+                    String name = rdr.getLocalName();
+                    if (depth == 3 && name.equals("property") && current == null)
+                        props.add(new Tuple<>(rdr.getAttributeValue(null, "name"),
+                                rdr.getAttributeValue(null, "value")));
+                    else if (depth == 2 && name.equals("testsuite")) {
+                        current = new SuiteInfo();
+                        start = rdr.getLocation().getCharacterOffset();
+                    }
+                    else if (depth == 3 && name.equals("testcase") && current != null)
+                        current.testcases++;
+                }
+                else if (event == XMLStreamConstants.END_ELEMENT) {
+                    if (depth == 2 && current != null) {
+                        current.bytes = Math.max(0, rdr.getLocation().getCharacterOffset() - start);
+                        suites.add(current);
+                        current = null;
+                    }
+                    depth--;
+                }
+            }
+            rdr.close();
+        } catch (IOException | XMLStreamException e) {
+            e.printStackTrace();
+            throw new XMLDescriptonCreationError();
+        }
+        return suites;
+    }
+
+    /**
+     * Second pass: copies each testsuite into the shard it was planned for
+     */
+    private static List<Shard> write(File xunit, List<List<Integer>> plan, Map<Integer, Integer> shardOf,
+                                     List<Tuple<String, String>> props, List<SuiteInfo> suites, String responseName) {
+        String base = xunit.getName().replaceAll("\\.xml$", "");
+        List<Shard> shards = new ArrayList<>();
+        List<XMLEventWriter> writers = new ArrayList<>();
+        List<OutputStream> streams = new ArrayList<>();
+        try (InputStream is = new BufferedInputStream(new FileInputStream(xunit))) {
+            XMLEventReader rdr = JAXBRegistry.inputFactory().createXMLEventReader(is);
+            int depth = 0;
+            int suite = -1;
+            XMLEventWriter out = null;
+            List<Attribute> rootAttrs = new ArrayList<>();
+            while (rdr.hasNext()) {
+                XMLEvent event = rdr.nextEvent();
+                if (event.isStartElement()) {
+                    depth++;
+                    if (depth == 1) {
+                        event.asStartElement().getAttributes().forEachRemaining(rootAttrs::add);
+                        continue;
+                    }
+                    if (depth == 2 && event.asStartElement().getName().getLocalPart().equals("testsuite")) {
+                        suite++;
+                        int s = shardOf.get(suite);
+                        // Shards are filled in order, so a shard is only opened when its first testsuite is reached
+                        while (writers.size() <= s) {
+                            int n = writers.size();
+                            File f = new File(xunit.getAbsoluteFile().getParentFile(),
+                                    String.format("%s-shard-%d.xml", base, n + 1));
+                            OutputStream os = new BufferedOutputStream(new FileOutputStream(f));
+                            XMLEventWriter w = outputFactory.createXMLEventWriter(os, "UTF-8");
+                            streams.add(os);
+                            writers.add(w);
+                            String selector = XUnitSharder.startShard(w, rootAttrs, props, n, plan.size(),
+                                    responseName);
+                            int tcs = plan.get(n).stream().mapToInt(i -> suites.get(i).testcases).sum();
+                            long bytes = plan.get(n).stream().mapToLong(i -> suites.get(i).bytes).sum();
+                            shards.add(new Shard(f, plan.get(n).size(), tcs, bytes, selector));
+                        }
+                        out = writers.get(s);
+                        out.add(eventFactory.createCharacters("\n    "));
+                    }
+                }
+                if (out != null && depth >= 2)
+                    out.add(event);
+                if (event.isEndElement()) {
+                    if (depth == 2)
+                        out = null;
+                    depth--;
+                }
+            }
+            rdr.close();
+            for (XMLEventWriter w : writers) {
+                w.add(eventFactory.createCharacters("\n"));
+                w.add(eventFactory.createEndElement("", "", "testsuites"));
+                w.add(eventFactory.createEndDocument());
+                w.close();
+            }
+        } catch (IOException | XMLStreamException e) {
+            e.printStackTrace();
+            throw new XMLDescriptonCreationError();
+        } finally {
+            for (OutputStream os : streams) {
+                try {
+                    os.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        URL xsd = new JAXBReporter().getXSDFromResource(Testsuites.class);
+        for (Shard shard : shards) {
+            if (!IJAXBHelper.validateXML(shard.file, xsd))
+                throw new XSDValidationError();
+        }
+        return shards;
+    }
+
+    /**
+     * Writes the start of a shard: the testsuites element and its properties
+     *
+     * @return the selector the reply to this shard will have, or null if there is no response property
+     */
+    private static String startShard(XMLEventWriter w, List<Attribute> rootAttrs, List<Tuple<String, String>> props,
+                                     int n, int total, String responseName) throws XMLStreamException {
+        boolean last = n == total - 1;
+        String selector = null;
+        w.add(eventFactory.createStartDocument("UTF-8", "1.0"));
+        w.add(eventFactory.createCharacters("\n"));
+        w.add(eventFactory.createStartElement("", "", "testsuites", rootAttrs.iterator(), null));
+        w.add(eventFactory.createCharacters("\n    "));
+        w.add(eventFactory.createStartElement("", "", "properties"));
+        for (Tuple<String, String> p : props) {
+            String value = p.second;
+            if (p.first.equals(finishedProperty) && !last)
+                value = "false";
+            else if (p.first.equals(responsePrefix + responseName)) {
+                value = String.format("%s_shard%d", p.second, n + 1);
+                selector = XUnitSharder.responseSelector(responseName, props, value);
+            }
+            List<Attribute> attrs = Arrays.asList(eventFactory.createAttribute("name", p.first),
+                    eventFactory.createAttribute("value", value == null ? "" : value));
+            w.add(eventFactory.createCharacters("\n        "));
+            w.add(eventFactory.createStartElement("", "", "property", attrs.iterator(), null));
+            w.add(eventFactory.createEndElement("", "", "property"));
+        }
+        w.add(eventFactory.createCharacters("\n    "));
+        w.add(eventFactory.createEndElement("", "", "properties"));
+        return selector;
+    }
+
+    /**
+     * @return the JMS selector for the response property, eg rhsm_qe='stoner_shard1'
+     */
+    private static String responseSelector(String responseName, List<Tuple<String, String>> props, String value) {
+        if (value == null) {
+            value = props.stream()
+                    .filter(p -> p.first.equals(responsePrefix + responseName))
+                    .map(p -> p.second)
+                    .findFirst()
+                    .orElse("");
+        }
+        return String.format("%s='%s'", responseName, value);
+    }
+}
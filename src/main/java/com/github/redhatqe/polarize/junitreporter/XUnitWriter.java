@@ -0,0 +1,370 @@
+package com.github.redhatqe.polarize.junitreporter;
+
+import com.github.redhatqe.polarize.IJAXBHelper;
+import com.github.redhatqe.polarize.JAXBRegistry;
+import com.github.redhatqe.polarize.exceptions.XMLDescriptonCreationError;
+import com.github.redhatqe.polarize.exceptions.XSDValidationError;
+import com.github.redhatqe.polarize.importer.xunit.*;
+import com.github.redhatqe.polarize.importer.xunit.Error;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.*;
+import java.net.URL;
+import java.nio.file.*;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Writes an xunit file for the XUnit Importer one element at a time
+ *
+ * Marshalling a Testsuites object requires the whole tree (every Testcase, its Properties and stack traces) to be in
+ * memory at once, which for big data provider suites takes more heap than the tests themselves.  This writer instead
+ * streams the XML out through an XMLStreamWriter, so a Testcase can be dropped as soon as it is written.  Since the
+ * counts are attributes of the testsuite element, they have to be known when the testsuite is started.
+ *
+ * Usage:
+ *
+ * try (XUnitWriter writer = new XUnitWriter(reportPath)) {
+ *     writer.startTestsuites(header);   // attributes and properties only, testsuite children are ignored
+ *     writer.startTestsuite(suite);     // attributes and properties only, testcase children are ignored
+ *     writer.writeTestcase(tc);
+ *     writer.endTestsuite();
+ *     writer.finish();
+ * }
+ *
+ * The XML goes to a temporary file next to reportPath.  finish() validates it against the xunit.xsd (unless
+ * -Dpolarize.jaxb.validateOnMarshal=false) and then renames it to reportPath, so a partially written or invalid report
+ * never replaces a good one.  If finish() is not called, close() deletes the temporary file.
+ */
+public class XUnitWriter implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(XUnitWriter.class);
+    private static final XMLOutputFactory outputFactory = XMLOutputFactory.newFactory();
+    private static final String indent = "    ";
+
+    private final File reportPath;
+    private final Path tmp;
+    private final OutputStream os;
+    private final XMLStreamWriter writer;
+    private Testsuite current = null;
+    private int depth = 0;
+    // true until something is written inside the most recently started element
+    private Boolean childless = false;
+    private int testcases = 0;
+    private Boolean finished = false;
+
+    /**
+     * @param reportPath where the xunit file will end up
+     */
+    public XUnitWriter(File reportPath) {
+        this.reportPath = reportPath.getAbsoluteFile();
+        try {
+            File dir = this.reportPath.getParentFile();
+            if (dir != null && !dir.exists())
+                Files.createDirectories(dir.toPath());
+            // Not Files.createTempFile, whose 0600 permissions would be kept by the rename
+            this.tmp = this.reportPath.toPath().resolveSibling(String.format("%s.%s.tmp", reportPath.getName(),
+                    UUID.randomUUID()));
+            this.os = new BufferedOutputStream(Files.newOutputStream(this.tmp, StandardOpenOption.CREATE_NEW));
+            this.writer = outputFactory.createXMLStreamWriter(this.os, "UTF-8");
+            this.writer.writeStartDocument("UTF-8", "1.0");
+        } catch (IOException | XMLStreamException e) {
+            e.printStackTrace();
+            throw new XMLDescriptonCreationError();
+        }
+    }
+
+    /**
+     * Writes the start of the testsuites element and its properties
+     *
+     * @param header the attributes and properties for testsuites.  Any testsuite it holds is not written.
+     */
+    public void startTestsuites(Testsuites header) {
+        try {
+            this.start("testsuites");
+            this.attribute("name", header.getName());
+            this.attribute("time", header.getTime());
+            this.attribute("tests", header.getTests());
+            this.attribute("failures", header.getFailures());
+            this.attribute("disabled", header.getDisabled());
+            this.attribute("errors", header.getErrors());
+            this.writeProperties(header.getProperties());
+        } catch (XMLStreamException e) {
+            throw this.fail(e);
+        }
+    }
+
+    /**
+     * Writes the start of a testsuite element and its properties
+     *
+     * @param ts the attributes (including the counts) and properties of the suite.  Any testcase it holds is not
+     *           written.  The system-out and system-err are written by endTestsuite().
+     */
+    public void startTestsuite(Testsuite ts) {
+        if (this.current != null)
+            this.endTestsuite();
+        try {
+            this.start("testsuite");
+            this.attribute("name", ts.getName());
+            this.attribute("tests", ts.getTests());
+            this.attribute("failures", ts.getFailures());
+            this.attribute("errors", ts.getErrors());
+            this.attribute("time", ts.getTime());
+            this.attribute("disabled", ts.getDisabled());
+            this.attribute("skipped", ts.getSkipped());
+            this.attribute("timestamp", ts.getTimestamp());
+            this.attribute("hostname", ts.getHostname());
+            this.attribute("id", ts.getId());
+            this.attribute("package", ts.getPackage());
+            this.writeProperties(ts.getProperties());
+            this.current = ts;
+        } catch (XMLStreamException e) {
+            throw this.fail(e);
+        }
+    }
+
+    /**
+     * Writes a complete testcase element.  The Testcase is not referenced after this returns.
+     *
+     * @param tc the testcase to write
+     */
+    public void writeTestcase(Testcase tc) {
+        try {
+            this.start("testcase");
+            this.attribute("name", tc.getName());
+            this.attribute("assertions", tc.getAssertions());
+            this.attribute("time", tc.getTime());
+            this.attribute("classname", tc.getClassname());
+            this.attribute("status", tc.getStatus());
+            if (tc.getSkipped() != null)
+                this.text("skipped", tc.getSkipped());
+            for (Error err : tc.getError()) {
+                this.start("error");
+                this.attribute("type", err.getType());
+                this.attribute("message", err.getMessage());
+                this.content(err.getContent());
+            }
+            for (Failure fail : tc.getFailure()) {
+                this.start("failure");
+                this.attribute("type", fail.getType());
+                this.attribute("message", fail.getMessage());
+                this.content(fail.getContent());
+            }
+            for (String out : tc.getSystemOut())
+                this.text("system-out", out);
+            for (String err : tc.getSystemErr())
+                this.text("system-err", err);
+            this.writeProperties(tc.getProperties());
+            this.end();
+            this.testcases++;
+        } catch (XMLStreamException e) {
+            throw this.fail(e);
+        }
+    }
+
+    /**
+     * Copies a testcase element from another xunit file
+     *
+     * @param rdr a reader positioned on the START_ELEMENT of a testcase.  It is left on the matching END_ELEMENT.
+     */
+    public void copyTestcase(XMLStreamReader rdr) {
+        try {
+            this.copyElement(rdr);
+            this.testcases++;
+        } catch (XMLStreamException e) {
+            throw this.fail(e);
+        }
+    }
+
+    /**
+     * Closes the current testsuite element
+     */
+    public void endTestsuite() {
+        if (this.current == null)
+            return;
+        try {
+            if (this.current.getSystemOut() != null)
+                this.text("system-out", this.current.getSystemOut());
+            if (this.current.getSystemErr() != null)
+                this.text("system-err", this.current.getSystemErr());
+            this.end();
+            this.current = null;
+        } catch (XMLStreamException e) {
+            throw this.fail(e);
+        }
+    }
+
+    /**
+     * Closes all open elements, validates the file and moves it to the report path
+     */
+    public void finish() {
+        this.endTestsuite();
+        try {
+            while (this.depth > 0)
+                this.end();
+            this.writer.writeCharacters("\n");
+            this.writer.writeEndDocument();
+            this.writer.close();
+            this.os.close();
+        } catch (XMLStreamException | IOException e) {
+            throw this.fail(e);
+        }
+
+        if (JAXBRegistry.validateOnMarshal) {
+            URL xsd = new JAXBReporter().getXSDFromResource(Testsuites.class);
+            if (!IJAXBHelper.validateXML(this.tmp.toFile(), xsd)) {
+                this.close();
+                throw new XSDValidationError();
+            }
+        }
+        try {
+            try {
+                Files.move(this.tmp, this.reportPath.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(this.tmp, this.reportPath.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            throw this.fail(e);
+        }
+        this.finished = true;
+        logger.info(String.format("Wrote %d testcases to %s", this.testcases, this.reportPath));
+    }
+
+    /**
+     * Deletes the temporary file if finish() did not succeed
+     */
+    @Override
+    public void close() {
+        if (this.finished)
+            return;
+        try {
+            this.writer.close();
+        } catch (XMLStreamException e) {
+            // already closed
+        }
+        try {
+            this.os.close();
+            Files.deleteIfExists(this.tmp);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Writes a whole Testsuites tree, for when it is already in memory
+     *
+     * @param tsuites the xunit to write
+     * @param reportPath where to write it
+     */
+    public static void write(Testsuites tsuites, File reportPath) {
+        try (XUnitWriter writer = new XUnitWriter(reportPath)) {
+            writer.startTestsuites(tsuites);
+            for (Testsuite ts : tsuites.getTestsuite()) {
+                writer.startTestsuite(ts);
+                ts.getTestcase().forEach(writer::writeTestcase);
+                writer.endTestsuite();
+            }
+            writer.finish();
+        }
+    }
+
+    /**
+     * Copies the element the reader is on, re-indenting it.  Whitespace between elements is dropped, and an element
+     * with text is written like in content().
+     */
+    private void copyElement(XMLStreamReader rdr) throws XMLStreamException {
+        this.start(rdr.getLocalName());
+        for (int i = 0; i < rdr.getAttributeCount(); i++)
+            this.attribute(rdr.getAttributeLocalName(i), rdr.getAttributeValue(i));
+        StringBuilder text = null;
+        while (rdr.hasNext()) {
+            int event = rdr.next();
+            if (event == XMLStreamConstants.START_ELEMENT)
+                this.copyElement(rdr);
+            else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA) {
+                if (!rdr.isWhiteSpace() || text != null) {
+                    text = text == null ? new StringBuilder() : text;
+                    text.append(rdr.getText());
+                }
+            }
+            else if (event == XMLStreamConstants.END_ELEMENT) {
+                if (text != null)
+                    this.content(text.toString());
+                else
+                    this.end();
+                return;
+            }
+        }
+    }
+
+    private void writeProperties(Properties props) throws XMLStreamException {
+        if (props == null)
+            return;
+        List<Property> properties = props.getProperty();
+        if (properties.isEmpty())
+            return;
+        this.start("properties");
+        for (Property p : properties) {
+            this.newline();
+            this.writer.writeEmptyElement("property");
+            this.attribute("name", p.getName());
+            this.attribute("value", p.getValue());
+        }
+        this.end();
+    }
+
+    private void start(String name) throws XMLStreamException {
+        this.newline();
+        this.writer.writeStartElement(name);
+        this.depth++;
+        this.childless = true;
+    }
+
+    private void end() throws XMLStreamException {
+        this.depth--;
+        if (!this.childless)
+            this.newline();
+        this.writer.writeEndElement();
+        this.childless = false;
+    }
+
+    /**
+     * Writes text as the content of the element that was just started, and ends it
+     */
+    private void content(String text) throws XMLStreamException {
+        if (text != null)
+            this.writer.writeCharacters(text);
+        this.depth--;
+        this.writer.writeEndElement();
+        this.childless = false;
+    }
+
+    private void text(String name, String text) throws XMLStreamException {
+        this.start(name);
+        this.content(text);
+    }
+
+    private void attribute(String name, String value) throws XMLStreamException {
+        if (value != null)
+            this.writer.writeAttribute(name, value);
+    }
+
+    private void newline() throws XMLStreamException {
+        this.childless = false;
+        this.writer.writeCharacters("\n");
+        for (int i = 0; i < this.depth; i++)
+            this.writer.writeCharacters(indent);
+    }
+
+    private XMLDescriptonCreationError fail(Exception e) {
+        e.printStackTrace();
+        this.close();
+        return new XMLDescriptonCreationError();
+    }
+}
@@ -0,0 +1,323 @@
+package com.github.redhatqe.polarize.mapping;
+
+import com.github.redhatqe.polarize.IdParams;
+import com.github.redhatqe.polarize.exceptions.MappingError;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Field;
+import java.util.*;
+
+/**
+ * A mapping that was compiled into the test classes, so that nothing has to be parsed when the tests run
+ *
+ * When the polarize.processor.generateIndex system property is true, the TestDefinitionProcessor generates the
+ * {@link #className} class (see {@link #generateSource(Map, String)}) from the mapping it just wrote.  Since javac
+ * compiles it with the tests, the mapping in it always matches the compiled test methods.  At runtime,
+ * {@link #find()} loads it if it is on the classpath, unless polarize.mapping.compiled is false.
+ *
+ * The generated class only holds constants, so it does not depend on polarize:
+ * - SOURCE: the mapping file it was generated from
+ * - SIZE: the number of methods
+ * - SLOTS: the size of the hash table
+ * - SEEDS: one char per bucket of the perfect hash, split into chunks of at most {@link #chunkSize} chars
+ * - TABLE: one record per slot, separated by {@link #RS}, split into chunks like SEEDS
+ *
+ * A record is empty for an unused slot, otherwise its fields are separated by {@link #US}: the qualified name, the
+ * number of projects, and for each project its name, the Polarion ID, the number of parameters and the parameters.
+ * A method is looked up by hashing its name (seed 0) to a bucket, and hashing it again with the seed of the bucket to
+ * its slot.  The seeds are chosen when generating so that no two methods share a slot, so a lookup costs 2 hashes of
+ * the name and 1 String compare.  The constants are strings rather than arrays since the static initializer of a
+ * class may only be 64KB, which arrays of a few thousand methods would already overflow.
+ */
+public class CompiledMapping implements MappingLookup {
+    private static final Logger logger = LoggerFactory.getLogger(CompiledMapping.class);
+    public static final String className = "com.github.redhatqe.polarize.generated.PolarizeMappingIndex";
+    public static final String generateProperty = "polarize.processor.generateIndex";
+    public static final String compiledProperty = "polarize.mapping.compiled";
+    public static final char RS = '\u001e';
+    public static final char US = '\u001f';
+    public static final int chunkSize = 8192;
+    private static final int maxSeed = 0xFFFE;
+    private static final int bucketSize = 4;
+    private static Optional<CompiledMapping> found = null;
+
+    private final String source;
+    private final int size;
+    private final String seeds;
+    private final String[] keys;
+    private final List<Map<String, IdParams>> values;
+
+    private CompiledMapping(String source, int size, String seeds, String[] keys,
+                            List<Map<String, IdParams>> values) {
+        this.source = source;
+        this.size = size;
+        this.seeds = seeds;
+        this.keys = keys;
+        this.values = values;
+    }
+
+    /**
+     * FNV-1a of the chars of s, started from the seed and then mixed, so that every seed gives a different hash
+     */
+    static int hash(String s, int seed) {
+        int h = 0x811C9DC5 ^ (seed * 0x9E3779B9);
+        for (int i = 0; i < s.length(); i++)
+            h = (h ^ s.charAt(i)) * 0x01000193;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h & 0x7FFFFFFF;
+    }
+
+    private static int slot(String qual, String seeds, int slots) {
+        int bucket = hash(qual, 0) % seeds.length();
+        return hash(qual, seeds.charAt(bucket) + 1) % slots;
+    }
+
+    /**
+     * The generated class is only looked for and decoded once per JVM
+     *
+     * @return the compiled mapping, or empty if the generated class is not on the classpath (or is disabled)
+     */
+    public static synchronized Optional<CompiledMapping> find() {
+        if (!Boolean.parseBoolean(System.getProperty(compiledProperty, "true")))
+            return Optional.empty();
+        if (found == null)
+            found = CompiledMapping.load();
+        return found;
+    }
+
+    private static Optional<CompiledMapping> load() {
+        Class<?> cls;
+        try {
+            ClassLoader cl = Thread.currentThread().getContextClassLoader();
+            if (cl == null)
+                cl = CompiledMapping.class.getClassLoader();
+            cls = Class.forName(className, true, cl);
+        } catch (ClassNotFoundException e) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(CompiledMapping.fromClass(cls));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            logger.error(String.format("%s could not be read, falling back to the mapping file", className));
+            e.printStackTrace();
+            return Optional.empty();
+        }
+    }
+
+    static CompiledMapping fromClass(Class<?> cls) throws ReflectiveOperationException {
+        String source = (String) CompiledMapping.constant(cls, "SOURCE");
+        int size = (Integer) CompiledMapping.constant(cls, "SIZE");
+        int slots = (Integer) CompiledMapping.constant(cls, "SLOTS");
+        String seeds = String.join("", (String[]) CompiledMapping.constant(cls, "SEEDS"));
+        String table = String.join("", (String[]) CompiledMapping.constant(cls, "TABLE"));
+        CompiledMapping cm = CompiledMapping.decode(source, size, slots, seeds, table);
+        logger.info(String.format("Using the compiled mapping of %d methods generated from %s", size, source));
+        return cm;
+    }
+
+    private static Object constant(Class<?> cls, String name) throws ReflectiveOperationException {
+        Field f = cls.getField(name);
+        return f.get(null);
+    }
+
+    private static CompiledMapping decode(String source, int size, int slots, String seeds, String table) {
+        String[] keys = new String[slots];
+        List<Map<String, IdParams>> values = new ArrayList<>(Collections.nCopies(slots, null));
+        int pos = 0;
+        for (int s = 0; s < slots; s++) {
+            int end = table.indexOf(RS, pos);
+            if (end < 0)
+                end = table.length();
+            if (end > pos) {
+                String[] fields = table.substring(pos, end).split(String.valueOf(US), -1);
+                int f = 0;
+                keys[s] = fields[f++];
+                int projects = Integer.parseInt(fields[f++]);
+                Map<String, IdParams> inner = new HashMap<>(projects * 2);
+                for (int p = 0; p < projects; p++) {
+                    String project = fields[f++];
+                    String id = fields[f++];
+                    int nParams = Integer.parseInt(fields[f++]);
+                    List<String> params = new ArrayList<>(nParams);
+                    for (int i = 0; i < nParams; i++)
+                        params.add(fields[f++]);
+                    inner.put(project, new IdParams(id, params));
+                }
+                values.set(s, Collections.unmodifiableMap(inner));
+            }
+            pos = end + 1;
+        }
+        return new CompiledMapping(source, size, seeds, keys, values);
+    }
+
+    @Override
+    public Map<String, IdParams> getMethod(String qual) {
+        if (this.keys.length == 0)
+            return null;
+        int s = CompiledMapping.slot(qual, this.seeds, this.keys.length);
+        return qual.equals(this.keys[s]) ? this.values.get(s) : null;
+    }
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    public String getSource() {
+        return this.source;
+    }
+
+    /**
+     * Finds a seed for each bucket so that every method gets a slot of its own
+     *
+     * The biggest buckets are placed first, while most of the slots are still free.  If some bucket can not be
+     * placed, the table is grown by a quarter and everything is placed again.
+     *
+     * @param quals the qualified names of the methods
+     * @return the table of slots (with the name of the method in each used slot), and the seed of each bucket
+     */
+    private static Map.Entry<String[], String> place(List<String> quals) {
+        int n = quals.size();
+        int buckets = Math.max(1, (n + bucketSize - 1) / bucketSize);
+        int slots = Math.max(1, n + n / 4);
+        for (int attempt = 0; attempt < 8; attempt++, slots += Math.max(1, slots / 4)) {
+            List<List<String>> byBucket = new ArrayList<>(buckets);
+            for (int b = 0; b < buckets; b++)
+                byBucket.add(new ArrayList<>());
+            for (String q : quals)
+                byBucket.get(hash(q, 0) % buckets).add(q);
+            Integer[] order = new Integer[buckets];
+            for (int b = 0; b < buckets; b++)
+                order[b] = b;
+            Arrays.sort(order, (a, b) -> byBucket.get(b).size() - byBucket.get(a).size());
+
+            String[] table = new String[slots];
+            char[] seeds = new char[buckets];
+            Boolean placed = true;
+            for (int b : order) {
+                List<String> members = byBucket.get(b);
+                if (members.isEmpty())
+                    break;
+                int seed = CompiledMapping.findSeed(members, table);
+                if (seed < 0) {
+                    placed = false;
+                    break;
+                }
+                seeds[b] = (char) seed;
+                for (String q : members)
+                    table[hash(q, seed + 1) % slots] = q;
+            }
+            if (placed)
+                return new AbstractMap.SimpleEntry<>(table, new String(seeds));
+            logger.debug(String.format("Could not place %d methods in %d slots, growing the table", n, slots));
+        }
+        throw new MappingError("Could not find a perfect hash for the mapping");
+    }
+
+    private static int findSeed(List<String> members, String[] table) {
+        int slots = table.length;
+        int[] taken = new int[members.size()];
+        for (int seed = 0; seed <= maxSeed; seed++) {
+            Boolean ok = true;
+            for (int i = 0; i < members.size() && ok; i++) {
+                int s = hash(members.get(i), seed + 1) % slots;
+                if (table[s] != null)
+                    ok = false;
+                for (int j = 0; j < i && ok; j++)
+                    ok = taken[j] != s;
+                taken[i] = s;
+            }
+            if (ok)
+                return seed;
+        }
+        return -1;
+    }
+
+    /**
+     * Generates the Java source of the {@link #className} class
+     *
+     * @param mapping map of qualified method name to project to IdParams
+     * @param source the mapping file it comes from (only recorded, for the logs)
+     * @return the source of the class
+     * @throws MappingError if a name or parameter contains one of the separator chars
+     */
+    public static String generateSource(Map<String, Map<String, IdParams>> mapping, String source) {
+        List<String> quals = new ArrayList<>(new TreeSet<>(mapping.keySet()));
+        Map.Entry<String[], String> placed = CompiledMapping.place(quals);
+        String[] slots = placed.getKey();
+
+        StringBuilder table = new StringBuilder();
+        for (int s = 0; s < slots.length; s++) {
+            if (s > 0)
+                table.append(RS);
+            String qual = slots[s];
+            if (qual == null)
+                continue;
+            Map<String, IdParams> inner = new TreeMap<>(mapping.get(qual));
+            List<String> fields = new ArrayList<>();
+            fields.add(qual);
+            fields.add(Integer.toString(inner.size()));
+            inner.forEach((project, ip) -> {
+                List<String> params = ip.getParameters() == null ? new ArrayList<>() : ip.getParameters();
+                fields.add(project);
+                fields.add(ip.getId() == null ? "" : ip.getId());
+                fields.add(Integer.toString(params.size()));
+                fields.addAll(params);
+            });
+            for (String field : fields) {
+                if (field.indexOf(RS) >= 0 || field.indexOf(US) >= 0)
+                    throw new MappingError(String.format("%s of %s has a separator char in it", field, qual));
+            }
+            table.append(String.join(String.valueOf(US), fields));
+        }
+
+        int dot = className.lastIndexOf('.');
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("package %s;\n\n", className.substring(0, dot)));
+        sb.append("/**\n");
+        sb.append(" * Generated by polarize from the mapping file.  Do not edit, it is rewritten at every compile.\n");
+        sb.append(" */\n");
+        sb.append(String.format("public final class %s {\n", className.substring(dot + 1)));
+        sb.append(String.format("    public static final String SOURCE = %s;\n", CompiledMapping.literal(source)));
+        sb.append(String.format("    public static final int SIZE = %d;\n", quals.size()));
+        sb.append(String.format("    public static final int SLOTS = %d;\n", slots.length));
+        CompiledMapping.appendChunks(sb, "SEEDS", placed.getValue());
+        CompiledMapping.appendChunks(sb, "TABLE", table.toString());
+        sb.append(String.format("\n    private %s() {\n    }\n}\n", className.substring(dot + 1)));
+        return sb.toString();
+    }
+
+    private static void appendChunks(StringBuilder sb, String name, String value) {
+        sb.append(String.format("    public static final String[] %s = {\n", name));
+        for (int i = 0; i < value.length(); i += chunkSize) {
+            String chunk = value.substring(i, Math.min(value.length(), i + chunkSize));
+            sb.append("        ").append(CompiledMapping.literal(chunk)).append(",\n");
+        }
+        sb.append("    };\n");
+    }
+
+    /**
+     * Control chars are written as octal escapes, since javac turns a unicode escape of eg a newline into an actual
+     * newline before it parses the string
+     */
+    private static String literal(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\')
+                sb.append('\\').append(c);
+            else if (c < 0x20)
+                sb.append(String.format("\\%03o", (int) c));
+            else if (c > 0x7E)
+                sb.append(String.format("\\u%04x", (int) c));
+            else
+                sb.append(c);
+        }
+        return sb.append('"').toString();
+    }
+}
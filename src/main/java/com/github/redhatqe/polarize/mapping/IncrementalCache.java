@@ -0,0 +1,293 @@
+package com.github.redhatqe.polarize.mapping;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.redhatqe.polarize.IdParams;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A persistent record of what the TestDefinitionProcessor generated for every method, used to skip unchanged methods
+ *
+ * For each method and project the cache stores a hash of everything the generated XML description is derived from
+ * (the annotation values, the method parameters, the resolved description and title), along with a hash of the XML
+ * file that was generated and the Polarion ID it ended up with.  If on the next compile the input hash is the same,
+ * the XML file on disk still has the recorded hash, and the mapping file still has the recorded ID, then processing
+ * the method again would not change anything and it can be skipped.
+ *
+ * The cache lives next to the mapping file (eg mapping.json.cache) and is only a hint: if it is missing, unreadable or
+ * from a different version, every method is simply processed again.  Incremental processing can be turned off with
+ * -Dpolarize.incremental=false
+ *
+ * This is independent of Gradle's incremental compilation: the processor is not registered as an incremental
+ * annotation processor, since it writes the XML descriptions and the mapping file outside of the Filer, and Gradle
+ * would reprocess types from class files where the parameter names (part of the hash) are arg0, arg1, ... unless
+ * compiled with -parameters.  So every compile sees all the annotated methods, and the entries of the methods that
+ * are gone are dropped with {@link #retain(Map)}.
+ */
+public class IncrementalCache {
+    private static final Logger logger = LoggerFactory.getLogger(IncrementalCache.class);
+    public static final String cacheSuffix = ".cache";
+    public static final String enabledProperty = "polarize.incremental";
+    private static final int version = 1;
+
+    private final File cachePath;
+    private final ObjectMapper mapper = new ObjectMapper();
+    // qualified name -> project -> entry
+    private final Map<String, Map<String, Entry>> entries = new ConcurrentHashMap<>();
+    private Boolean dirty = false;
+
+    public static class Entry {
+        public final String hash;
+        public final String xmlHash;
+        public final String id;
+
+        public Entry(String hash, String xmlHash, String id) {
+            this.hash = hash;
+            this.xmlHash = xmlHash;
+            this.id = id;
+        }
+    }
+
+    private IncrementalCache(File cachePath) {
+        this.cachePath = cachePath;
+    }
+
+    /**
+     * @return true unless incremental processing was turned off with -Dpolarize.incremental=false
+     */
+    public static Boolean isEnabled() {
+        return Boolean.parseBoolean(System.getProperty(enabledProperty, "true"));
+    }
+
+    /**
+     * Loads the cache belonging to a mapping file
+     *
+     * @param mapPath path to the mapping.json file
+     * @return the cache, which is empty if there was no (usable) cache file
+     */
+    public static IncrementalCache forMapping(File mapPath) {
+        IncrementalCache cache = new IncrementalCache(new File(mapPath.getPath() + cacheSuffix));
+        if (!IncrementalCache.isEnabled() || !cache.cachePath.exists())
+            return cache;
+
+        try {
+            JsonNode root = cache.mapper.readTree(cache.cachePath);
+            if (root == null || root.path("version").asInt() != version) {
+                logger.info(String.format("Ignoring %s from a different version", cache.cachePath));
+                return cache;
+            }
+            root.path("methods").fields().forEachRemaining(meth -> meth.getValue().fields().forEachRemaining(proj -> {
+                JsonNode e = proj.getValue();
+                Entry entry = new Entry(e.path("hash").asText(), e.path("xmlHash").asText(), e.path("id").asText());
+                cache.entries.computeIfAbsent(meth.getKey(), k -> new ConcurrentHashMap<>()).put(proj.getKey(), entry);
+            }));
+        } catch (IOException e) {
+            logger.warn(String.format("Could not read %s, processing all methods", cache.cachePath));
+            cache.entries.clear();
+        }
+        return cache;
+    }
+
+    public File getCachePath() {
+        return this.cachePath;
+    }
+
+    /**
+     * Checks if a method can be skipped
+     *
+     * @param qual qualified name of the method
+     * @param project project of the method
+     * @param hash the current hash of the method (see {@link #hash(Annotation, List, String...)})
+     * @param xmlDesc the XML description file of the method
+     * @param mapping the current mapping
+     * @return true if nothing that processing the method depends on has changed since it was last processed
+     */
+    public Boolean isUnchanged(String qual, String project, String hash, File xmlDesc,
+                               Map<String, Map<String, IdParams>> mapping) {
+        if (!IncrementalCache.isEnabled())
+            return false;
+        Map<String, Entry> projects = this.entries.get(qual);
+        Entry entry = projects == null ? null : projects.get(project);
+        if (entry == null || entry.id.equals("") || !entry.hash.equals(hash))
+            return false;
+
+        Map<String, IdParams> mapped = mapping.get(qual);
+        IdParams ip = mapped == null ? null : mapped.get(project);
+        if (ip == null || !entry.id.equals(ip.getId()))
+            return false;
+
+        return xmlDesc.exists() && entry.xmlHash.equals(IncrementalCache.hashFile(xmlDesc));
+    }
+
+    /**
+     * Records the state of a method after it has been processed
+     *
+     * Methods that did not end up with a Polarion ID are forgotten, so that they are processed again next time.
+     *
+     * @param qual qualified name of the method
+     * @param project project of the method
+     * @param hash the hash of the method that was processed
+     * @param xmlDesc the XML description file that was generated for the method
+     * @param id the Polarion ID of the method
+     */
+    public void update(String qual, String project, String hash, File xmlDesc, String id) {
+        Map<String, Entry> projects = this.entries.computeIfAbsent(qual, k -> new ConcurrentHashMap<>());
+        if (id == null || id.equals("") || !xmlDesc.exists())
+            projects.remove(project);
+        else
+            projects.put(project, new Entry(hash, IncrementalCache.hashFile(xmlDesc), id));
+        this.dirty = true;
+    }
+
+    /**
+     * Forgets the entries of the methods and projects that are no longer annotated, eg because they were deleted
+     *
+     * @param current map of qualified name -> project -> anything, holding every method that is still annotated
+     */
+    public void retain(Map<String, ? extends Map<String, ?>> current) {
+        this.entries.forEach((qual, projects) -> {
+            Map<String, ?> now = current.get(qual);
+            if (now == null ? !projects.isEmpty() : projects.keySet().retainAll(now.keySet()))
+                this.dirty = true;
+            if (now == null || projects.isEmpty())
+                this.entries.remove(qual);
+        });
+    }
+
+    /**
+     * Writes the cache (sorted, so that it does not churn between runs) if it was changed
+     */
+    public synchronized void save() {
+        if (!this.dirty || !IncrementalCache.isEnabled())
+            return;
+
+        ObjectNode root = this.mapper.createObjectNode();
+        root.put("version", version);
+        ObjectNode methods = root.putObject("methods");
+        new TreeMap<>(this.entries).forEach((qual, projects) -> {
+            if (projects.isEmpty())
+                return;
+            ObjectNode meth = methods.putObject(qual);
+            new TreeMap<>(projects).forEach((project, entry) -> {
+                ObjectNode e = meth.putObject(project);
+                e.put("hash", entry.hash);
+                e.put("xmlHash", entry.xmlHash);
+                e.put("id", entry.id);
+            });
+        });
+
+        Path target = this.cachePath.toPath();
+        Path tmp = Paths.get(this.cachePath.getPath() + ".tmp");
+        try {
+            this.mapper.writer().withDefaultPrettyPrinter().writeValue(tmp.toFile(), root);
+            try {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            this.dirty = false;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Hashes the values of an annotation, the names of the method parameters and any other strings the generated XML
+     * depends on
+     *
+     * @param ann the annotation (eg a TestDefinition)
+     * @param params the names of the parameters of the annotated method
+     * @param others any other inputs, eg the resolved description and title
+     * @return hex encoded SHA-256 of the inputs
+     */
+    public static String hash(Annotation ann, List<String> params, String... others) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("v").append(version).append('\n');
+        IncrementalCache.render(ann, sb);
+        sb.append('\n').append(params == null ? "" : String.join(",", params));
+        for (String o : others)
+            sb.append('\n').append(o == null ? "" : o);
+        return IncrementalCache.hex(IncrementalCache.digest().digest(sb.toString().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * @param file file to hash
+     * @return hex encoded SHA-256 of the file, or "" if it could not be read
+     */
+    public static String hashFile(File file) {
+        try {
+            return IncrementalCache.hex(IncrementalCache.digest().digest(Files.readAllBytes(file.toPath())));
+        } catch (IOException e) {
+            return "";
+        }
+    }
+
+    /**
+     * Writes out the values of an annotation in the order of its member names
+     *
+     * Annotation.toString() is not used since its format is up to the implementation (eg the compiler's proxies).
+     */
+    private static void render(Object value, StringBuilder sb) {
+        if (value == null)
+            sb.append("null");
+        else if (value instanceof Annotation) {
+            Annotation ann = (Annotation) value;
+            Method[] members = ann.annotationType().getDeclaredMethods();
+            Arrays.sort(members, Comparator.comparing(Method::getName));
+            sb.append('@').append(ann.annotationType().getName()).append('(');
+            for (Method m : members) {
+                sb.append(m.getName()).append('=');
+                try {
+                    IncrementalCache.render(m.invoke(ann), sb);
+                } catch (ReflectiveOperationException | RuntimeException e) {
+                    // eg a MirroredTypeException for a Class valued member
+                    sb.append('!').append(e.getClass().getSimpleName());
+                }
+                sb.append(';');
+            }
+            sb.append(')');
+        }
+        else if (value.getClass().isArray()) {
+            sb.append('[');
+            for (int i = 0; i < Array.getLength(value); i++) {
+                IncrementalCache.render(Array.get(value, i), sb);
+                sb.append(',');
+            }
+            sb.append(']');
+        }
+        else {
+            // Length prefixed, so that no value can run into the next one
+            String str = value.toString();
+            sb.append(str.length()).append(':').append(str);
+        }
+    }
+
+    private static MessageDigest digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes)
+            sb.append(String.format("%02x", b));
+        return sb.toString();
+    }
+}
@@ -0,0 +1,257 @@
+package com.github.redhatqe.polarize.mapping;
+
+import com.github.redhatqe.polarize.IdParams;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A mapping of qualified method name -> project -> IdParams, which also keeps secondary indexes over itself
+ *
+ * Besides the mapping itself, three indexes are kept:
+ *
+ * - the reverse ID index, from a Polarion ID to the method(s) and project(s) it is mapped to
+ * - for every project, the sorted set of methods mapped in it
+ * - for every project, the sorted set of methods mapped in it without an ID
+ *
+ * so that questions like "which method is RHEL7-56743?" or "which methods in RedHatEnterpriseLinux7 have no ID yet?"
+ * do not need a scan of the whole mapping.
+ *
+ * Adding or removing a method through {@link #put(String, Map)} or {@link #remove(Object)} updates the indexes.  The
+ * IdParams and the inner project maps are however edited in place (eg by TestDefinitionProcessor.addToMapFile), so
+ * whoever edits them has to call {@link #reindex(String, String)} afterwards.  Each update is O(log n).
+ *
+ * Every method and project that was put, removed or reindexed since the mapping was indexed (or since
+ * {@link #clearDirty()}) is remembered as dirty, so that an unchanged mapping does not have to be written back.
+ */
+public class IndexedMapping extends AbstractMap<String, Map<String, IdParams>> {
+    private final Map<String, Map<String, IdParams>> mapping;
+    private final Boolean concurrent;
+
+    private final Map<String, Set<Location>> byId = new HashMap<>();
+    private final Map<Location, String> indexedIds = new HashMap<>();
+    private final Map<String, NavigableSet<String>> byProject = new HashMap<>();
+    private final Map<String, NavigableSet<String>> missing = new HashMap<>();
+    private final Set<Location> dirty = new HashSet<>();
+
+    /**
+     * A method in a project
+     */
+    public static class Location implements Comparable<Location> {
+        public final String qual;
+        public final String project;
+
+        public Location(String qual, String project) {
+            this.qual = qual;
+            this.project = project;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Location))
+                return false;
+            Location other = (Location) o;
+            return this.qual.equals(other.qual) && this.project.equals(other.project);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * this.qual.hashCode() + this.project.hashCode();
+        }
+
+        @Override
+        public int compareTo(Location other) {
+            int c = this.qual.compareTo(other.qual);
+            return c != 0 ? c : this.project.compareTo(other.project);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s (%s)", this.qual, this.project);
+        }
+    }
+
+    public IndexedMapping(Map<String, Map<String, IdParams>> mapping) {
+        this(mapping, false);
+    }
+
+    /**
+     * Copies the method and project maps of mapping (but not the IdParams themselves) and indexes them
+     *
+     * Nothing is dirty afterwards, unless mapping is itself an IndexedMapping with dirty entries.
+     *
+     * @param mapping map of qualified method name -> project -> IdParams
+     * @param concurrent if true, the copies are ConcurrentHashMaps so that they can be shared between threads
+     */
+    public IndexedMapping(Map<String, Map<String, IdParams>> mapping, Boolean concurrent) {
+        this.concurrent = concurrent;
+        this.mapping = concurrent ? new ConcurrentHashMap<>() : new HashMap<>();
+        mapping.forEach((qual, projects) ->
+                this.put(qual, concurrent ? new ConcurrentHashMap<>(projects) : new HashMap<>(projects)));
+        this.dirty.clear();
+        if (mapping instanceof IndexedMapping)
+            this.dirty.addAll(((IndexedMapping) mapping).getDirty());
+    }
+
+    /**
+     * @return true if the method and project maps are ConcurrentHashMaps
+     */
+    public Boolean isConcurrent() {
+        return this.concurrent;
+    }
+
+    @Override
+    public Map<String, IdParams> get(Object qual) {
+        return this.mapping.get(qual);
+    }
+
+    @Override
+    public boolean containsKey(Object qual) {
+        return this.mapping.containsKey(qual);
+    }
+
+    @Override
+    public int size() {
+        return this.mapping.size();
+    }
+
+    @Override
+    public Set<Entry<String, Map<String, IdParams>>> entrySet() {
+        return Collections.unmodifiableSet(this.mapping.entrySet());
+    }
+
+    @Override
+    public synchronized Map<String, IdParams> put(String qual, Map<String, IdParams> projects) {
+        Map<String, IdParams> previous = this.mapping.put(qual, projects);
+        if (previous != null)
+            previous.keySet().forEach(project -> this.unindex(new Location(qual, project)));
+        projects.keySet().forEach(project -> this.reindex(qual, project));
+        return previous;
+    }
+
+    @Override
+    public synchronized Map<String, IdParams> remove(Object qual) {
+        Map<String, IdParams> previous = this.mapping.remove(qual);
+        if (previous != null)
+            previous.keySet().forEach(project -> {
+                Location loc = new Location((String) qual, project);
+                this.unindex(loc);
+                this.dirty.add(loc);
+            });
+        return previous;
+    }
+
+    @Override
+    public synchronized void clear() {
+        this.mapping.clear();
+        this.byId.clear();
+        this.indexedIds.clear();
+        this.byProject.clear();
+        this.missing.clear();
+        this.dirty.clear();
+    }
+
+    /**
+     * Brings the indexes for a method in a project up to date with its IdParams in the mapping
+     *
+     * @param qual qualified name of the method
+     * @param project the project of the IdParams that was added, edited or removed
+     */
+    public synchronized void reindex(String qual, String project) {
+        Location loc = new Location(qual, project);
+        this.unindex(loc);
+        this.dirty.add(loc);
+        Map<String, IdParams> inner = this.mapping.get(qual);
+        IdParams ip = inner == null ? null : inner.get(project);
+        if (ip == null)
+            return;
+
+        String id = ip.getId() == null ? "" : ip.getId();
+        this.indexedIds.put(loc, id);
+        this.byProject.computeIfAbsent(project, p -> new TreeSet<>()).add(qual);
+        if (id.isEmpty())
+            this.missing.computeIfAbsent(project, p -> new TreeSet<>()).add(qual);
+        else
+            this.byId.computeIfAbsent(id, i -> new TreeSet<>()).add(loc);
+    }
+
+    private void unindex(Location loc) {
+        String id = this.indexedIds.remove(loc);
+        if (id == null)
+            return;
+        IndexedMapping.removeFrom(this.byProject, loc.project, loc.qual);
+        if (id.isEmpty())
+            IndexedMapping.removeFrom(this.missing, loc.project, loc.qual);
+        else
+            IndexedMapping.removeFrom(this.byId, id, loc);
+    }
+
+    private static <K, V> void removeFrom(Map<K, ? extends Set<V>> index, K key, V value) {
+        Set<V> values = index.get(key);
+        if (values == null)
+            return;
+        values.remove(value);
+        if (values.isEmpty())
+            index.remove(key);
+    }
+
+    /**
+     * @param id a Polarion TestCase ID
+     * @return the methods and projects the ID is mapped to.  This is normally one, but can be more if the mapping file
+     *         was edited by hand
+     */
+    public synchronized SortedSet<Location> findById(String id) {
+        Set<Location> found = this.byId.get(id);
+        return found == null ? Collections.emptySortedSet() : new TreeSet<>(found);
+    }
+
+    /**
+     * @param project the Polarion project
+     * @return the sorted qualified names of the methods mapped in project
+     */
+    public synchronized SortedSet<String> methodsIn(String project) {
+        NavigableSet<String> found = this.byProject.get(project);
+        return found == null ? Collections.emptySortedSet() : new TreeSet<>(found);
+    }
+
+    /**
+     * @param project the Polarion project
+     * @return the sorted qualified names of the methods mapped in project with an empty ID
+     */
+    public synchronized SortedSet<String> missingIds(String project) {
+        NavigableSet<String> found = this.missing.get(project);
+        return found == null ? Collections.emptySortedSet() : new TreeSet<>(found);
+    }
+
+    /**
+     * @return the sorted projects that have at least one method mapped in them
+     */
+    public synchronized SortedSet<String> getProjects() {
+        return new TreeSet<>(this.byProject.keySet());
+    }
+
+    /**
+     * @return the sorted methods and projects that were edited since the mapping was indexed or last cleared
+     */
+    public synchronized SortedSet<Location> getDirty() {
+        return new TreeSet<>(this.dirty);
+    }
+
+    public synchronized Boolean isDirty() {
+        return !this.dirty.isEmpty();
+    }
+
+    /**
+     * Forgets the dirty entries, eg once the mapping has been written back
+     */
+    public synchronized void clearDirty() {
+        this.dirty.clear();
+    }
+
+    /**
+     * @return the number of distinct IDs in the mapping
+     */
+    public synchronized int countIds() {
+        return this.byId.size();
+    }
+}
@@ -0,0 +1,122 @@
+package com.github.redhatqe.polarize.mapping;
+
+import com.github.redhatqe.polarize.IdParams;
+
+import java.util.*;
+
+/**
+ * The structural difference between two mappings, per method and project
+ *
+ * An entry is changed if its ID or its parameters differ.  The changes are sorted by method and project, so the same
+ * two mappings always give the same diff.
+ */
+public class MappingDiff {
+    private final List<Change> added = new ArrayList<>();
+    private final List<Change> removed = new ArrayList<>();
+    private final List<Change> changed = new ArrayList<>();
+
+    /**
+     * The IdParams of a method in a project before and after.  before is null if it was added, and after is null if
+     * it was removed
+     */
+    public static class Change {
+        public final String qual;
+        public final String project;
+        public final IdParams before;
+        public final IdParams after;
+
+        Change(String qual, String project, IdParams before, IdParams after) {
+            this.qual = qual;
+            this.project = project;
+            this.before = before;
+            this.after = after;
+        }
+
+        private static String show(IdParams ip) {
+            String id = ip.getId() == null || ip.getId().isEmpty() ? "(no ID)" : ip.getId();
+            return String.format("%s %s", id, ip.getParameters());
+        }
+
+        @Override
+        public String toString() {
+            if (this.before == null)
+                return String.format("+ %s (%s): %s", this.qual, this.project, Change.show(this.after));
+            if (this.after == null)
+                return String.format("- %s (%s): %s", this.qual, this.project, Change.show(this.before));
+            return String.format("~ %s (%s): %s -> %s", this.qual, this.project, Change.show(this.before),
+                    Change.show(this.after));
+        }
+    }
+
+    /**
+     * @param before the mapping as it was, eg as it is on disk
+     * @param after the mapping as it is now
+     * @return the entries that were added, removed or changed going from before to after
+     */
+    public static MappingDiff between(Map<String, Map<String, IdParams>> before,
+                                      Map<String, Map<String, IdParams>> after) {
+        MappingDiff diff = new MappingDiff();
+        SortedSet<String> quals = new TreeSet<>(before.keySet());
+        quals.addAll(after.keySet());
+        for (String qual : quals) {
+            Map<String, IdParams> was = before.getOrDefault(qual, Collections.emptyMap());
+            Map<String, IdParams> now = after.getOrDefault(qual, Collections.emptyMap());
+            SortedSet<String> projects = new TreeSet<>(was.keySet());
+            projects.addAll(now.keySet());
+            for (String project : projects) {
+                IdParams old = was.get(project);
+                IdParams ip = now.get(project);
+                if (old == null)
+                    diff.added.add(new Change(qual, project, null, ip));
+                else if (ip == null)
+                    diff.removed.add(new Change(qual, project, old, null));
+                else if (!Objects.equals(old.getId(), ip.getId())
+                        || !Objects.equals(old.getParameters(), ip.getParameters()))
+                    diff.changed.add(new Change(qual, project, old, ip));
+            }
+        }
+        return diff;
+    }
+
+    /**
+     * Adds the changes of other, which should be about other projects or methods, to this diff
+     */
+    public void addAll(MappingDiff other) {
+        this.added.addAll(other.added);
+        this.removed.addAll(other.removed);
+        this.changed.addAll(other.changed);
+    }
+
+    public Boolean isEmpty() {
+        return this.added.isEmpty() && this.removed.isEmpty() && this.changed.isEmpty();
+    }
+
+    public List<Change> getAdded() {
+        return Collections.unmodifiableList(this.added);
+    }
+
+    public List<Change> getRemoved() {
+        return Collections.unmodifiableList(this.removed);
+    }
+
+    public List<Change> getChanged() {
+        return Collections.unmodifiableList(this.changed);
+    }
+
+    /**
+     * @return one line per change, in the order added, removed, changed
+     */
+    public List<String> lines() {
+        List<String> lines = new ArrayList<>();
+        this.added.forEach(c -> lines.add(c.toString()));
+        this.removed.forEach(c -> lines.add(c.toString()));
+        this.changed.forEach(c -> lines.add(c.toString()));
+        return lines;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d added, %d removed, %d changed", this.added.size(), this.removed.size(),
+                this.changed.size());
+    }
+}
@@ -0,0 +1,166 @@
+package com.github.redhatqe.polarize.mapping;
+
+import com.github.redhatqe.polarize.IdParams;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An in-memory, shareable view of a mapping.json file
+ *
+ * Parsing the mapping file is expensive, so rather than having every caller (the XUnitReporter, the Reflector and the
+ * TestDefinitionProcessor) call FileHelper.loadMapping on their own, they can ask for the shared index through
+ * {@link #forFile(File)}.  The index is keyed by qualified method name and then by project, exactly like the mapping
+ * file itself.  Each index remembers the modification time and size of the file (and of its {@link MappingStore}
+ * journal) it was built from, so that long-lived JVMs only reparse the file when it has actually changed on disk.
+ */
+public class MappingIndex implements MappingLookup {
+    private static final Logger logger = LoggerFactory.getLogger(MappingIndex.class);
+    private static final Map<String, MappingIndex> shared = new ConcurrentHashMap<>();
+
+    private final File path;
+    private final File source;
+    private final File journal;
+    private final long mtime;
+    private final long size;
+    private final long journalMtime;
+    private final long journalSize;
+    private final Map<String, Map<String, IdParams>> mapping;
+
+    private MappingIndex(File path, File source, File journal, long[] stats,
+                         Map<String, Map<String, IdParams>> mapping) {
+        this.path = path;
+        this.source = source;
+        this.journal = journal;
+        this.mtime = stats[0];
+        this.size = stats[1];
+        this.journalMtime = stats[2];
+        this.journalSize = stats[3];
+        this.mapping = mapping;
+    }
+
+    /**
+     * Parses the mapping file (replaying any pending journal edits) without consulting or updating the shared cache
+     *
+     * @param path path to a mapping.json file
+     * @return a new MappingIndex for path
+     */
+    public static MappingIndex load(File path) {
+        MappingStore store = MappingStore.forFile(path);
+        File journal = store.getJournalPath();
+        // Take the file stats before parsing, so that a concurrent write makes this index stale rather than lost.  In
+        // the sharded layout, the directory of the shards changes whenever a shard is (atomically) replaced
+        File source = store.getSourcePath();
+        long[] stats = {source.lastModified(), source.length(), journal.lastModified(), journal.length()};
+        long start = System.currentTimeMillis();
+        Map<String, Map<String, IdParams>> mapping = store.load();
+        logger.debug(String.format("Loaded %d methods from %s in %d ms", mapping.size(), path.toString(),
+                System.currentTimeMillis() - start));
+        return new MappingIndex(path, source, journal, stats, mapping);
+    }
+
+    /**
+     * Returns the shared MappingIndex for a mapping file, reloading it only if the file changed since it was parsed
+     *
+     * @param path path to a mapping.json file
+     * @return the shared MappingIndex for the file
+     */
+    public static MappingIndex forFile(File path) {
+        String key = MappingIndex.keyOf(path);
+        return shared.compute(key, (k, current) -> {
+            if (current != null && !current.isStale())
+                return current;
+            if (current != null)
+                logger.info(String.format("%s changed on disk, reloading", path.toString()));
+            return MappingIndex.load(path);
+        });
+    }
+
+    /**
+     * Drops the cached index for path so that the next call to forFile will reparse it
+     *
+     * This should be called by anything that writes the mapping file, since the mtime granularity of some file
+     * systems is too coarse to reliably notice a rewrite that happens within the same second.
+     *
+     * @param path path to a mapping.json file
+     */
+    public static void invalidate(File path) {
+        shared.remove(MappingIndex.keyOf(path));
+    }
+
+    private static String keyOf(File path) {
+        return path.getAbsoluteFile().toPath().normalize().toString();
+    }
+
+    /**
+     * @return true if the file this index was built from has been modified, created or deleted since
+     */
+    public Boolean isStale() {
+        return this.source.lastModified() != this.mtime || this.source.length() != this.size
+                || this.journal.lastModified() != this.journalMtime || this.journal.length() != this.journalSize;
+    }
+
+    public File getPath() {
+        return this.path;
+    }
+
+    @Override
+    public int size() {
+        return this.mapping.size();
+    }
+
+    /**
+     * @param qual qualified name of the method
+     * @return the map of project to IdParams for the method, or null if the method is not in the mapping
+     */
+    @Override
+    public Map<String, IdParams> getMethod(String qual) {
+        Map<String, IdParams> inner = this.mapping.get(qual);
+        return inner == null ? null : Collections.unmodifiableMap(inner);
+    }
+
+    @Override
+    public Optional<IdParams> get(String qual, String project) {
+        Map<String, IdParams> inner = this.mapping.get(qual);
+        if (inner == null)
+            return Optional.empty();
+        return Optional.ofNullable(inner.get(project));
+    }
+
+    /**
+     * @return a read-only view of the whole mapping
+     */
+    public Map<String, Map<String, IdParams>> getMapping() {
+        return Collections.unmodifiableMap(this.mapping);
+    }
+
+    /**
+     * Since the index is shared, callers that need to edit the mapping (like the TestDefinitionProcessor) should work
+     * on a copy of it rather than on the index itself.
+     *
+     * @return a deep, mutable copy of the mapping
+     */
+    public Map<String, Map<String, IdParams>> copy() {
+        return MappingIndex.copy(this.mapping);
+    }
+
+    /**
+     * @param mapping map of qualified name -> project -> IdParams
+     * @return a deep, mutable copy of mapping
+     */
+    public static Map<String, Map<String, IdParams>> copy(Map<String, Map<String, IdParams>> mapping) {
+        Map<String, Map<String, IdParams>> copied = new HashMap<>();
+        mapping.forEach((qual, inner) -> {
+            Map<String, IdParams> projects = new HashMap<>();
+            inner.forEach((project, ip) -> {
+                List<String> params = ip.parameters == null ? null : new ArrayList<>(ip.parameters);
+                projects.put(project, new IdParams(ip.id, params));
+            });
+            copied.put(qual, projects);
+        });
+        return copied;
+    }
+}
@@ -0,0 +1,50 @@
+package com.github.redhatqe.polarize.mapping;
+
+import com.github.redhatqe.polarize.IdParams;
+
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Read-only lookup of the IdParams of a method, which is all the XUnitReporter needs from a mapping
+ *
+ * It is implemented by {@link MappingIndex} (parsed from mapping.json) and by {@link CompiledMapping} (generated
+ * along with the tests by the TestDefinitionProcessor).
+ */
+public interface MappingLookup {
+    /**
+     * @param qual qualified name of the method
+     * @return the map of project to IdParams for the method, or null if the method is not in the mapping
+     */
+    Map<String, IdParams> getMethod(String qual);
+
+    /**
+     * @return number of methods in the mapping
+     */
+    int size();
+
+    /**
+     * @param mapping map of qualified method name -> project -> IdParams
+     * @return a lookup over mapping itself
+     */
+    static MappingLookup of(Map<String, Map<String, IdParams>> mapping) {
+        return new MappingLookup() {
+            @Override
+            public Map<String, IdParams> getMethod(String qual) {
+                return mapping.get(qual);
+            }
+
+            @Override
+            public int size() {
+                return mapping.size();
+            }
+        };
+    }
+
+    default Optional<IdParams> get(String qual, String project) {
+        Map<String, IdParams> inner = this.getMethod(qual);
+        if (inner == null)
+            return Optional.empty();
+        return Optional.ofNullable(inner.get(project));
+    }
+}
@@ -0,0 +1,85 @@
+package com.github.redhatqe.polarize.mapping;
+
+import com.github.redhatqe.polarize.IdParams;
+import com.github.redhatqe.polarize.configuration.XMLConfig;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedSet;
+
+/**
+ * Answers questions about a mapping file through an {@link IndexedMapping}
+ *
+ * Examples:
+ *
+ *   --id RHEL7-56743                                  which method (and project) is RHEL7-56743
+ *   --project RedHatEnterpriseLinux7                  all the methods mapped in the project
+ *   --project RedHatEnterpriseLinux7 --missing        the methods in the project without an ID
+ *   --missing                                         the methods without an ID, in every project
+ *   --method com.example.Tests.testFoo                the IDs and parameters of a method
+ *
+ * Without --mapping, the mapping file from the polarize-config.xml is used.  In the sharded layout (see
+ * {@link MappingShards}), only the shard of --project is loaded when it is given.
+ */
+public class MappingQuery {
+    public static void main(String[] args) {
+        OptionParser parser = new OptionParser();
+        OptionSpec<String> mappingOpt = parser.accepts("mapping").withRequiredArg().ofType(String.class);
+        OptionSpec<String> idOpt = parser.accepts("id").withRequiredArg().ofType(String.class);
+        OptionSpec<String> projectOpt = parser.accepts("project").withRequiredArg().ofType(String.class);
+        OptionSpec<String> methodOpt = parser.accepts("method").withRequiredArg().ofType(String.class);
+        parser.accepts("missing");
+
+        OptionSet opts = parser.parse(args);
+        File mapPath;
+        if (opts.has(mappingOpt))
+            mapPath = new File(opts.valueOf(mappingOpt));
+        else
+            mapPath = new File(new XMLConfig(null).getMappingPath());
+        MappingStore store = MappingStore.forFile(mapPath);
+        if (!store.exists()) {
+            System.err.println(String.format("%s does not exist", mapPath));
+            System.exit(1);
+        }
+        // A question about a single project only needs its shard
+        IndexedMapping mapping;
+        if (store.isSharded() && opts.has(projectOpt))
+            mapping = new IndexedMapping(store.load(Collections.singletonList(opts.valueOf(projectOpt))));
+        else
+            mapping = new IndexedMapping(MappingIndex.forFile(mapPath).getMapping());
+
+        if (opts.has(idOpt)) {
+            SortedSet<IndexedMapping.Location> found = mapping.findById(opts.valueOf(idOpt));
+            if (found.isEmpty())
+                System.out.println(String.format("%s is not in %s", opts.valueOf(idOpt), mapPath));
+            found.forEach(System.out::println);
+        }
+        else if (opts.has(methodOpt)) {
+            Map<String, IdParams> projects = mapping.get(opts.valueOf(methodOpt));
+            if (projects == null)
+                System.out.println(String.format("%s is not in %s", opts.valueOf(methodOpt), mapPath));
+            else
+                projects.forEach((project, ip) -> System.out.println(String.format("%s: %s %s", project,
+                        ip.getId() == null || ip.getId().isEmpty() ? "(no ID)" : ip.getId(), ip.getParameters())));
+        }
+        else if (opts.has("missing")) {
+            if (opts.has(projectOpt))
+                mapping.missingIds(opts.valueOf(projectOpt)).forEach(System.out::println);
+            else
+                mapping.getProjects().forEach(project ->
+                        mapping.missingIds(project).forEach(qual ->
+                                System.out.println(String.format("%s (%s)", qual, project))));
+        }
+        else if (opts.has(projectOpt))
+            mapping.methodsIn(opts.valueOf(projectOpt)).forEach(System.out::println);
+        else {
+            System.out.println(String.format("%s: %d methods, %d IDs", mapPath, mapping.size(), mapping.countIds()));
+            mapping.getProjects().forEach(project -> System.out.println(String.format("  %s: %d methods, %d without ID",
+                    project, mapping.methodsIn(project).size(), mapping.missingIds(project).size())));
+        }
+    }
+}
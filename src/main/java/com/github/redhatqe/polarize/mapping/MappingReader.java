@@ -0,0 +1,125 @@
+package com.github.redhatqe.polarize.mapping;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.github.redhatqe.polarize.IdParams;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Reads a mapping.json file token by token, straight into IdParams
+ *
+ * Reading the file into a JsonNode tree first means building (and then throwing away) a node for every method,
+ * project, ID and parameter.  Instead, the parser is walked once and only the IdParams are made.  The project names
+ * and the parameter names, which are the same few strings over and over, are interned so that every IdParams of a
+ * load shares the same String instances.
+ *
+ * The file looks like { "qualified.name": { "project": { "id": "...", "parameters": ["..."] } } }.  Fields other than
+ * id and parameters are skipped.  Like before, an IdParams without a parameters array has null parameters.
+ */
+public class MappingReader {
+    private static final JsonFactory factory = new JsonFactory();
+
+    private final Map<String, String> interned = new HashMap<>();
+    private final Stats stats = new Stats();
+
+    /**
+     * What a read found, and how long it took
+     */
+    public static class Stats {
+        public int methods = 0;
+        public int entries = 0;
+        public int parameters = 0;
+        public int distinctNames = 0;
+        public long bytes = 0;
+        public long millis = 0;
+
+        @Override
+        public String toString() {
+            double mb = this.bytes / (1024.0 * 1024.0);
+            double rate = this.millis == 0 ? 0 : mb / (this.millis / 1000.0);
+            return String.format("%d methods, %d project entries, %d parameters (%d distinct project/parameter names)"
+                            + " from %.2f MB in %d ms (%.1f MB/s)", this.methods, this.entries, this.parameters,
+                    this.distinctNames, mb, this.millis, rate);
+        }
+    }
+
+    private String intern(String s) {
+        String prev = this.interned.putIfAbsent(s, s);
+        return prev == null ? s : prev;
+    }
+
+    public Stats getStats() {
+        return this.stats;
+    }
+
+    /**
+     * @param path path to a mapping.json file
+     * @return an in-memory map of unique methodname -> project -> IdParams
+     * @throws IOException if the file could not be read or is not a mapping
+     */
+    public Map<String, Map<String, IdParams>> read(File path) throws IOException {
+        long start = System.currentTimeMillis();
+        Map<String, Map<String, IdParams>> mapped = new HashMap<>();
+        try (JsonParser parser = factory.createParser(path)) {
+            if (parser.nextToken() == null)
+                return mapped;  // An empty file is an empty mapping
+            MappingReader.expect(parser, JsonToken.START_OBJECT);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                MappingReader.expect(parser.nextToken(), parser, JsonToken.START_OBJECT);
+                mapped.put(name, this.readProjects(parser));
+                this.stats.methods++;
+            }
+        }
+        this.stats.distinctNames = this.interned.size();
+        this.stats.bytes = path.length();
+        this.stats.millis = System.currentTimeMillis() - start;
+        return mapped;
+    }
+
+    private Map<String, IdParams> readProjects(JsonParser parser) throws IOException {
+        Map<String, IdParams> inner = new HashMap<>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String project = this.intern(parser.getCurrentName());
+            MappingReader.expect(parser.nextToken(), parser, JsonToken.START_OBJECT);
+            inner.put(project, this.readIdParams(parser));
+            this.stats.entries++;
+        }
+        return inner;
+    }
+
+    private IdParams readIdParams(JsonParser parser) throws IOException {
+        IdParams idp = new IdParams();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if (field.equals("id"))
+                idp.id = value == JsonToken.VALUE_NULL ? "null" : parser.getText();
+            else if (field.equals("parameters") && value == JsonToken.START_ARRAY) {
+                List<String> params = new ArrayList<>();
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    params.add(this.intern(parser.getText()));
+                    this.stats.parameters++;
+                }
+                idp.parameters = params;
+            }
+            else
+                parser.skipChildren();
+        }
+        return idp;
+    }
+
+    private static void expect(JsonParser parser, JsonToken expected) throws JsonParseException {
+        MappingReader.expect(parser.getCurrentToken(), parser, expected);
+    }
+
+    private static void expect(JsonToken actual, JsonParser parser, JsonToken expected) throws JsonParseException {
+        if (actual != expected)
+            throw new JsonParseException(parser, String.format("Expected %s but got %s", expected, actual));
+    }
+}
@@ -0,0 +1,267 @@
+package com.github.redhatqe.polarize.mapping;
+
+import com.github.redhatqe.polarize.IdParams;
+import com.github.redhatqe.polarize.configuration.XMLConfig;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * The sharded layout of a mapping file, with one file per project
+ *
+ * Instead of a single mapping.json holding every project, the sharded layout has a mapping/ directory next to where
+ * mapping.json would be, with a mapping/<project>.json per project.  Each shard is itself a mapping file with the
+ * same schema (qualified name -> project -> IdParams), only holding the entries of its own project, so that every
+ * shard gets its own {@link MappingSnapshot} and {@link MappingIndex} like a single mapping file would.
+ *
+ * The layout is only used when the directory holds a .polarize-shards marker file, so that an unrelated mapping/
+ * directory does not change where the mapping is read from and written to.  {@link #main(String[])} sets up the
+ * directory and its marker from a single mapping file.  Only the shards of the requested projects are loaded (see
+ * {@link #load(Collection)}), and {@link #write(Map)} only rewrites the shards whose content changed.  Edits are
+ * still journaled next to mapping.json by the {@link MappingStore}, which takes care of both layouts.
+ */
+public class MappingShards {
+    private static final Logger logger = LoggerFactory.getLogger(MappingShards.class);
+    public static final String migratedSuffix = ".migrated";
+    public static final String markerName = ".polarize-shards";
+
+    private final File mapPath;
+    private final File dir;
+
+    public MappingShards(File mapPath) {
+        this.mapPath = mapPath;
+        this.dir = MappingShards.shardDir(mapPath);
+    }
+
+    /**
+     * @param mapPath path to a mapping.json file
+     * @return the directory of the shards, which is mapPath without its .json extension
+     */
+    public static File shardDir(File mapPath) {
+        String name = mapPath.getName();
+        if (name.endsWith(".json"))
+            name = name.substring(0, name.length() - ".json".length());
+        return new File(mapPath.getAbsoluteFile().getParentFile(), name);
+    }
+
+    /**
+     * @param mapPath path to a mapping.json file
+     * @return the marker file which says that mapPath is in the sharded layout
+     */
+    public static File markerPath(File mapPath) {
+        return new File(MappingShards.shardDir(mapPath), markerName);
+    }
+
+    /**
+     * @param mapPath path to a mapping.json file
+     * @return true if mapPath has been migrated to the sharded layout
+     */
+    public static Boolean isSharded(File mapPath) {
+        return MappingShards.markerPath(mapPath).isFile();
+    }
+
+    public File getMapPath() {
+        return this.mapPath;
+    }
+
+    public File getDir() {
+        return this.dir;
+    }
+
+    /**
+     * @param project the Polarion project
+     * @return the path of the shard of project, which may not exist yet
+     */
+    public File shardPath(String project) {
+        return new File(this.dir, project + ".json");
+    }
+
+    /**
+     * @return the sorted projects that have a shard
+     */
+    public SortedSet<String> getProjects() {
+        SortedSet<String> projects = new TreeSet<>();
+        File[] shards = this.dir.listFiles((d, name) -> name.endsWith(".json"));
+        if (shards != null)
+            for (File shard : shards)
+                projects.add(shard.getName().substring(0, shard.getName().length() - ".json".length()));
+        return projects;
+    }
+
+    /**
+     * @return every shard, merged into one map of qualified name -> project -> IdParams
+     */
+    public Map<String, Map<String, IdParams>> load() {
+        return this.load(this.getProjects());
+    }
+
+    /**
+     * Loads the shards of the given projects only
+     *
+     * @param projects the projects to load.  A project without a shard is skipped
+     * @return the shards merged into one map of qualified name -> project -> IdParams
+     */
+    public Map<String, Map<String, IdParams>> load(Collection<String> projects) {
+        Map<String, Map<String, IdParams>> mapping = new HashMap<>();
+        for (String project : new TreeSet<>(projects)) {
+            File shard = this.shardPath(project);
+            if (!shard.exists())
+                continue;
+            MappingStore.forFile(shard).load().forEach((qual, inner) -> {
+                IdParams ip = inner.get(project);
+                if (ip != null)
+                    mapping.computeIfAbsent(qual, k -> new HashMap<>()).put(project, ip);
+            });
+        }
+        return mapping;
+    }
+
+    /**
+     * Splits a mapping by project
+     *
+     * @param mapping map of qualified name -> project -> IdParams
+     * @return map of project -> the part of mapping in that project
+     */
+    public static Map<String, Map<String, Map<String, IdParams>>> split(Map<String, Map<String, IdParams>> mapping) {
+        Map<String, Map<String, Map<String, IdParams>>> split = new TreeMap<>();
+        mapping.forEach((qual, inner) -> inner.forEach((project, ip) -> {
+            Map<String, IdParams> projects = new HashMap<>();
+            projects.put(project, ip);
+            split.computeIfAbsent(project, p -> new HashMap<>()).put(qual, projects);
+        }));
+        return split;
+    }
+
+    /**
+     * Writes the shards of every project in mapping whose content changed
+     *
+     * The shards of projects that are not in mapping (eg because they were not loaded) are left alone.
+     *
+     * @param mapping map of qualified name -> project -> IdParams
+     * @return the projects whose shard was written
+     * @throws IOException if any shard could not be written.  The other shards are still written
+     */
+    public List<String> write(Map<String, Map<String, IdParams>> mapping) throws IOException {
+        return this.write(mapping, MappingShards.split(mapping).keySet());
+    }
+
+    /**
+     * Writes the shards of projects whose content changed
+     *
+     * A shard is only rewritten if its new JSON differs from what is on disk, and the shard of a project that has no
+     * entries in mapping is deleted.
+     *
+     * @param mapping map of qualified name -> project -> IdParams, which is complete for projects
+     * @param projects the projects whose shards are written
+     * @return the projects whose shard was written or deleted
+     * @throws IOException if any shard could not be written.  The other shards are still written
+     */
+    public List<String> write(Map<String, Map<String, IdParams>> mapping, Collection<String> projects)
+            throws IOException {
+        List<String> written = new ArrayList<>();
+        List<String> failed = new ArrayList<>();
+        this.dir.mkdirs();
+        Map<String, Map<String, Map<String, IdParams>>> split = MappingShards.split(mapping);
+        for (String project : new TreeSet<>(projects)) {
+            File shard = this.shardPath(project);
+            Map<String, Map<String, IdParams>> shardMap = split.get(project);
+            if (shardMap == null) {
+                // Every entry of the project was removed
+                if (!shard.exists())
+                    continue;
+                try {
+                    Files.delete(shard.toPath());
+                    Files.deleteIfExists(MappingSnapshot.snapshotPath(shard).toPath());
+                    written.add(project);
+                } catch (IOException e) {
+                    failed.add(project);
+                }
+                MappingIndex.invalidate(shard);
+                continue;
+            }
+            byte[] json = MappingStore.serialize(shardMap);
+            if (MappingShards.isUnchanged(shard, json))
+                continue;
+            if (!MappingStore.forFile(shard).write(json)) {
+                failed.add(project);
+                continue;
+            }
+            MappingSnapshot.write(shard, shardMap);
+            written.add(project);
+        }
+        logger.info(String.format("Wrote %d of %d mapping shards in %s", written.size(), projects.size(), this.dir));
+        if (!failed.isEmpty())
+            throw new IOException(String.format("Could not write the mapping shards of %s in %s", failed, this.dir));
+        return written;
+    }
+
+    private static Boolean isUnchanged(File shard, byte[] json) {
+        if (!shard.exists() || shard.length() != json.length)
+            return false;
+        CRC32 crc = new CRC32();
+        crc.update(json);
+        try {
+            return MappingSnapshot.checksum(shard) == crc.getValue();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Moves a single mapping file (and any journaled edits of it) into the sharded layout
+     *
+     * The mapping file is renamed to mapping.json.migrated rather than deleted, and its snapshot is removed.
+     *
+     * @param mapPath path to a mapping.json file
+     * @return the shards
+     */
+    public static MappingShards migrate(File mapPath) throws IOException {
+        MappingStore store = MappingStore.forFile(mapPath);
+        if (MappingShards.shardDir(mapPath).exists())
+            throw new IOException(String.format("%s already exists", MappingShards.shardDir(mapPath)));
+        if (!mapPath.exists())
+            throw new IOException(String.format("%s does not exist", mapPath));
+
+        Map<String, Map<String, IdParams>> mapping = store.load();
+        MappingShards shards = new MappingShards(mapPath);
+        List<String> written = shards.write(mapping);
+        // Only switch to the sharded layout once every shard is written
+        Files.createFile(MappingShards.markerPath(mapPath).toPath());
+        Files.move(mapPath.toPath(), new File(mapPath.getPath() + migratedSuffix).toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+        Files.deleteIfExists(MappingSnapshot.snapshotPath(mapPath).toPath());
+        Files.deleteIfExists(store.getJournalPath().toPath());
+        MappingIndex.invalidate(mapPath);
+        logger.info(String.format("Migrated %d methods of %s into %d shards in %s", mapping.size(), mapPath,
+                written.size(), shards.getDir()));
+        return shards;
+    }
+
+    /**
+     * Program to migrate a single mapping file into the sharded layout
+     *
+     * @param args --mapping path to the mapping.json file (defaults to the one from the polarize-config.xml)
+     */
+    public static void main(String[] args) throws IOException {
+        OptionParser parser = new OptionParser();
+        OptionSpec<String> mappingOpt = parser.accepts("mapping").withRequiredArg().ofType(String.class);
+
+        OptionSet opts = parser.parse(args);
+        File mapPath;
+        if (opts.has(mappingOpt))
+            mapPath = new File(opts.valueOf(mappingOpt));
+        else
+            mapPath = new File(new XMLConfig(null).getMappingPath());
+        MappingShards shards = MappingShards.migrate(mapPath);
+        shards.getProjects().forEach(p -> System.out.println(shards.shardPath(p)));
+    }
+}
@@ -0,0 +1,371 @@
+package com.github.redhatqe.polarize.mapping;
+
+import com.github.redhatqe.polarize.IdParams;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * A compact binary copy of a mapping.json file, which is read in place through a MappedByteBuffer
+ *
+ * The snapshot lives next to the mapping file (eg mapping.json.snapshot) and is written whenever the mapping file is
+ * (see TestDefinitionProcessor.writeMapFile), or when it is found to be missing or stale while loading.  The JSON file
+ * stays the source of truth: the header of the snapshot holds the CRC32 and length of the mapping file it was made
+ * from, and {@link #open(File)} ignores a snapshot that does not match the mapping file anymore.  Set
+ * -Dpolarize.mapping.snapshot=false to never read or write snapshots.
+ *
+ * All ints are big endian.  After the header come these tables, at the offsets given in the header:
+ * - methods: (name, first entry, number of entries) per method, sorted by the UTF-8 bytes of the name
+ * - projects: (name) per project, sorted.  The index of a project is its code in the entries
+ * - entries: (project code, id, first parameter, number of parameters or -1 for none) per method and project
+ * - parameters: (name) per parameter
+ * - strings: (length, UTF-8 bytes) per distinct string.  The other tables refer to strings by their offset here
+ *
+ * So a lookup is a binary search over the methods, comparing the bytes of the name in the buffer, and only the
+ * IdParams of the method that was found are decoded.
+ */
+public class MappingSnapshot implements MappingLookup {
+    private static final Logger logger = LoggerFactory.getLogger(MappingSnapshot.class);
+    public static final String suffix = ".snapshot";
+    public static final String enabledProperty = "polarize.mapping.snapshot";
+    private static final int magic = 0x504C5A53;  // PLZS
+    private static final int version = 1;
+    private static final int headerSize = 64;
+    private static final int methodSize = 12;
+    private static final int entrySize = 16;
+
+    private final File path;
+    private final ByteBuffer buf;
+    private final int methods;
+    private final int methodOff;
+    private final int projectOff;
+    private final int entryOff;
+    private final int paramOff;
+    private final int stringOff;
+    private final String[] projects;
+
+    private MappingSnapshot(File path, ByteBuffer buf) {
+        this.path = path;
+        this.buf = buf;
+        this.methods = buf.getInt(24);
+        this.methodOff = buf.getInt(44);
+        this.projectOff = buf.getInt(48);
+        this.entryOff = buf.getInt(52);
+        this.paramOff = buf.getInt(56);
+        this.stringOff = buf.getInt(60);
+        // The project dictionary is tiny, so it is the one thing decoded up front
+        this.projects = new String[buf.getInt(28)];
+        for (int p = 0; p < this.projects.length; p++)
+            this.projects[p] = this.string(buf.getInt(this.projectOff + p * 4));
+    }
+
+    public static Boolean isEnabled() {
+        return Boolean.parseBoolean(System.getProperty(enabledProperty, "true"));
+    }
+
+    /**
+     * @param mapPath path to a mapping.json file
+     * @return the path of its snapshot
+     */
+    public static File snapshotPath(File mapPath) {
+        return new File(mapPath.getPath() + suffix);
+    }
+
+    /**
+     * @param mapPath path to a mapping.json file
+     * @return the snapshot of mapPath, or empty if it is missing, disabled or was not made from the current mapPath
+     */
+    public static Optional<MappingSnapshot> open(File mapPath) {
+        File path = MappingSnapshot.snapshotPath(mapPath);
+        if (!MappingSnapshot.isEnabled() || !path.exists() || !mapPath.exists())
+            return Optional.empty();
+        try (FileChannel ch = FileChannel.open(path.toPath(), StandardOpenOption.READ)) {
+            if (ch.size() < headerSize || ch.size() > Integer.MAX_VALUE)
+                return Optional.empty();
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            if (buf.getInt(0) != magic || buf.getInt(4) != version) {
+                logger.info(String.format("%s is not a snapshot this version can read", path));
+                return Optional.empty();
+            }
+            if (buf.getLong(16) != mapPath.length() || buf.getLong(8) != MappingSnapshot.checksum(mapPath)) {
+                logger.info(String.format("%s is out of date with %s", path, mapPath));
+                return Optional.empty();
+            }
+            return Optional.of(new MappingSnapshot(path, buf));
+        } catch (IOException | RuntimeException e) {
+            logger.warn(String.format("Could not read %s: %s", path, e.getMessage()));
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * @param file file to checksum
+     * @return the CRC32 of the contents of file
+     * @throws IOException if file could not be read
+     */
+    public static long checksum(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer chunk = ByteBuffer.allocateDirect(1 << 16);
+            while (ch.read(chunk) > 0) {
+                chunk.flip();
+                crc.update(chunk);
+                chunk.clear();
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Writes the snapshot of mapping, which must be what mapPath holds
+     *
+     * The snapshot is written to a temporary file which is then renamed, so a reader never sees half of it.  Failing
+     * to write it is only logged, since the mapping file is still there.
+     *
+     * @param mapPath the mapping.json file that mapping was loaded from or written to
+     * @param mapping map of qualified method name to project to IdParams
+     */
+    public static void write(File mapPath, Map<String, Map<String, IdParams>> mapping) {
+        long[] stamp = MappingSnapshot.stamp(mapPath);
+        if (stamp != null)
+            MappingSnapshot.write(mapPath, mapping, stamp);
+    }
+
+    /**
+     * Takes the checksum and length of a mapping file, before it is loaded
+     *
+     * Taking them before rather than after loading means that if the file changes in between, the snapshot will just
+     * look out of date, rather than wrongly look like it matches the new file.
+     *
+     * @param mapPath path to a mapping.json file
+     * @return the CRC32 and length of mapPath, or null if it does not exist, could not be read or if snapshots are
+     *         disabled
+     */
+    public static long[] stamp(File mapPath) {
+        if (!MappingSnapshot.isEnabled() || !mapPath.exists())
+            return null;
+        try {
+            long length = mapPath.length();
+            return new long[] {MappingSnapshot.checksum(mapPath), length};
+        } catch (IOException e) {
+            logger.warn(String.format("Could not read %s: %s", mapPath, e.getMessage()));
+            return null;
+        }
+    }
+
+    /**
+     * @param mapPath the mapping.json file that mapping was loaded from or written to
+     * @param mapping map of qualified method name to project to IdParams
+     * @param stamp the CRC32 and length of mapPath when mapping was loaded (see {@link #stamp(File)})
+     */
+    public static void write(File mapPath, Map<String, Map<String, IdParams>> mapping, long[] stamp) {
+        File path = MappingSnapshot.snapshotPath(mapPath);
+        Path tmp = Paths.get(path.getPath() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                MappingSnapshot.encode(mapping, stamp[0], stamp[1], out);
+            }
+            try {
+                Files.move(tmp, path.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tmp, path.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            logger.debug(String.format("Wrote %s for %d methods", path, mapping.size()));
+        } catch (IOException e) {
+            logger.warn(String.format("Could not write %s: %s", path, e.getMessage()));
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static int compareBytes(byte[] a, byte[] b) {
+        int n = Math.min(a.length, b.length);
+        for (int i = 0; i < n; i++) {
+            int cmp = (a[i] & 0xFF) - (b[i] & 0xFF);
+            if (cmp != 0)
+                return cmp;
+        }
+        return a.length - b.length;
+    }
+
+    private static void encode(Map<String, Map<String, IdParams>> mapping, long crc, long length, DataOutputStream out)
+            throws IOException {
+        // The string table, deduplicated, and the offset of each string in it
+        ByteArrayOutputStream strings = new ByteArrayOutputStream();
+        DataOutputStream sout = new DataOutputStream(strings);
+        Map<String, Integer> offsets = new HashMap<>();
+        java.util.function.Function<String, Integer> str = s -> offsets.computeIfAbsent(s == null ? "" : s, k -> {
+            int off = strings.size();
+            byte[] bytes = k.getBytes(StandardCharsets.UTF_8);
+            try {
+                sout.writeInt(bytes.length);
+                sout.write(bytes);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return off;
+        });
+
+        List<Map.Entry<String, byte[]>> quals = new ArrayList<>();
+        mapping.keySet().forEach(q -> quals.add(new AbstractMap.SimpleEntry<>(q, q.getBytes(StandardCharsets.UTF_8))));
+        quals.sort((a, b) -> MappingSnapshot.compareBytes(a.getValue(), b.getValue()));
+        Set<String> projectSet = new TreeSet<>();
+        mapping.values().forEach(inner -> projectSet.addAll(inner.keySet()));
+        List<String> projects = new ArrayList<>(projectSet);
+        Map<String, Integer> codes = new HashMap<>();
+        for (int i = 0; i < projects.size(); i++)
+            codes.put(projects.get(i), i);
+
+        ByteArrayOutputStream methodTable = new ByteArrayOutputStream();
+        DataOutputStream mout = new DataOutputStream(methodTable);
+        ByteArrayOutputStream entryTable = new ByteArrayOutputStream();
+        DataOutputStream eout = new DataOutputStream(entryTable);
+        ByteArrayOutputStream paramTable = new ByteArrayOutputStream();
+        DataOutputStream pout = new DataOutputStream(paramTable);
+        int entries = 0;
+        int params = 0;
+        for (Map.Entry<String, byte[]> q : quals) {
+            Map<String, IdParams> inner = new TreeMap<>(mapping.get(q.getKey()));
+            mout.writeInt(str.apply(q.getKey()));
+            mout.writeInt(entries);
+            mout.writeInt(inner.size());
+            for (Map.Entry<String, IdParams> e : inner.entrySet()) {
+                List<String> ps = e.getValue().getParameters();
+                eout.writeInt(codes.get(e.getKey()));
+                eout.writeInt(str.apply(e.getValue().getId()));
+                eout.writeInt(params);
+                eout.writeInt(ps == null ? -1 : ps.size());
+                if (ps != null) {
+                    for (String p : ps)
+                        pout.writeInt(str.apply(p));
+                    params += ps.size();
+                }
+                entries++;
+            }
+        }
+        ByteArrayOutputStream projectTable = new ByteArrayOutputStream();
+        DataOutputStream prout = new DataOutputStream(projectTable);
+        for (String p : projects)
+            prout.writeInt(str.apply(p));
+
+        int methodOff = headerSize;
+        int projectOff = methodOff + methodTable.size();
+        int entryOff = projectOff + projectTable.size();
+        int paramOff = entryOff + entryTable.size();
+        int stringOff = paramOff + paramTable.size();
+        out.writeInt(magic);
+        out.writeInt(version);
+        out.writeLong(crc);
+        out.writeLong(length);
+        out.writeInt(quals.size());
+        out.writeInt(projects.size());
+        out.writeInt(entries);
+        out.writeInt(params);
+        out.writeInt(offsets.size());
+        out.writeInt(methodOff);
+        out.writeInt(projectOff);
+        out.writeInt(entryOff);
+        out.writeInt(paramOff);
+        out.writeInt(stringOff);
+        methodTable.writeTo(out);
+        projectTable.writeTo(out);
+        entryTable.writeTo(out);
+        paramTable.writeTo(out);
+        strings.writeTo(out);
+    }
+
+    private String string(int off) {
+        int at = this.stringOff + off;
+        int len = this.buf.getInt(at);
+        byte[] bytes = new byte[len];
+        ByteBuffer dup = this.buf.duplicate();
+        dup.position(at + 4);
+        dup.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Compares the string at off with key without decoding it
+     */
+    private int compare(int off, byte[] key) {
+        int at = this.stringOff + off;
+        int len = this.buf.getInt(at);
+        int n = Math.min(len, key.length);
+        for (int i = 0; i < n; i++) {
+            int cmp = (this.buf.get(at + 4 + i) & 0xFF) - (key[i] & 0xFF);
+            if (cmp != 0)
+                return cmp;
+        }
+        return len - key.length;
+    }
+
+    private Map<String, IdParams> decode(int method) {
+        int at = this.methodOff + method * methodSize;
+        int first = this.buf.getInt(at + 4);
+        int count = this.buf.getInt(at + 8);
+        Map<String, IdParams> inner = new HashMap<>(count * 2);
+        for (int e = first; e < first + count; e++) {
+            int eat = this.entryOff + e * entrySize;
+            String project = this.projects[this.buf.getInt(eat)];
+            IdParams ip = new IdParams();
+            ip.id = this.string(this.buf.getInt(eat + 4));
+            int firstParam = this.buf.getInt(eat + 8);
+            int nParams = this.buf.getInt(eat + 12);
+            if (nParams >= 0) {
+                List<String> ps = new ArrayList<>(nParams);
+                for (int p = firstParam; p < firstParam + nParams; p++)
+                    ps.add(this.string(this.buf.getInt(this.paramOff + p * 4)));
+                ip.parameters = ps;
+            }
+            inner.put(project, ip);
+        }
+        return inner;
+    }
+
+    @Override
+    public Map<String, IdParams> getMethod(String qual) {
+        byte[] key = qual.getBytes(StandardCharsets.UTF_8);
+        int lo = 0;
+        int hi = this.methods - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = this.compare(this.buf.getInt(this.methodOff + mid * methodSize), key);
+            if (cmp < 0)
+                lo = mid + 1;
+            else if (cmp > 0)
+                hi = mid - 1;
+            else
+                return Collections.unmodifiableMap(this.decode(mid));
+        }
+        return null;
+    }
+
+    @Override
+    public int size() {
+        return this.methods;
+    }
+
+    public File getPath() {
+        return this.path;
+    }
+
+    /**
+     * @return the whole mapping, decoded into a new mutable map
+     */
+    public Map<String, Map<String, IdParams>> toMap() {
+        Map<String, Map<String, IdParams>> mapping = new HashMap<>(this.methods * 2);
+        for (int m = 0; m < this.methods; m++)
+            mapping.put(this.string(this.buf.getInt(this.methodOff + m * methodSize)), this.decode(m));
+        return mapping;
+    }
+}
@@ -0,0 +1,399 @@
+package com.github.redhatqe.polarize.mapping;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.redhatqe.polarize.FileHelper;
+import com.github.redhatqe.polarize.IdParams;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persists edits to the mapping.json file through a write-ahead journal
+ *
+ * Rewriting (and re-sorting) the whole mapping file for every single ID change makes annotation processing quadratic
+ * in the number of methods.  Instead, every edit is appended as one compact JSON line to a journal that lives next to
+ * the mapping file (eg mapping.json.journal), and the canonical sorted mapping.json is only written once by
+ * {@link #compact(Map)}.
+ *
+ * Compaction writes the new mapping to a temporary file, atomically renames it over mapping.json and only then
+ * deletes the journal.  Every journal entry holds the complete IdParams for a method and project, so replaying the
+ * journal is idempotent.  This means that a crash at any point leaves either the old mapping plus the journal, or the
+ * new mapping plus a (redundant) journal, and {@link #load()} recovers the same state in both cases.  If the new
+ * mapping is the same as the one on disk, the mapping file is left untouched.
+ */
+public class MappingStore {
+    private static final Logger logger = LoggerFactory.getLogger(MappingStore.class);
+    private static final Map<String, MappingStore> stores = new ConcurrentHashMap<>();
+    private static final ObjectWriter prettyWriter = new ObjectMapper().writer().withDefaultPrettyPrinter();
+    public static final String journalSuffix = ".journal";
+
+    private final File mapPath;
+    private final File journalPath;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private MappingStore(File mapPath) {
+        this.mapPath = mapPath;
+        this.journalPath = new File(mapPath.getPath() + journalSuffix);
+    }
+
+    /**
+     * @param mapPath path to a mapping.json file
+     * @return the store for the given mapping file
+     */
+    public static MappingStore forFile(File mapPath) {
+        String key = mapPath.getAbsoluteFile().toPath().normalize().toString();
+        return stores.computeIfAbsent(key, k -> new MappingStore(mapPath));
+    }
+
+    public File getMapPath() {
+        return this.mapPath;
+    }
+
+    public File getJournalPath() {
+        return this.journalPath;
+    }
+
+    /**
+     * @return true if the mapping is in the sharded layout (see {@link MappingShards})
+     */
+    public Boolean isSharded() {
+        return MappingShards.isSharded(this.mapPath);
+    }
+
+    /**
+     * @return true if there is a mapping file, or shards of it
+     */
+    public Boolean exists() {
+        return this.mapPath.exists() || this.isSharded();
+    }
+
+    /**
+     * @return the mapping file, or the directory of its shards in the sharded layout
+     */
+    public File getSourcePath() {
+        return this.isSharded() ? MappingShards.shardDir(this.mapPath) : this.mapPath;
+    }
+
+    /**
+     * @return true if there are journaled edits that have not been compacted into the mapping file yet
+     */
+    public Boolean hasPending() {
+        return this.journalPath.exists() && this.journalPath.length() > 0;
+    }
+
+    /**
+     * Loads the mapping file and replays any pending journal entries on top of it
+     *
+     * When the {@link MappingSnapshot} of the mapping file is up to date, the mapping is read from it instead of
+     * parsing the JSON.  Otherwise the JSON is parsed and the snapshot rewritten from it for next time.  In the
+     * sharded layout, every shard is loaded (each through its own snapshot).
+     *
+     * @return an in-memory map of unique methodname -> project -> IdParams
+     */
+    public synchronized Map<String, Map<String, IdParams>> load() {
+        Map<String, Map<String, IdParams>> mapping;
+        if (this.isSharded())
+            mapping = new MappingShards(this.mapPath).load();
+        else
+            mapping = this.loadFile();
+        int replayed = this.replay(mapping);
+        if (replayed > 0)
+            logger.info(String.format("Recovered %d uncompacted edits from %s", replayed, this.journalPath));
+        return mapping;
+    }
+
+    /**
+     * @return the mapping file as it is on disk, without the journal
+     */
+    private Map<String, Map<String, IdParams>> loadFile() {
+        Optional<MappingSnapshot> snapshot = MappingSnapshot.open(this.mapPath);
+        if (snapshot.isPresent())
+            return snapshot.get().toMap();
+        long[] stamp = MappingSnapshot.stamp(this.mapPath);
+        Map<String, Map<String, IdParams>> mapping = FileHelper.loadMapping(this.mapPath);
+        if (stamp != null)
+            MappingSnapshot.write(this.mapPath, mapping, stamp);
+        return mapping;
+    }
+
+    /**
+     * Like {@link #load()}, but in the sharded layout only the shards (and journal entries) of projects are loaded
+     *
+     * With a single mapping file, every project is loaded anyway.
+     *
+     * @param projects the projects that are needed
+     * @return an in-memory map of unique methodname -> project -> IdParams
+     */
+    public synchronized Map<String, Map<String, IdParams>> load(Collection<String> projects) {
+        if (!this.isSharded())
+            return this.load();
+        Map<String, Map<String, IdParams>> mapping = new MappingShards(this.mapPath).load(projects);
+        int replayed = this.replay(mapping, new HashSet<>(projects));
+        if (replayed > 0)
+            logger.info(String.format("Recovered %d uncompacted edits from %s", replayed, this.journalPath));
+        return mapping;
+    }
+
+    /**
+     * Appends a single edit to the journal
+     *
+     * @param qual qualified name of the method
+     * @param project project the IdParams belongs to
+     * @param ip the complete IdParams for the method in project
+     */
+    public synchronized void append(String qual, String project, IdParams ip) {
+        ObjectNode entry = this.mapper.createObjectNode();
+        entry.put("name", qual);
+        entry.put("project", project);
+        entry.put("id", ip.getId());
+        ArrayNode params = entry.putArray("parameters");
+        if (ip.getParameters() != null)
+            ip.getParameters().forEach(params::add);
+
+        try {
+            String line = this.mapper.writeValueAsString(entry) + "\n";
+            MappingStore.makeParent(this.journalPath);
+            Files.write(this.journalPath.toPath(), line.getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Applies every complete entry in the journal to mapping
+     *
+     * A torn final line (eg from a crash in the middle of an append) is skipped.
+     *
+     * @param mapping the map to apply the edits to
+     * @return the number of entries applied
+     */
+    public synchronized int replay(Map<String, Map<String, IdParams>> mapping) {
+        return this.replay(mapping, null);
+    }
+
+    /**
+     * Applies the complete entries in the journal that belong to one of projects to mapping
+     *
+     * @param mapping the map to apply the edits to
+     * @param projects the projects whose entries are applied, or null for all of them
+     * @return the number of entries applied
+     */
+    public synchronized int replay(Map<String, Map<String, IdParams>> mapping, Set<String> projects) {
+        if (!this.journalPath.exists())
+            return 0;
+
+        int count = 0;
+        try (BufferedReader rdr = Files.newBufferedReader(this.journalPath.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = rdr.readLine()) != null) {
+                if (line.trim().isEmpty())
+                    continue;
+                JsonNode entry;
+                try {
+                    entry = this.mapper.readTree(line);
+                } catch (IOException e) {
+                    logger.warn(String.format("Skipping incomplete journal entry in %s", this.journalPath));
+                    continue;
+                }
+                if (entry == null || !entry.has("name") || !entry.has("project") || !entry.has("id"))
+                    continue;
+                if (projects != null && !projects.contains(entry.get("project").asText()))
+                    continue;
+
+                List<String> params = new ArrayList<>();
+                JsonNode ps = entry.get("parameters");
+                if (ps != null)
+                    ps.forEach(p -> params.add(p.asText()));
+                IdParams ip = new IdParams(entry.get("id").asText(), params);
+                mapping.computeIfAbsent(entry.get("name").asText(), k -> new HashMap<>())
+                        .put(entry.get("project").asText(), ip);
+                count++;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return count;
+    }
+
+    /**
+     * Writes mapping as the canonical, sorted mapping.json and clears the journal, if it differs from what is on disk
+     *
+     * Same as {@link #compact(Map, Collection)} with only the projects that are in mapping (and, for an
+     * {@link IndexedMapping}, the projects it removed entries from).
+     *
+     * @param mapping the complete in-memory mapping
+     * @return what changed on disk, which is empty if nothing was (or could be) written
+     */
+    public synchronized MappingDiff compact(Map<String, Map<String, IdParams>> mapping) {
+        return this.compact(mapping, Collections.emptySet());
+    }
+
+    /**
+     * Writes mapping as the canonical, sorted mapping.json and clears the journal, if it differs from what is on disk
+     *
+     * The mapping is first compared with the mapping file (see {@link MappingDiff}).  When nothing changed, the
+     * mapping file is not touched at all, so its mtime stays the same and nothing watching it gets woken up.  Only the
+     * now redundant journal is removed.  The journal is only ever removed once the mapping is safely on disk, so if
+     * writing fails the edits are still recovered by the next {@link #load()}.
+     *
+     * In the sharded layout, only the shards of projects (and of the projects in mapping) are compared and written,
+     * and only those whose JSON changed.  The shard of a project that has no entries left in mapping is deleted.  Any
+     * journaled edits of other projects are folded into their own shards first, so that clearing the journal does not
+     * lose them.
+     *
+     * @param mapping the complete in-memory mapping, or in the sharded layout the complete mapping of its projects
+     * @param projects in the sharded layout, the projects that mapping is complete for, even if it has no entries of
+     *                 them (anymore).  Not needed with a single mapping file
+     * @return what changed on disk, which is empty if nothing was (or could be) written
+     */
+    public synchronized MappingDiff compact(Map<String, Map<String, IdParams>> mapping, Collection<String> projects) {
+        if (!this.isSharded()) {
+            MappingDiff diff = MappingDiff.between(this.loadFile(), mapping);
+            if (diff.isEmpty() && this.mapPath.exists()) {
+                logger.info(String.format("No changes to %s, not rewriting it", this.mapPath));
+                this.deleteJournal();
+                return diff;
+            }
+            if (!this.write(MappingStore.serialize(mapping))) {
+                logger.error(String.format("Could not write %s, keeping the edits in %s", this.mapPath,
+                        this.journalPath));
+                return new MappingDiff();
+            }
+            logger.info(String.format("Wrote %s: %s", this.mapPath, diff));
+            return diff;
+        }
+
+        MappingShards shards = new MappingShards(this.mapPath);
+        Set<String> scope = new TreeSet<>(projects);
+        scope.addAll(MappingShards.split(mapping).keySet());
+        if (mapping instanceof IndexedMapping)
+            ((IndexedMapping) mapping).getDirty().forEach(loc -> scope.add(loc.project));
+        Set<String> others = this.journaledProjects();
+        others.removeAll(scope);
+
+        MappingDiff diff = MappingDiff.between(shards.load(scope), mapping);
+        try {
+            if (!others.isEmpty()) {
+                Map<String, Map<String, IdParams>> before = shards.load(others);
+                Map<String, Map<String, IdParams>> rest = MappingIndex.copy(before);
+                this.replay(rest, others);
+                MappingDiff folded = MappingDiff.between(before, rest);
+                if (!folded.isEmpty())
+                    shards.write(rest, others);
+                diff.addAll(folded);
+            }
+            if (!diff.isEmpty())
+                shards.write(mapping, scope);
+        } catch (IOException e) {
+            logger.error(String.format("%s, keeping the edits in %s", e.getMessage(), this.journalPath));
+            MappingIndex.invalidate(this.mapPath);
+            return new MappingDiff();
+        }
+        MappingIndex.invalidate(this.mapPath);
+        if (diff.isEmpty())
+            logger.info(String.format("No changes to %s, not rewriting it", shards.getDir()));
+        else
+            logger.info(String.format("Wrote %s: %s", shards.getDir(), diff));
+        this.deleteJournal();
+        return diff;
+    }
+
+    private void deleteJournal() {
+        try {
+            Files.deleteIfExists(this.journalPath.toPath());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @return the projects that have entries in the journal
+     */
+    private Set<String> journaledProjects() {
+        Set<String> projects = new HashSet<>();
+        if (!this.journalPath.exists())
+            return projects;
+        try (BufferedReader rdr = Files.newBufferedReader(this.journalPath.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = rdr.readLine()) != null) {
+                try {
+                    JsonNode entry = this.mapper.readTree(line);
+                    if (entry != null && entry.has("project"))
+                        projects.add(entry.get("project").asText());
+                } catch (IOException e) {
+                    // a torn line, which replay skips as well
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return projects;
+    }
+
+    /**
+     * @param mapping map of qualified name -> project -> IdParams
+     * @return mapping as the canonical JSON of a mapping file, sorted by name and project
+     */
+    static byte[] serialize(Map<String, Map<String, IdParams>> mapping) {
+        Map<String, Map<String, IdParams>> sorted = new TreeMap<>();
+        mapping.forEach((qual, inner) -> sorted.put(qual, new TreeMap<>(inner)));
+        try {
+            return prettyWriter.writeValueAsBytes(sorted);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Atomically replaces the mapping file with json and then clears the journal
+     *
+     * If the new mapping file could not be written, the old one and the journal are left as they are.
+     *
+     * @param json the complete mapping file (see {@link #serialize(Map)})
+     * @return true if the mapping file was replaced
+     */
+    synchronized Boolean write(byte[] json) {
+        Path target = this.mapPath.toPath();
+        Path tmp = Paths.get(this.mapPath.getPath() + ".tmp");
+        try {
+            MappingStore.makeParent(this.mapPath);
+            Files.write(tmp, json);
+            try {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            logger.error(String.format("Could not write %s: %s", this.mapPath, e.getMessage()));
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (IOException ignored) {
+                // nothing more to do about it
+            }
+            return false;
+        } finally {
+            MappingIndex.invalidate(this.mapPath);
+        }
+        this.deleteJournal();
+        return true;
+    }
+
+    private static void makeParent(File f) {
+        File parent = f.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists())
+            parent.mkdirs();
+    }
+}
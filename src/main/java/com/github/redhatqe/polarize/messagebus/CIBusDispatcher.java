@@ -0,0 +1,289 @@
+package com.github.redhatqe.polarize.messagebus;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.redhatqe.polarize.configuration.Configurator;
+import com.github.redhatqe.polarize.configuration.XMLConfig;
+import com.github.redhatqe.polarize.exceptions.ConfigurationError;
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jms.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Shares one connection to the CI Message Bus between everything that waits for a reply from an importer
+ *
+ * Opening a connection per request is slow, and since every connection used the same client ID, concurrent imports
+ * kicked each other off the broker.  Instead there is one dispatcher per config file, holding a single connection (with
+ * a unique client ID).  Callers {@link #register(String, long)} the JMS selector they are waiting on _before_ they make
+ * the import request, and get back a CompletableFuture.  There is one session and consumer per distinct selector, since
+ * a JMS session may only be used by one thread and its delivery thread would otherwise race with register creating
+ * consumers on it.  When a message arrives it completes the oldest waiter for that selector.  Once a selector has no
+ * more waiters, its session is closed.
+ *
+ * If a waiter is not completed within its timeout, it is completed with Optional.empty().  If the connection fails,
+ * all waiters are completed with Optional.empty() and the next call to register reconnects.
+ *
+ * The connection's transport thread keeps the JVM alive, so once nothing is waiting anymore the connection is closed
+ * after polarize.cibus.idle ms (1000 by default).  Programs that are done with the bus can also call
+ * {@link #closeAll()} to not wait for that.
+ */
+public class CIBusDispatcher {
+    private static final Logger logger = LoggerFactory.getLogger(CIBusDispatcher.class);
+    private static final Map<String, CIBusDispatcher> dispatchers = new ConcurrentHashMap<>();
+    private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "polarize-cibus-timeout");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public static final String idleProperty = "polarize.cibus.idle";
+
+    public final XMLConfig config;
+    public final String topic = "CI";
+    public final String clientID = "Polarize-" + UUID.randomUUID().toString();
+
+    private volatile Connection connection;
+    // selector -> session (with the one consumer) for that selector, and the futures waiting on it (oldest first)
+    private final Map<String, Session> sessions = new HashMap<>();
+    private final Map<String, Deque<CompletableFuture<Optional<ObjectNode>>>> waiters = new HashMap<>();
+    private ScheduledFuture<?> idle;
+
+    private CIBusDispatcher(XMLConfig config) {
+        this.config = config;
+    }
+
+    /**
+     * @param path path to the polarize-config.xml, or null for the default one
+     * @return the shared dispatcher for the config file
+     */
+    public static CIBusDispatcher forConfig(String path) {
+        String key = path == null ? "" : path;
+        return dispatchers.computeIfAbsent(key, k -> {
+            Configurator cfg = path == null ? new Configurator() : new Configurator(path);
+            return new CIBusDispatcher(cfg.config);
+        });
+    }
+
+    /**
+     * Closes the connections of all the dispatchers, completing any outstanding waiters with Optional.empty()
+     */
+    public static void closeAll() {
+        dispatchers.values().forEach(CIBusDispatcher::close);
+    }
+
+    /**
+     * @return ms to keep the connection open once nothing is waiting on it
+     */
+    public static long idleTimeout() {
+        return Long.getLong(idleProperty, 1000L);
+    }
+
+    /**
+     * @return the timeout (in ms) from the xunit importer section of the config
+     */
+    public long defaultTimeout() {
+        return Long.parseLong(this.config.xunit.getTimeout().getMillis());
+    }
+
+    /**
+     * Registers a waiter for the next message that matches selector
+     *
+     * This must be called before the request that triggers the message is sent, otherwise the message may arrive
+     * before there is a consumer for it.
+     *
+     * @param selector a JMS selector, eg rhsm_qe='polarize_bus'
+     * @param timeout ms to wait for the message
+     * @return a future which completes with the parsed message, or Optional.empty() on timeout or error
+     */
+    public CompletableFuture<Optional<ObjectNode>> register(String selector, long timeout) {
+        if (selector == null || selector.equals(""))
+            throw new ConfigurationError("Must supply a value for the selector");
+
+        CompletableFuture<Optional<ObjectNode>> future = new CompletableFuture<>();
+        synchronized (this) {
+            try {
+                this.connect();
+                if (this.idle != null) {
+                    this.idle.cancel(false);
+                    this.idle = null;
+                }
+                if (!this.sessions.containsKey(selector)) {
+                    logger.debug(String.format("Creating consumer for selector %s", selector));
+                    Session session = this.connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+                    try {
+                        MessageConsumer consumer = session.createConsumer(session.createTopic(this.topic), selector);
+                        consumer.setMessageListener(msg -> this.dispatch(selector, msg));
+                    } catch (JMSException e) {
+                        session.close();
+                        throw e;
+                    }
+                    this.sessions.put(selector, session);
+                }
+                this.waiters.computeIfAbsent(selector, k -> new ArrayDeque<>()).add(future);
+            } catch (JMSException e) {
+                e.printStackTrace();
+                future.complete(Optional.empty());
+                this.closeWhenIdle();
+            }
+        }
+        if (future.isDone())
+            return future;
+
+        ScheduledFuture<?> expire = timer.schedule(() -> {
+            if (this.remove(selector, future)) {
+                logger.error(String.format("Timed out after %d ms waiting for a message for %s", timeout, selector));
+                future.complete(Optional.empty());
+            }
+        }, timeout, TimeUnit.MILLISECONDS);
+        future.whenComplete((res, ex) -> expire.cancel(false));
+        return future;
+    }
+
+    /**
+     * Stops waiting on a future returned by register
+     *
+     * @param selector the selector the future was registered for
+     * @param future the future to cancel
+     */
+    public void cancel(String selector, CompletableFuture<Optional<ObjectNode>> future) {
+        if (this.remove(selector, future))
+            future.cancel(false);
+    }
+
+    /**
+     * Closes the connection, completing any outstanding waiters with Optional.empty()
+     */
+    public void close() {
+        this.detach().ifPresent(CIBusDispatcher::closeConnection);
+    }
+
+    private void connect() throws JMSException {
+        if (this.connection != null)
+            return;
+
+        ActiveMQConnectionFactory factory = new ActiveMQConnectionFactory(this.config.broker.getUrl());
+        factory.setUserName(this.config.kerb.getUser());
+        factory.setPassword(this.config.kerb.getPassword());
+        Connection conn = factory.createConnection();
+        try {
+            conn.setClientID(this.clientID);
+            conn.setExceptionListener(exc -> {
+                logger.error(exc.getMessage());
+                if (this.connection == conn)
+                    this.close();
+            });
+            conn.start();
+        } catch (JMSException e) {
+            conn.close();
+            throw e;
+        }
+        this.connection = conn;
+        logger.info(String.format("Connected to the CI Message Bus as %s", this.clientID));
+    }
+
+    private void dispatch(String selector, Message msg) {
+        CompletableFuture<Optional<ObjectNode>> future;
+        synchronized (this) {
+            Deque<CompletableFuture<Optional<ObjectNode>>> queue = this.waiters.get(selector);
+            future = queue == null ? null : queue.poll();
+            if (queue != null && queue.isEmpty())
+                this.closeSession(selector);
+        }
+        if (future == null) {
+            logger.warn(String.format("Dropping message for %s since nothing is waiting on it", selector));
+            return;
+        }
+
+        try {
+            future.complete(Optional.of(CIBusListener.parse(msg)));
+        } catch (JMSException e) {
+            e.printStackTrace();
+            future.complete(Optional.empty());
+        }
+    }
+
+    private synchronized boolean remove(String selector, CompletableFuture<Optional<ObjectNode>> future) {
+        Deque<CompletableFuture<Optional<ObjectNode>>> queue = this.waiters.get(selector);
+        if (queue == null || !queue.remove(future))
+            return false;
+        if (queue.isEmpty())
+            this.closeSession(selector);
+        return true;
+    }
+
+    /**
+     * Forgets a selector and closes its session
+     *
+     * The session is closed from another thread, since this may be called from the session's own MessageListener,
+     * and closing it must not happen while holding the lock the session thread may be waiting on.
+     */
+    private void closeSession(String selector) {
+        this.waiters.remove(selector);
+        Session session = this.sessions.remove(selector);
+        if (session != null)
+            timer.execute(() -> {
+                try {
+                    session.close();
+                } catch (JMSException e) {
+                    e.printStackTrace();
+                }
+            });
+        this.closeWhenIdle();
+    }
+
+    /**
+     * Schedules closing the connection if nothing is waiting on it anymore.  Must be called holding the lock
+     */
+    private void closeWhenIdle() {
+        if (!this.waiters.isEmpty() || this.connection == null || this.idle != null)
+            return;
+        Connection conn = this.connection;
+        this.idle = timer.schedule(() -> {
+            // Nothing is waiting, so the connection can be dropped without going through detach
+            synchronized (this) {
+                if (this.connection != conn || !this.waiters.isEmpty())
+                    return;
+                this.idle = null;
+                this.connection = null;
+            }
+            logger.info(String.format("Closing the idle connection to the CI Message Bus as %s", this.clientID));
+            CIBusDispatcher.closeConnection(conn);
+        }, CIBusDispatcher.idleTimeout(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Drops the connection and completes all the waiters with Optional.empty()
+     *
+     * Neither the connection is closed nor are the futures completed while holding the lock, since closing waits for
+     * the session thread (which may be blocked in dispatch) and completing runs the callers' callbacks.
+     *
+     * @return the connection that the caller must close, if there was one
+     */
+    private Optional<Connection> detach() {
+        List<CompletableFuture<Optional<ObjectNode>>> pending = new ArrayList<>();
+        Connection conn;
+        synchronized (this) {
+            this.waiters.values().forEach(pending::addAll);
+            this.waiters.clear();
+            this.sessions.clear();
+            if (this.idle != null)
+                this.idle.cancel(false);
+            this.idle = null;
+            conn = this.connection;
+            this.connection = null;
+        }
+        pending.forEach(f -> f.complete(Optional.empty()));
+        return Optional.ofNullable(conn);
+    }
+
+    private static void closeConnection(Connection conn) {
+        try {
+            conn.close();
+        } catch (JMSException e) {
+            e.printStackTrace();
+        }
+    }
+}
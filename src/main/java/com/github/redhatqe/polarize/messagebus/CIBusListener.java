@@ -21,6 +21,7 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.Enumeration;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.function.Supplier;
 
@@ -169,6 +170,18 @@ public class CIBusListener {
      * @throws JMSException
      */
     public ObjectNode parseMessage(Message msg) throws ExecutionException, InterruptedException, JMSException  {
+        return CIBusListener.parse(msg);
+    }
+
+    /**
+     * Parses a Message returning a Jackson ObjectNode
+     *
+     * @param msg Message received from a Message bus
+     * @return the parsed message (which is empty if the message could not be read)
+     * @throws JMSException
+     */
+    public static ObjectNode parse(Message msg) throws JMSException {
+        Logger logger = LoggerFactory.getLogger(CIBusListener.class);
         ObjectMapper mapper = new ObjectMapper();
         ObjectNode root = mapper.createObjectNode();
         if (msg instanceof MapMessage) {
@@ -183,7 +196,7 @@ public class CIBusListener {
         else if (msg instanceof TextMessage) {
             TextMessage tm = (TextMessage) msg;
             String text = tm.getText();
-            this.logger.info(text);
+            logger.info(text);
             try {
                 JsonNode node = mapper.readTree(text);
                 root.set("root", node);
@@ -193,7 +206,7 @@ public class CIBusListener {
         }
         else {
             String err = msg == null ? " was null" : msg.toString();
-            this.logger.error(String.format("Unknown Message:  Could not read message %s", err));
+            logger.error(String.format("Unknown Message:  Could not read message %s", err));
         }
         return root;
     }
@@ -201,45 +214,31 @@ public class CIBusListener {
     /**
      * Returns a Supplier usable for a CompletableFuture object
      *
-     * Normally, this function will be run in a thread from the fork/join pool since this method will block in the
-     * bl.waitForMessage.  However, this function doesn't actually _do_ anything, as it returns a Supplier.  The
-     * thread it is running on will actually call the Supplier and thus block, however, the main thread from which
-     * getCIMessage itself is called will continue as normal.
+     * Normally, this function will be run in a thread from the fork/join pool since the Supplier blocks until the
+     * message arrives.  However, this function doesn't actually _do_ anything, as it returns a Supplier.  Since the
+     * waiter is only registered once the Supplier runs, prefer {@link #waitForCIMessage(String, String)}, which
+     * registers it right away.
      *
      * @return ObjectNode that is the parsed message
      */
     public static Supplier<Optional<ObjectNode>> getCIMessage(String selector, String path) {
-        return () -> {
-            ObjectNode root = null;
-            CIBusListener bl = new CIBusListener(path);
-            bl.logger.info(String.format("Using selector of %s", selector));
-            Optional<Tuple<Connection, Message>> maybeConn = bl.waitForMessage(selector);
-            if (!maybeConn.isPresent()) {
-                bl.logger.error("No Connection object found");
-                return Optional.empty();
-            }
-
-            Tuple<Connection, Message> tuple = maybeConn.get();
-            Connection conn = tuple.first;
-            Message msg = tuple.second;
+        return () -> CIBusListener.waitForCIMessage(selector, path).join();
+    }
 
-            // FIXME:  Should I write an exception handler outside of this function?  Might be easier than trying to
-            // deal with it here (for example a retry)
-            try {
-                conn.close();
-                root = bl.parseMessage(msg);
-            } catch (ExecutionException e) {
-                e.printStackTrace();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            } catch (JMSException e) {
-                e.printStackTrace();
-            }
-            if (root != null)
-                return Optional.of(root);
-            else
-                return Optional.empty();
-        };
+    /**
+     * Waits for a message on the shared connection of the {@link CIBusDispatcher}
+     *
+     * The waiter is registered before this returns, so it is safe to make the import request afterwards.  The timeout
+     * comes from the xunit importer section of the config file.
+     *
+     * @param selector JMS selector to wait for a message on
+     * @param path path to the polarize-config.xml (or null for the default)
+     * @return a future that completes with the parsed message, or Optional.empty() on timeout or error
+     */
+    public static CompletableFuture<Optional<ObjectNode>> waitForCIMessage(String selector, String path) {
+        CIBusDispatcher dispatcher = CIBusDispatcher.forConfig(path);
+        LoggerFactory.getLogger(CIBusListener.class).info(String.format("Using selector of %s", selector));
+        return dispatcher.register(selector, dispatcher.defaultTimeout());
     }
 
     /**
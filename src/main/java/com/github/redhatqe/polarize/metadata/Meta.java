@@ -12,6 +12,7 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.nio.file.Path;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 /**
@@ -114,6 +115,34 @@ public class Meta<T> {
         return Optional.of(res);
     }
 
+    /**
+     * Gets the Polarion ID from the XML pointed at in meta without unmarshalling the Testcase
+     *
+     * Only the attributes of the root <testcase> element are read (see {@link IJAXBHelper#rootAttributes(File)}), so
+     * this is much cheaper than {@link #getPolarionIDFromXML(String)} and should be preferred whenever the Testcase
+     * object itself is not needed.  Unlike getPolarionIDFromXML, the XML is not validated against the xsd.
+     *
+     * @param tcPath path to the testcases
+     * @return Optionally the Polarion ID ("" if the <testcase> has no id), or empty if there is no readable XML file
+     */
+    public Optional<String> probePolarionIDFromXML(String tcPath) {
+        Optional<File> xmlDesc = this.getFileFromMeta(tcPath);
+        if (!xmlDesc.isPresent())
+            return Optional.empty();
+
+        Optional<Map<String, String>> attrs = IJAXBHelper.rootAttributes(xmlDesc.get());
+        if (!attrs.isPresent()) {
+            Meta.logger.info(String.format("Could not read %s.  No Testcase present...", xmlDesc.get()));
+            return Optional.empty();
+        }
+        String id = attrs.get().get("id");
+        if (id == null || id.equals("")) {
+            Meta.logger.info("No id attribute for <testcase>");
+            return Optional.of("");
+        }
+        return Optional.of(id);
+    }
+
     /**
      * Returns possible file location to the XML description file based on a Meta type and a project
      *
@@ -0,0 +1,131 @@
+package com.github.redhatqe.polarize.mapping;
+
+import com.github.redhatqe.polarize.IdParams;
+import com.github.redhatqe.polarize.exceptions.MappingError;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * The class generated by CompiledMapping.generateSource is compiled, loaded and read back with fromClass
+ *
+ * This test is in the mapping package since fromClass is package-private.
+ */
+public class CompiledMappingTest {
+    private Path dir;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        this.dir = Files.createTempDirectory("polarize-compiled");
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        Files.walk(this.dir).sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+    }
+
+    private CompiledMapping roundTrip(Map<String, Map<String, IdParams>> mapping) throws Exception {
+        String source = CompiledMapping.generateSource(mapping, "mapping.json");
+        String name = CompiledMapping.className;
+        Path java = this.dir.resolve(name.replace('.', '/') + ".java");
+        Files.createDirectories(java.getParent());
+        Files.write(java, source.getBytes(StandardCharsets.UTF_8));
+
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        Assert.assertNotNull(javac, "The tests must be run with a JDK");
+        // -proc:none, or polarize's own annotation processor on the classpath would run and look for its config
+        int rc = javac.run(null, null, null, "-proc:none", "-d", this.dir.toString(), java.toString());
+        Assert.assertEquals(rc, 0, "The generated source did not compile");
+
+        try (URLClassLoader cl = new URLClassLoader(new URL[]{ this.dir.toUri().toURL() }, null)) {
+            return CompiledMapping.fromClass(cl.loadClass(name));
+        }
+    }
+
+    private static IdParams ip(String id, String... params) {
+        return new IdParams(id, Arrays.asList(params));
+    }
+
+    private static void assertSameEntry(Map<String, IdParams> actual, Map<String, IdParams> expected) {
+        MappingDiff diff = MappingDiff.between(Collections.singletonMap("m", expected),
+                Collections.singletonMap("m", actual));
+        Assert.assertTrue(diff.isEmpty(), String.join("\n", diff.lines()));
+    }
+
+    @Test
+    public void findsEveryMethodOfTheMapping() throws Exception {
+        Map<String, Map<String, IdParams>> mapping = new HashMap<>();
+        Map<String, IdParams> both = new HashMap<>();
+        both.put("RedHatEnterpriseLinux7", ip("RHEL7-1", "name", "age"));
+        both.put("PLATTP", ip("PLATTP-1", "name", "age"));
+        mapping.put("com.example.Tests.testBoth", both);
+        mapping.put("com.example.Tests.testNoId", Collections.singletonMap("PLATTP", ip("")));
+        mapping.put("com.example.Tests.testNoParams", Collections.singletonMap("PLATTP", ip("PLATTP-2")));
+        // Quotes, backslashes, newlines and non-ASCII chars have to survive being written as Java literals
+        mapping.put("com.example.Tests.testOdd", Collections.singletonMap("PLATTP",
+                ip("PLATTP-3", "a \"quoted\" \\ param", "line\nbreak", "caf\u00e9")));
+
+        CompiledMapping cm = this.roundTrip(mapping);
+        Assert.assertEquals(cm.size(), mapping.size());
+        Assert.assertEquals(cm.getSource(), "mapping.json");
+        mapping.forEach((qual, inner) -> assertSameEntry(cm.getMethod(qual), inner));
+        Assert.assertEquals(cm.get("com.example.Tests.testBoth", "PLATTP").map(IdParams::getId),
+                Optional.of("PLATTP-1"));
+    }
+
+    @Test
+    public void missesMethodsThatAreNotInTheMapping() throws Exception {
+        Map<String, Map<String, IdParams>> mapping = new HashMap<>();
+        for (int i = 0; i < 50; i++)
+            mapping.put("com.example.Tests.test" + i, Collections.singletonMap("PLATTP", ip("PLATTP-" + i)));
+
+        CompiledMapping cm = this.roundTrip(mapping);
+        // Every slot is checked against the name it holds, so a name that hashes to a used slot is still a miss
+        for (int i = 50; i < 500; i++)
+            Assert.assertNull(cm.getMethod("com.example.Tests.test" + i));
+        Assert.assertNull(cm.getMethod(""));
+        Assert.assertFalse(cm.get("com.example.Tests.test0", "RedHatEnterpriseLinux7").isPresent());
+    }
+
+    @Test
+    public void readsAnEmptyMapping() throws Exception {
+        CompiledMapping cm = this.roundTrip(new HashMap<>());
+        Assert.assertEquals(cm.size(), 0);
+        Assert.assertNull(cm.getMethod("com.example.Tests.testFoo"));
+    }
+
+    @Test
+    public void splitsTablesBiggerThanAConstant() throws Exception {
+        // A single string constant can not be more than 64KB in a class file
+        Map<String, Map<String, IdParams>> mapping = new HashMap<>();
+        int n = 3000;
+        for (int i = 0; i < n; i++)
+            mapping.put(String.format("com.example.polarize.tests.SomeLongTestClassName.testMethodNumber%05d", i),
+                    Collections.singletonMap("RedHatEnterpriseLinux7", ip("RHEL7-" + i, "first", "second")));
+        String source = CompiledMapping.generateSource(mapping, "mapping.json");
+        Assert.assertTrue(source.length() > 64 * 1024);
+
+        CompiledMapping cm = this.roundTrip(mapping);
+        Assert.assertEquals(cm.size(), n);
+        mapping.forEach((qual, inner) -> assertSameEntry(cm.getMethod(qual), inner));
+    }
+
+    @Test(expectedExceptions = MappingError.class)
+    public void rejectsSeparatorCharsInParameters() {
+        Map<String, Map<String, IdParams>> mapping = new HashMap<>();
+        mapping.put("com.example.Tests.testFoo", Collections.singletonMap("PLATTP", ip("PLATTP-1", "a\u001fb")));
+        CompiledMapping.generateSource(mapping, "mapping.json");
+    }
+}
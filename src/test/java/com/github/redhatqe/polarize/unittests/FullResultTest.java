@@ -0,0 +1,100 @@
+package com.github.redhatqe.polarize.unittests;
+
+import com.github.redhatqe.polarize.importer.xunit.Testsuite;
+import com.github.redhatqe.polarize.importer.xunit.Testsuites;
+import com.github.redhatqe.polarize.junitreporter.ConcurrentFullResult;
+import com.github.redhatqe.polarize.junitreporter.FullResult;
+import org.testng.Assert;
+import org.testng.ITestResult;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.TreeSet;
+
+/**
+ * Adding up the counts of FullResults
+ */
+public class FullResultTest {
+    private static FullResult tallied(String classname) {
+        FullResult fr = new FullResult();
+        fr.tally(ITestResult.SUCCESS, false, classname + ".testPass");
+        fr.tally(ITestResult.FAILURE, false, classname + ".testFail");
+        fr.tally(ITestResult.FAILURE, true, classname + ".testError");
+        fr.tally(ITestResult.SKIP, false, classname + ".testSkip");
+        return fr;
+    }
+
+    @Test
+    public void addKeepsEveryCount() {
+        FullResult a = tallied("com.example.A");
+        FullResult b = tallied("com.example.B");
+        b.tally(ITestResult.FAILURE, false, "com.example.B.testFail");
+
+        FullResult sum = a.add(b);
+        Assert.assertEquals(sum.total, 9);
+        Assert.assertEquals(sum.passes, 2);
+        Assert.assertEquals(sum.fails, 3);
+        Assert.assertEquals(sum.errors, 2);
+        Assert.assertEquals(sum.skips, 2);
+        Assert.assertEquals(sum.errorsByMethod,
+                new TreeSet<>(Arrays.asList("com.example.A.testError", "com.example.B.testError")));
+        // Neither side is changed
+        Assert.assertEquals(a.fails, 1);
+        Assert.assertEquals(a.errorsByMethod.size(), 1);
+    }
+
+    @Test
+    public void addedErrorsSetTheSuiteCounts() {
+        FullResult sum = tallied("com.example.A").add(tallied("com.example.B"));
+        Testsuite ts = new Testsuite();
+        // 2 failed and 2 errored iterations, in 8 methods
+        sum.setSuiteCounts(ts, 4, 2, 8);
+        Assert.assertEquals(ts.getErrors(), "2");
+        Assert.assertEquals(ts.getFailures(), "2");
+        Assert.assertEquals(ts.getSkipped(), "2");
+        Assert.assertEquals(ts.getTests(), "8");
+    }
+
+    @Test
+    public void fromSuitesCountsThePassesOfEachSuite() {
+        Testsuites tsuites = new Testsuites();
+        tsuites.getTestsuite().add(suite("4", "1", "1", "0"));
+        tsuites.getTestsuite().add(suite("3", "0", "0", "1"));
+
+        FullResult fr = FullResult.fromSuites(tsuites);
+        Assert.assertEquals(fr.total, 7);
+        Assert.assertEquals(fr.errors, 1);
+        Assert.assertEquals(fr.fails, 1);
+        Assert.assertEquals(fr.skips, 1);
+        Assert.assertEquals(fr.passes, 4);
+    }
+
+    @Test
+    public void concurrentSnapshotMatchesTally() {
+        ConcurrentFullResult cfr = new ConcurrentFullResult("com.example.A");
+        cfr.tally(ITestResult.SUCCESS, false, "com.example.A.testPass");
+        cfr.tally(ITestResult.FAILURE, false, "com.example.A.testFail");
+        cfr.tally(ITestResult.FAILURE, true, "com.example.A.testError");
+        cfr.tally(ITestResult.SKIP, false, "com.example.A.testSkip");
+
+        FullResult expected = tallied("com.example.A");
+        FullResult fr = cfr.snapshot();
+        Assert.assertEquals(fr.total, expected.total);
+        Assert.assertEquals(fr.passes, expected.passes);
+        Assert.assertEquals(fr.fails, expected.fails);
+        Assert.assertEquals(fr.errors, expected.errors);
+        Assert.assertEquals(fr.skips, expected.skips);
+        Assert.assertEquals(fr.errorsByMethod, expected.errorsByMethod);
+        Assert.assertEquals(fr.classname, "com.example.A");
+    }
+
+    private static Testsuite suite(String tests, String errors, String failures, String skipped) {
+        Testsuite ts = new Testsuite();
+        ts.setName("Suite");
+        ts.setTests(tests);
+        ts.setErrors(errors);
+        ts.setFailures(failures);
+        ts.setSkipped(skipped);
+        return ts;
+    }
+}
@@ -0,0 +1,118 @@
+package com.github.redhatqe.polarize.unittests;
+
+import com.github.redhatqe.polarize.IdParams;
+import com.github.redhatqe.polarize.mapping.MappingSnapshot;
+import com.github.redhatqe.polarize.mapping.MappingStore;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import static com.github.redhatqe.polarize.unittests.MappingStoreTest.assertSame;
+import static com.github.redhatqe.polarize.unittests.MappingStoreTest.ip;
+import static com.github.redhatqe.polarize.unittests.MappingStoreTest.mapping;
+
+/**
+ * The snapshot of a mapping file is only used while it matches the mapping file
+ */
+public class MappingSnapshotTest {
+    private Path dir;
+    private File mapPath;
+    private Map<String, Map<String, IdParams>> mapping;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        this.dir = Files.createTempDirectory("polarize-snapshot");
+        this.mapPath = this.dir.resolve("mapping.json").toFile();
+        this.mapping = mapping("a.B.one", "P1", ip("P1-1", "x", "y"), "a.B.one", "P2", ip("P2-1", "x", "y"),
+                "a.B.two", "P1", ip(""), "a.B.\u00e9t\u00e9", "P2", ip("P2-2"));
+        // An entry without any parameters list at all is kept apart from an empty one
+        IdParams noParams = new IdParams();
+        noParams.setId("P1-3");
+        this.mapping.computeIfAbsent("a.B.three", k -> new HashMap<>()).put("P1", noParams);
+        MappingStore.forFile(this.mapPath).compact(this.mapping);
+        MappingSnapshot.write(this.mapPath, this.mapping);
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        System.clearProperty(MappingSnapshot.enabledProperty);
+        Files.walk(this.dir).sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+    }
+
+    private MappingSnapshot open() {
+        Optional<MappingSnapshot> snapshot = MappingSnapshot.open(this.mapPath);
+        Assert.assertTrue(snapshot.isPresent(), "The snapshot should match the mapping file");
+        return snapshot.get();
+    }
+
+    /**
+     * Rewrites the mapping file with one char of an ID changed, so that its length stays the same
+     */
+    private void editInPlace() throws IOException {
+        String json = new String(Files.readAllBytes(this.mapPath.toPath()), StandardCharsets.UTF_8);
+        String edited = json.replace("P1-1", "P1-9");
+        Assert.assertNotEquals(edited, json);
+        Files.write(this.mapPath.toPath(), edited.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void readsBackTheMapping() {
+        MappingSnapshot snapshot = this.open();
+        Assert.assertEquals(snapshot.size(), this.mapping.size());
+        assertSame(snapshot.toMap(), this.mapping);
+        Assert.assertEquals(snapshot.getMethod("a.B.one").get("P2").getParameters(), Arrays.asList("x", "y"));
+        Assert.assertNull(snapshot.getMethod("a.B.three").get("P1").getParameters());
+        Assert.assertEquals(snapshot.get("a.B.\u00e9t\u00e9", "P2").map(IdParams::getId), Optional.of("P2-2"));
+        Assert.assertNull(snapshot.getMethod("a.B.four"));
+        Assert.assertNull(snapshot.getMethod("a.A"));
+        Assert.assertNull(snapshot.getMethod("a.C"));
+    }
+
+    @Test
+    public void ignoresASnapshotOfAnEditedMappingFile() throws IOException {
+        long length = this.mapPath.length();
+        this.editInPlace();
+        // Same length, so only the checksum tells them apart
+        Assert.assertEquals(this.mapPath.length(), length);
+        Assert.assertFalse(MappingSnapshot.open(this.mapPath).isPresent());
+
+        Files.write(this.mapPath.toPath(), "\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        Assert.assertFalse(MappingSnapshot.open(this.mapPath).isPresent());
+    }
+
+    @Test
+    public void aStampTakenBeforeAnEditMakesTheSnapshotStale() throws IOException {
+        long[] stamp = MappingSnapshot.stamp(this.mapPath);
+        // The mapping file changes while the old content is being loaded
+        this.editInPlace();
+        MappingSnapshot.write(this.mapPath, this.mapping, stamp);
+        Assert.assertFalse(MappingSnapshot.open(this.mapPath).isPresent());
+
+        MappingSnapshot.write(this.mapPath, MappingStore.forFile(this.mapPath).load());
+        Assert.assertEquals(this.open().get("a.B.one", "P1").map(IdParams::getId), Optional.of("P1-9"));
+    }
+
+    @Test
+    public void ignoresATruncatedSnapshot() throws IOException {
+        File path = MappingSnapshot.snapshotPath(this.mapPath);
+        byte[] bytes = Files.readAllBytes(path.toPath());
+        Files.write(path.toPath(), Arrays.copyOf(bytes, 16));
+        Assert.assertFalse(MappingSnapshot.open(this.mapPath).isPresent());
+    }
+
+    @Test
+    public void canBeTurnedOff() {
+        System.setProperty(MappingSnapshot.enabledProperty, "false");
+        Assert.assertFalse(MappingSnapshot.open(this.mapPath).isPresent());
+        Assert.assertNull(MappingSnapshot.stamp(this.mapPath));
+    }
+}
@@ -0,0 +1,156 @@
+package com.github.redhatqe.polarize.unittests;
+
+import com.github.redhatqe.polarize.IdParams;
+import com.github.redhatqe.polarize.mapping.MappingDiff;
+import com.github.redhatqe.polarize.mapping.MappingShards;
+import com.github.redhatqe.polarize.mapping.MappingStore;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Journal replay, crash recovery and compaction of the MappingStore
+ */
+public class MappingStoreTest {
+    private Path dir;
+    private File mapPath;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        this.dir = Files.createTempDirectory("polarize-store");
+        this.mapPath = this.dir.resolve("mapping.json").toFile();
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        Files.walk(this.dir).sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+    }
+
+    static IdParams ip(String id, String... params) {
+        return new IdParams(id, Arrays.asList(params));
+    }
+
+    static Map<String, Map<String, IdParams>> mapping(Object... entries) {
+        Map<String, Map<String, IdParams>> mapping = new HashMap<>();
+        for (int i = 0; i < entries.length; i += 3)
+            mapping.computeIfAbsent((String) entries[i], k -> new HashMap<>())
+                    .put((String) entries[i + 1], (IdParams) entries[i + 2]);
+        return mapping;
+    }
+
+    static void assertSame(Map<String, Map<String, IdParams>> actual, Map<String, Map<String, IdParams>> expected) {
+        MappingDiff diff = MappingDiff.between(expected, actual);
+        Assert.assertTrue(diff.isEmpty(), String.join("\n", diff.lines()));
+    }
+
+    @Test
+    public void replaysTheJournalOverTheMappingFile() {
+        MappingStore store = MappingStore.forFile(this.mapPath);
+        store.compact(mapping("a.B.one", "P1", ip("P1-1"), "a.B.two", "P1", ip("", "x")));
+        Assert.assertFalse(store.hasPending());
+
+        store.append("a.B.two", "P1", ip("P1-2", "x"));
+        store.append("a.B.three", "P2", ip("P2-3", "y", "z"));
+        // a later entry for the same method and project wins
+        store.append("a.B.three", "P2", ip("P2-4", "y", "z"));
+        Assert.assertTrue(store.hasPending());
+
+        assertSame(store.load(), mapping("a.B.one", "P1", ip("P1-1"), "a.B.two", "P1", ip("P1-2", "x"),
+                "a.B.three", "P2", ip("P2-4", "y", "z")));
+    }
+
+    @Test
+    public void skipsATornLastJournalLine() throws IOException {
+        MappingStore store = MappingStore.forFile(this.mapPath);
+        store.append("a.B.one", "P1", ip("P1-1"));
+        Files.write(store.getJournalPath().toPath(), "{\"name\":\"a.B.two\",\"proj".getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+
+        Map<String, Map<String, IdParams>> loaded = store.load();
+        assertSame(loaded, mapping("a.B.one", "P1", ip("P1-1")));
+    }
+
+    @Test
+    public void recoversFromACrashBeforeTheJournalWasDeleted() {
+        MappingStore store = MappingStore.forFile(this.mapPath);
+        Map<String, Map<String, IdParams>> expected = mapping("a.B.one", "P1", ip("P1-1"), "a.B.two", "P2", ip("P2-2"));
+        store.compact(expected);
+
+        // A crash after the rename but before the journal was deleted leaves a redundant journal
+        store.append("a.B.one", "P1", ip("P1-1"));
+        store.append("a.B.two", "P2", ip("P2-2"));
+        assertSame(store.load(), expected);
+
+        // and replaying it again does not change anything
+        MappingDiff diff = store.compact(store.load());
+        Assert.assertTrue(diff.isEmpty());
+        Assert.assertFalse(store.hasPending());
+    }
+
+    @Test
+    public void compactWritesOnlyWhatChanged() throws IOException {
+        MappingStore store = MappingStore.forFile(this.mapPath);
+        MappingDiff first = store.compact(mapping("a.B.one", "P1", ip("P1-1"), "a.B.two", "P1", ip("P1-2")));
+        Assert.assertEquals(first.getAdded().size(), 2);
+        Assert.assertTrue(this.mapPath.exists());
+        byte[] written = Files.readAllBytes(this.mapPath.toPath());
+
+        Map<String, Map<String, IdParams>> mapping = store.load();
+        store.append("a.B.two", "P1", ip("P1-2"));
+        MappingDiff same = store.compact(mapping);
+        Assert.assertTrue(same.isEmpty());
+        Assert.assertFalse(store.hasPending());
+        Assert.assertEquals(Files.readAllBytes(this.mapPath.toPath()), written);
+
+        mapping.get("a.B.two").put("P1", ip("P1-3"));
+        mapping.remove("a.B.one");
+        MappingDiff changed = store.compact(mapping);
+        Assert.assertEquals(changed.getChanged().size(), 1);
+        Assert.assertEquals(changed.getRemoved().size(), 1);
+        assertSame(store.load(), mapping("a.B.two", "P1", ip("P1-3")));
+    }
+
+    @Test
+    public void keepsTheJournalWhenTheMappingCanNotBeWritten() throws IOException {
+        MappingStore store = MappingStore.forFile(this.mapPath);
+        store.compact(mapping("a.B.one", "P1", ip("P1-1")));
+        store.append("a.B.one", "P1", ip("P1-2"));
+
+        // The temporary file can't be created if a directory is in its way
+        File tmp = new File(this.mapPath.getPath() + ".tmp");
+        Assert.assertTrue(tmp.mkdir());
+        MappingDiff failed = store.compact(store.load());
+        Assert.assertTrue(failed.isEmpty());
+        Assert.assertTrue(store.hasPending());
+
+        Files.deleteIfExists(tmp.toPath());
+        MappingDiff diff = store.compact(store.load());
+        Assert.assertEquals(diff.getChanged().size(), 1);
+        Assert.assertFalse(store.hasPending());
+        assertSame(store.load(), mapping("a.B.one", "P1", ip("P1-2")));
+    }
+
+    @Test
+    public void deletesTheShardOfAnEmptiedProject() throws IOException {
+        MappingStore store = MappingStore.forFile(this.mapPath);
+        store.compact(mapping("a.B.one", "P1", ip("P1-1"), "a.B.two", "P2", ip("P2-2")));
+        MappingShards shards = MappingShards.migrate(this.mapPath);
+        Assert.assertTrue(store.isSharded());
+        Assert.assertEquals(shards.getProjects(), new TreeSet<>(Arrays.asList("P1", "P2")));
+
+        Map<String, Map<String, IdParams>> mapping = store.load(Collections.singletonList("P2"));
+        mapping.remove("a.B.two");
+        store.compact(mapping, Collections.singletonList("P2"));
+        Assert.assertEquals(shards.getProjects(), new TreeSet<>(Collections.singletonList("P1")));
+        assertSame(store.load(), mapping("a.B.one", "P1", ip("P1-1")));
+    }
+}
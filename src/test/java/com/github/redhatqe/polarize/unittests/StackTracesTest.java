@@ -0,0 +1,63 @@
+package com.github.redhatqe.polarize.unittests;
+
+import com.github.redhatqe.polarize.junitreporter.StackTraces;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Truncating the messages and sharing the rendered traces of failed tests
+ */
+public class StackTracesTest {
+    private static String repeat(char c, int n) {
+        StringBuilder sb = new StringBuilder(n);
+        for (int i = 0; i < n; i++)
+            sb.append(c);
+        return sb.toString();
+    }
+
+    @Test
+    public void keepsAShortMessage() {
+        Assert.assertEquals(StackTraces.truncate("expected [1] but found [2]"), "expected [1] but found [2]");
+        Assert.assertEquals(StackTraces.truncate(""), "");
+    }
+
+    @Test
+    public void keepsAMessageOfExactlyTheLimit() {
+        String msg = repeat('a', StackTraces.maxMessage);
+        Assert.assertEquals(StackTraces.truncate(msg), msg);
+    }
+
+    @Test
+    public void keepsTheStartOfALongMessage() {
+        String msg = repeat('a', StackTraces.maxMessage) + repeat('b', 50);
+        String truncated = StackTraces.truncate(msg);
+        Assert.assertEquals(truncated.length(), StackTraces.maxMessage);
+        Assert.assertEquals(truncated, repeat('a', StackTraces.maxMessage));
+    }
+
+    @Test
+    public void passesANullMessageThrough() {
+        Assert.assertNull(StackTraces.truncate(null));
+    }
+
+    @Test
+    public void rendersIdenticalTracesAsTheSameString() {
+        // Created on the same line, so the traces are identical
+        List<Throwable> thrown = new ArrayList<>();
+        for (int i = 0; i < 2; i++)
+            thrown.add(new AssertionError("iteration " + i));
+        Throwable other = new IllegalStateException("elsewhere");
+
+        long hits = StackTraces.getHits();
+        String first = StackTraces.render(thrown.get(0));
+        String second = StackTraces.render(thrown.get(1));
+        Assert.assertSame(second, first);
+        Assert.assertTrue(StackTraces.getHits() > hits);
+        Assert.assertTrue(first.contains("rendersIdenticalTracesAsTheSameString"));
+
+        Assert.assertNotEquals(StackTraces.render(other), first);
+    }
+}
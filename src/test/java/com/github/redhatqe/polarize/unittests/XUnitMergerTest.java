@@ -0,0 +1,188 @@
+package com.github.redhatqe.polarize.unittests;
+
+import com.github.redhatqe.polarize.IJAXBHelper;
+import com.github.redhatqe.polarize.importer.xunit.Testsuites;
+import com.github.redhatqe.polarize.junitreporter.FullResult;
+import com.github.redhatqe.polarize.junitreporter.JAXBReporter;
+import com.github.redhatqe.polarize.junitreporter.XUnitMerger;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Which duplicate testcases XUnitMerger keeps, and the counts it recomputes from them
+ */
+public class XUnitMergerTest {
+    private Path dir;
+    private File first;
+    private File rerun;
+    private File merged;
+
+    private static final String header = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<testsuites>\n"
+            + "    <properties>\n"
+            + "        <property name=\"polarion-project-id\" value=\"%s\"/>\n"
+            + "    </properties>\n";
+
+    /**
+     * A testcase of com.example.Tests, with the properties of its Polarion ID and its argument (if any)
+     */
+    private static String testcase(String method, String id, String arg, String result) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("        <testcase name=\"%s\" classname=\"com.example.Tests\">\n", method));
+        if (result != null)
+            sb.append("            ").append(result).append("\n");
+        sb.append("            <properties>\n");
+        sb.append(String.format("                <property name=\"polarion-testcase-id\" value=\"%s\"/>\n", id));
+        if (arg != null)
+            sb.append(String.format("                <property name=\"polarion-parameter-arg\" value=\"%s\"/>\n", arg));
+        sb.append("            </properties>\n");
+        sb.append("        </testcase>\n");
+        return sb.toString();
+    }
+
+    private File write(String name, String content) throws IOException {
+        File f = this.dir.resolve(name).toFile();
+        Files.write(f.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return f;
+    }
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        this.dir = Files.createTempDirectory("polarize-merge-test");
+        this.merged = this.dir.resolve("merged.xml").toFile();
+        // testOne errors with arg 1 and passes with arg 2, testTwo fails and testThree is skipped
+        this.first = this.write("first.xml", String.format(header, "PLATTP")
+                + "    <testsuite name=\"Suite\" tests=\"3\" time=\"2.0\">\n"
+                + testcase("testOne", "PLATTP-1", "1", "<error message=\"boom\">at x</error>")
+                + testcase("testOne", "PLATTP-1", "2", null)
+                + testcase("testTwo", "PLATTP-2", null, "<failure message=\"expected\"/>")
+                + testcase("testThree", "PLATTP-3", null, "<skipped/>")
+                + "    </testsuite>\n"
+                + "</testsuites>\n");
+        // The rerun of the error and the failure both pass, and another worker ran a suite of its own
+        this.rerun = this.write("rerun.xml", String.format(header, "RedHatEnterpriseLinux7")
+                + "    <testsuite name=\"Suite\" tests=\"2\" time=\"5.0\">\n"
+                + testcase("testOne", "PLATTP-1", "1", null)
+                + testcase("testTwo", "PLATTP-2", null, null)
+                + "    </testsuite>\n"
+                + "    <testsuite name=\"Other\" tests=\"1\" time=\"1.0\">\n"
+                + testcase("testFour", "PLATTP-4", null, null)
+                + "    </testsuite>\n"
+                + "</testsuites>\n");
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        Files.walk(this.dir).sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+    }
+
+    private static Element suite(Document doc, String name) {
+        NodeList suites = doc.getElementsByTagName("testsuite");
+        for (int i = 0; i < suites.getLength(); i++) {
+            Element ts = (Element) suites.item(i);
+            if (ts.getAttribute("name").equals(name))
+                return ts;
+        }
+        throw new AssertionError(String.format("No testsuite %s", name));
+    }
+
+    private static void assertCounts(Element ts, int tests, int errors, int failures, int skipped) {
+        Assert.assertEquals(ts.getAttribute("tests"), Integer.toString(tests));
+        Assert.assertEquals(ts.getAttribute("errors"), Integer.toString(errors));
+        Assert.assertEquals(ts.getAttribute("failures"), Integer.toString(failures));
+        Assert.assertEquals(ts.getAttribute("skipped"), Integer.toString(skipped));
+    }
+
+    private FullResult merge(XUnitMerger.Strategy strategy) {
+        FullResult fr = XUnitMerger.merge(Arrays.asList(this.first, this.rerun), this.merged, strategy);
+        Assert.assertTrue(IJAXBHelper.validateXML(this.merged,
+                new JAXBReporter().getXSDFromResource(Testsuites.class)));
+        return fr;
+    }
+
+    private Document parse() throws Exception {
+        return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(this.merged);
+    }
+
+    @Test
+    public void rerunKeepsTheLastResult() throws Exception {
+        FullResult fr = this.merge(XUnitMerger.Strategy.RERUN);
+        Document doc = this.parse();
+
+        Element suite = suite(doc, "Suite");
+        Assert.assertEquals(suite.getElementsByTagName("testcase").getLength(), 4);
+        Assert.assertEquals(suite.getElementsByTagName("error").getLength(), 0);
+        Assert.assertEquals(suite.getElementsByTagName("failure").getLength(), 0);
+        Assert.assertEquals(suite.getElementsByTagName("skipped").getLength(), 1);
+        // tests is the number of methods, not of iterations
+        assertCounts(suite, 3, 0, 0, 1);
+        // the workers ran at the same time, so the time is the longest one
+        Assert.assertEquals(Double.parseDouble(suite.getAttribute("time")), 5.0);
+        assertCounts(suite(doc, "Other"), 1, 0, 0, 0);
+
+        Assert.assertEquals(fr.total, 4);
+        Assert.assertEquals(fr.errors, 0);
+        Assert.assertEquals(fr.fails, 0);
+        Assert.assertEquals(fr.skips, 1);
+    }
+
+    @Test
+    public void worstKeepsTheWorstResult() throws Exception {
+        FullResult fr = this.merge(XUnitMerger.Strategy.WORST);
+        Document doc = this.parse();
+
+        Element suite = suite(doc, "Suite");
+        Assert.assertEquals(suite.getElementsByTagName("testcase").getLength(), 4);
+        Assert.assertEquals(suite.getElementsByTagName("error").getLength(), 1);
+        Assert.assertEquals(suite.getElementsByTagName("failure").getLength(), 1);
+        // the error counts as a failed iteration too, so it is taken off the failures
+        assertCounts(suite, 3, 1, 1, 1);
+        assertCounts(suite(doc, "Other"), 1, 0, 0, 0);
+
+        Assert.assertEquals(fr.total, 4);
+        Assert.assertEquals(fr.errors, 1);
+        Assert.assertEquals(fr.fails, 1);
+        Assert.assertEquals(fr.skips, 1);
+    }
+
+    @Test
+    public void takesThePropertiesOfTheFirstFile() throws Exception {
+        this.merge(XUnitMerger.Strategy.RERUN);
+        Document doc = this.parse();
+        Element props = (Element) doc.getDocumentElement().getElementsByTagName("properties").item(0);
+        NodeList nodes = props.getElementsByTagName("property");
+        Assert.assertEquals(nodes.getLength(), 1);
+        Assert.assertEquals(((Element) nodes.item(0)).getAttribute("value"), "PLATTP");
+    }
+
+    @Test
+    public void dropsDuplicatesWithinAFile() throws Exception {
+        File twice = this.write("twice.xml", String.format(header, "PLATTP")
+                + "    <testsuite name=\"Suite\" tests=\"1\">\n"
+                + testcase("testOne", "PLATTP-1", "1", "<failure message=\"flaky\"/>")
+                + testcase("testOne", "PLATTP-1", "1", null)
+                + "    </testsuite>\n"
+                + "</testsuites>\n");
+        FullResult fr = XUnitMerger.merge(Collections.singletonList(twice), this.merged, XUnitMerger.Strategy.RERUN);
+
+        Document doc = this.parse();
+        Element suite = suite(doc, "Suite");
+        Assert.assertEquals(suite.getElementsByTagName("testcase").getLength(), 1);
+        assertCounts(suite, 1, 0, 0, 0);
+        Assert.assertEquals(fr.total, 1);
+        Assert.assertEquals(fr.passes, 1);
+    }
+}
@@ -0,0 +1,140 @@
+package com.github.redhatqe.polarize.unittests;
+
+import com.github.redhatqe.polarize.junitreporter.XUnitSharder;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * The properties each shard gets when XUnitSharder splits an xunit file
+ */
+public class XUnitSharderTest {
+    private Path dir;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        this.dir = Files.createTempDirectory("polarize-sharder");
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        Files.walk(this.dir).sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+    }
+
+    /**
+     * Writes an xunit file with the given top-level properties, and suites testsuites of 3 testcases each
+     */
+    private File xunit(int suites, String... props) throws IOException {
+        StringBuilder sb = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<testsuites>\n");
+        sb.append("    <properties>\n");
+        for (int i = 0; i < props.length; i += 2)
+            sb.append(String.format("        <property name=\"%s\" value=\"%s\"/>\n", props[i], props[i + 1]));
+        sb.append("    </properties>\n");
+        for (int s = 0; s < suites; s++) {
+            sb.append(String.format("    <testsuite name=\"Suite%d\" tests=\"3\">\n", s));
+            for (int t = 0; t < 3; t++)
+                sb.append(String.format("        <testcase name=\"test%d\" classname=\"com.example.Suite%d\"/>\n",
+                        t, s));
+            sb.append("    </testsuite>\n");
+        }
+        sb.append("</testsuites>\n");
+        File f = this.dir.resolve("testng-polarion.xml").toFile();
+        Files.write(f.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+        return f;
+    }
+
+    /**
+     * @return the top-level properties of an xunit file, in order
+     */
+    private static Map<String, String> properties(File xunit) throws Exception {
+        Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(xunit);
+        Element props = (Element) doc.getDocumentElement().getElementsByTagName("properties").item(0);
+        NodeList nodes = props.getElementsByTagName("property");
+        Map<String, String> found = new LinkedHashMap<>();
+        for (int i = 0; i < nodes.getLength(); i++) {
+            Element p = (Element) nodes.item(i);
+            found.put(p.getAttribute("name"), p.getAttribute("value"));
+        }
+        return found;
+    }
+
+    private static int testsuites(File xunit) throws Exception {
+        Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(xunit);
+        return doc.getDocumentElement().getElementsByTagName("testsuite").getLength();
+    }
+
+    @Test
+    public void keepsAFileWithinTheLimits() throws Exception {
+        File xunit = this.xunit(2, "polarion-project-id", "PLATTP", "polarion-response-rhsm_qe", "stoner");
+        List<XUnitSharder.Shard> shards = XUnitSharder.split(xunit, 0, 6);
+        Assert.assertEquals(shards.size(), 1);
+        Assert.assertEquals(shards.get(0).file, xunit);
+        Assert.assertEquals(shards.get(0).testsuites, 2);
+        Assert.assertEquals(shards.get(0).selector, "rhsm_qe='stoner'");
+    }
+
+    @Test
+    public void givesEveryShardTheSameTestRun() throws Exception {
+        File xunit = this.xunit(5, "polarion-project-id", "PLATTP", "polarion-testrun-id", "my-run",
+                "polarion-set-testrun-finished", "true", "polarion-response-rhsm_qe", "stoner");
+        List<XUnitSharder.Shard> shards = XUnitSharder.split(xunit, 0, 6);
+        Assert.assertEquals(shards.size(), 3);
+
+        int suites = 0;
+        for (int n = 0; n < shards.size(); n++) {
+            XUnitSharder.Shard shard = shards.get(n);
+            Map<String, String> props = properties(shard.file);
+            Boolean last = n == shards.size() - 1;
+            Assert.assertEquals(props.get("polarion-project-id"), "PLATTP");
+            Assert.assertEquals(props.get("polarion-testrun-id"), "my-run");
+            Assert.assertEquals(props.get("polarion-set-testrun-finished"), last ? "true" : "false");
+            Assert.assertEquals(props.get("polarion-response-rhsm_qe"), String.format("stoner_shard%d", n + 1));
+            Assert.assertEquals(shard.selector, String.format("rhsm_qe='stoner_shard%d'", n + 1));
+            Assert.assertEquals(testsuites(shard.file), shard.testsuites);
+            Assert.assertTrue(shard.testcases <= 6);
+            suites += shard.testsuites;
+        }
+        Assert.assertEquals(suites, 5);
+    }
+
+    @Test
+    public void makesUpATestRunIdWhenThereIsNone() throws Exception {
+        File xunit = this.xunit(3, "polarion-project-id", "PLATTP");
+        List<XUnitSharder.Shard> shards = XUnitSharder.split(xunit, 0, 3);
+        Assert.assertEquals(shards.size(), 3);
+
+        Set<String> ids = new HashSet<>();
+        for (XUnitSharder.Shard shard : shards) {
+            Map<String, String> props = properties(shard.file);
+            Assert.assertTrue(props.containsKey("polarion-testrun-id"));
+            ids.add(props.get("polarion-testrun-id"));
+            // Without a response property, the shards have no selector of their own
+            Assert.assertNull(shard.selector);
+        }
+        Assert.assertEquals(ids.size(), 1);
+    }
+
+    @Test
+    public void neverSplitsATestsuite() throws Exception {
+        File xunit = this.xunit(2, "polarion-project-id", "PLATTP");
+        // Every testsuite is over the limit on its own, so each one gets a shard
+        List<XUnitSharder.Shard> shards = XUnitSharder.split(xunit, 0, 2);
+        Assert.assertEquals(shards.size(), 2);
+        for (XUnitSharder.Shard shard : shards) {
+            Assert.assertEquals(shard.testsuites, 1);
+            Assert.assertEquals(shard.testcases, 3);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.github.redhatqe.polarize.unittests;
+
+import com.github.redhatqe.polarize.IJAXBHelper;
+import com.github.redhatqe.polarize.exceptions.XSDValidationError;
+import com.github.redhatqe.polarize.importer.xunit.*;
+import com.github.redhatqe.polarize.importer.xunit.Error;
+import com.github.redhatqe.polarize.junitreporter.JAXBReporter;
+import com.github.redhatqe.polarize.junitreporter.XUnitWriter;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.Comparator;
+import java.util.Optional;
+
+/**
+ * The xunit files written by XUnitWriter must be valid for the XUnit Importer
+ */
+public class XUnitWriterTest {
+    private Path dir;
+    private File report;
+    private final URL xsd = new JAXBReporter().getXSDFromResource(Testsuites.class);
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        this.dir = Files.createTempDirectory("polarize-writer");
+        this.report = this.dir.resolve("testng-polarion.xml").toFile();
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        Files.walk(this.dir).sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+    }
+
+    private static Properties properties(String... nameValues) {
+        Properties props = new Properties();
+        for (int i = 0; i < nameValues.length; i += 2) {
+            Property p = new Property();
+            p.setName(nameValues[i]);
+            p.setValue(nameValues[i + 1]);
+            props.getProperty().add(p);
+        }
+        return props;
+    }
+
+    private static Testcase testcase(String name, String id) {
+        Testcase tc = new Testcase();
+        tc.setName(name);
+        tc.setClassname("com.example.Tests");
+        tc.setTime("0.5");
+        tc.setProperties(properties("polarion-testcase-id", id, "polarion-parameter-arg", "a <quoted> \"arg\""));
+        return tc;
+    }
+
+    /**
+     * A testsuites tree with a testcase of each kind: passed, error, failure and skipped
+     */
+    private static Testsuites tree() {
+        Testsuites tsuites = new Testsuites();
+        tsuites.setProperties(properties("polarion-project-id", "PLATTP", "polarion-testrun-id", "my-run"));
+
+        Testsuite ts = new Testsuite();
+        ts.setName("Suite");
+        ts.setTests("4");
+        ts.setErrors("1");
+        ts.setFailures("1");
+        ts.setSkipped("1");
+        ts.setTime("2.0");
+        ts.setSystemOut("some output & more");
+        tsuites.getTestsuite().add(ts);
+
+        ts.getTestcase().add(testcase("testPassed", "PLATTP-1"));
+
+        Testcase error = testcase("testError", "PLATTP-2");
+        Error err = new Error();
+        err.setMessage("java.lang.NullPointerException");
+        err.setContent("java.lang.NullPointerException\n\tat com.example.Tests.testError(Tests.java:12)\n");
+        error.getError().add(err);
+        ts.getTestcase().add(error);
+
+        Testcase failure = testcase("testFailure", "PLATTP-3");
+        Failure fail = new Failure();
+        fail.setType("java.lang.AssertionError");
+        fail.setMessage("expected [1] but found [2]");
+        failure.getFailure().add(fail);
+        failure.getSystemOut().add("log line");
+        ts.getTestcase().add(failure);
+
+        Testcase skipped = testcase("testSkipped", "PLATTP-4");
+        skipped.setSkipped("");
+        ts.getTestcase().add(skipped);
+        return tsuites;
+    }
+
+    @Test
+    public void writesAReportThatValidates() {
+        XUnitWriter.write(tree(), this.report);
+        Assert.assertTrue(IJAXBHelper.validateXML(this.report, this.xsd));
+
+        Optional<Testsuites> read = IJAXBHelper.unmarshaller(Testsuites.class, this.report, this.xsd);
+        Assert.assertTrue(read.isPresent());
+        Testsuites tsuites = read.get();
+        Assert.assertEquals(tsuites.getProperties().getProperty().get(1).getValue(), "my-run");
+        Assert.assertEquals(tsuites.getTestsuite().size(), 1);
+
+        Testsuite ts = tsuites.getTestsuite().get(0);
+        Assert.assertEquals(ts.getTests(), "4");
+        Assert.assertEquals(ts.getErrors(), "1");
+        Assert.assertEquals(ts.getSystemOut(), "some output & more");
+        Assert.assertEquals(ts.getTestcase().size(), 4);
+        Assert.assertEquals(ts.getTestcase().get(0).getProperties().getProperty().get(1).getValue(),
+                "a <quoted> \"arg\"");
+        Assert.assertTrue(ts.getTestcase().get(1).getError().get(0).getContent().contains("Tests.java:12"));
+        Assert.assertEquals(ts.getTestcase().get(2).getFailure().get(0).getMessage(), "expected [1] but found [2]");
+        Assert.assertEquals(ts.getTestcase().get(2).getSystemOut().get(0), "log line");
+        Assert.assertNotNull(ts.getTestcase().get(3).getSkipped());
+    }
+
+    @Test
+    public void writesASuiteWithoutTestcases() {
+        Testsuites tsuites = new Testsuites();
+        Testsuite ts = new Testsuite();
+        ts.setName("Empty");
+        ts.setTests("0");
+        tsuites.getTestsuite().add(ts);
+        XUnitWriter.write(tsuites, this.report);
+        Assert.assertTrue(IJAXBHelper.validateXML(this.report, this.xsd));
+    }
+
+    @Test
+    public void neverReplacesAReportWithAnInvalidOne() throws IOException {
+        XUnitWriter.write(tree(), this.report);
+        byte[] good = Files.readAllBytes(this.report.toPath());
+
+        // A testcase needs a name
+        Testsuites bad = tree();
+        bad.getTestsuite().get(0).getTestcase().get(0).setName(null);
+        Assert.assertThrows(XSDValidationError.class, () -> XUnitWriter.write(bad, this.report));
+        Assert.assertEquals(Files.readAllBytes(this.report.toPath()), good);
+        // and the temporary file is gone
+        Assert.assertEquals(this.dir.toFile().list().length, 1);
+    }
+
+    @Test
+    public void deletesTheTemporaryFileIfNotFinished() {
+        try (XUnitWriter writer = new XUnitWriter(this.report)) {
+            writer.startTestsuites(tree());
+        }
+        Assert.assertFalse(this.report.exists());
+        Assert.assertEquals(this.dir.toFile().list().length, 0);
+    }
+
+    @Test
+    public void givesTheReportTheDefaultPermissions() throws IOException {
+        PosixFileAttributeView view = Files.getFileAttributeView(this.dir, PosixFileAttributeView.class);
+        if (view == null)
+            return;
+        Path plain = Files.createFile(this.dir.resolve("plain.xml"));
+        XUnitWriter.write(tree(), this.report);
+        Assert.assertEquals(Files.getPosixFilePermissions(this.report.toPath()),
+                Files.getPosixFilePermissions(plain));
+    }
+}